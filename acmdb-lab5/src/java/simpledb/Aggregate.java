@@ -3,26 +3,24 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over one column, can be computed in a
+ * single pass over the child, grouped by any number of columns; all of them
+ * share one {@link HashAggregator}, which spills groups to disk when there
+ * are more than fit in the memory budget.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private DbIterator child;
-    private int afield, gfield;
-    private Aggregator.Op aop;
+    private int[] afields, gfields;
+    private Aggregator.Op[] aops;
+    private final int memoryPages;
 
     /**
-     * Constructor.
-     * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
-     * 
-     * 
+     * Constructor for a single aggregate.
+     *
      * @param child
      *            The DbIterator that is feeding us tuples.
      * @param afield
@@ -35,20 +33,57 @@ public class Aggregate extends Operator {
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+        this(child, new int[] { afield }, new Aggregator.Op[] { aop },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield });
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each column in afields
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields) {
+        this(child, afields, aops, gfields, HashAggregator.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns with a memory
+     * budget.
+     *
+     * @param memoryPages
+     *            the number of pages worth of groups to hold in memory
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields, int memoryPages) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.memoryPages = memoryPages;
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     *         {@link simpledb.Aggregator#NO_GROUPING}. With several group-by
+     *         fields this is the first of them.
      * */
     public int groupField() {
 	    // some code goes here
-	    return gfield;
+	    return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
     }
 
     /**
@@ -58,7 +93,15 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	    // some code goes here
-	    return child.getTupleDesc().getFieldName(gfield);
+	    return gfields.length == 0 ? null : child.getTupleDesc().getFieldName(gfields[0]);
+    }
+
+    /**
+     * @return the group-by field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -66,7 +109,7 @@ public class Aggregate extends Operator {
      * */
     public int aggregateField() {
 	    // some code goes here
-	    return afield;
+	    return afields[0];
     }
 
     /**
@@ -75,7 +118,7 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	    // some code goes here
-	    return child.getTupleDesc().getFieldName(afield);
+	    return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
@@ -83,7 +126,21 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
 	    // some code goes here
-	    return aop;
+	    return aops[0];
+    }
+
+    /**
+     * @return the aggregate field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -91,38 +148,27 @@ public class Aggregate extends Operator {
     }
 
     DbIterator iter;
+    private transient HashAggregator aggregator;
 
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	    // some code goes here
         super.open();
         child.open();
-        Aggregator aggregator;
-        if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
-            if (gfield  == -1)
-                aggregator = new IntegerAggregator(Aggregator.NO_GROUPING, null, afield, aop);
-            else
-                aggregator = new IntegerAggregator(gfield, child.getTupleDesc().getFieldType(gfield), afield, aop);
-        } else {
-            if (gfield == -1)
-                aggregator = new StringAggregator(Aggregator.NO_GROUPING, null, afield, aop);
-            else
-                aggregator = new StringAggregator(gfield, child.getTupleDesc().getFieldType(gfield), afield, aop);
-        }
+        aggregator = new HashAggregator(child.getTupleDesc(), gfields, afields, aops, memoryPages);
         while (child.hasNext()) {
             Tuple tuple = child.next();
-            aggregator.mergeTupleIntoGroup(tuple);
+            aggregator.merge(tuple);
         }
         iter = aggregator.iterator();
         iter.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group-by fields come first, followed by
+     * the result of each aggregate in the order given to the constructor;
+     * without grouping the tuple holds only the aggregate results. Should
+     * return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	    // some code goes here
@@ -133,16 +179,13 @@ public class Aggregate extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
 	    // some code goes here
-        child.rewind();
         iter.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
+     * Returns the TupleDesc of this Aggregate: the group by fields, followed
+     * by one INT field per aggregate.
+     *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
      * given in the constructor, and child_td is the TupleDesc of the child
@@ -150,26 +193,39 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	    // some code goes here
-	    TupleDesc tmp = child.getTupleDesc();
-	    return child.getTupleDesc();
-
+	    return HashAggregator.resultTupleDesc(child.getTupleDesc(), gfields, afields, aops);
     }
 
     public void close() {
 	    // some code goes here
         super.close();
         child.close();
+        if (iter != null)
+            iter.close();
+        iter = null;
+        if (aggregator != null)
+            aggregator.close();
+        aggregator = null;
+    }
+
+    /**
+     * @return the number of times groups were spilled to disk while the
+     *         child was read, or 0 if they fit in memory
+     */
+    public int numSpills() {
+        return aggregator == null ? 0 : aggregator.numSpills();
     }
 
     @Override
     public DbIterator[] getChildren() {
 	    // some code goes here
-	    return null;
+	    return new DbIterator[] { child };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
 	    // some code goes here
+        child = children[0];
     }
-    
+
 }
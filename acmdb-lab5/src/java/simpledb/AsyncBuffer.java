@@ -0,0 +1,55 @@
+package simpledb;
+
+/**
+ * AsyncBuffer runs its child on a worker thread and returns the child's
+ * tuples, in order, to the thread that reads it. The worker starts reading
+ * the child when the AsyncBuffer is opened and passes its tuples over in
+ * batches through a bounded queue; once the queue is full it waits for the
+ * reader, so it never gets more than a few batches ahead.
+ * <p>
+ * Below an operator that reads all of an input before returning anything (a
+ * hash join's build side, an aggregate, a sort), an AsyncBuffer lets the
+ * I/O of the input's scans overlap with the work the operator does on the
+ * tuples already read. The planner inserts them when
+ * {@link LogicalPlan#setAsyncBuffers} is enabled, see {@link #wrap}.
+ */
+public class AsyncBuffer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the plan to run on the worker thread
+     * @param queueBatches
+     *            the number of batches of tuples the queue holds
+     */
+    public AsyncBuffer(DbIterator child, int queueBatches) {
+        super(new DbIterator[] { child }, queueBatches);
+    }
+
+    /**
+     * Constructor using {@link Exchange#DEFAULT_QUEUE_BATCHES} as the queue
+     * capacity.
+     */
+    public AsyncBuffer(DbIterator child) {
+        this(child, DEFAULT_QUEUE_BATCHES);
+    }
+
+    @Override
+    public String getName() {
+        return "async";
+    }
+
+    /**
+     * Returns the input of a pipeline breaker, run on a worker thread if
+     * {@link LogicalPlan#isAsyncBuffers()} is set. An input that already runs
+     * on worker threads (any Exchange) is returned unchanged.
+     */
+    public static DbIterator wrap(DbIterator input) {
+        if (!LogicalPlan.isAsyncBuffers() || input instanceof Exchange)
+            return input;
+        return new AsyncBuffer(input);
+    }
+}
@@ -2,7 +2,10 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import simpledb.Predicate.Op;
 
@@ -25,6 +28,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final boolean tupleKeys;
+	/** temporary files holding trees built by bulk loads of uncompleted transactions */
+	private final HashMap<TransactionId, File> pendingLoads = new HashMap<TransactionId, File>();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +41,27 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally with
+	 * tuple keys.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param tupleKeys - whether tuples with equal key fields are ordered by their
+	 *            remaining fields
+	 * @see #hasTupleKeys()
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean tupleKeys) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.tupleKeys = tupleKeys;
 	}
 
 	/**
@@ -176,6 +199,39 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Returns whether this B+ tree has tuple keys. Such a tree orders tuples by the
+	 * key field and then by the remaining fields, and its internal pages store whole
+	 * tuples as keys (see {@link TupleKey}), so that tuples with the same key field
+	 * can be told apart while descending the tree. No two tuples of such a tree may
+	 * be equal. Searching it for a key field value works as for any other tree.
+	 */
+	public boolean hasTupleKeys() {
+		return tupleKeys;
+	}
+
+	/**
+	 * Returns the key of a tuple of this tree: its key field, or a TupleKey if the
+	 * tree has tuple keys.
+	 */
+	Field keyOf(Tuple t) {
+		return tupleKeys ? TupleKey.of(t, keyField) : t.getField(keyField);
+	}
+
+	/**
+	 * Returns the order of the tuples in this tree.
+	 */
+	Comparator<Tuple> tupleComparator() {
+		if(!tupleKeys) {
+			return new BTreeFileEncoder.TupleComparator(keyField);
+		}
+		return new Comparator<Tuple>() {
+			public int compare(Tuple t1, Tuple t2) {
+				return TupleKey.compare(t1, t2, keyField);
+			}
+		};
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -201,14 +257,10 @@ public class BTreeFile implements DbFile {
 			return (BTreeLeafPage) page;
 		else if (pid.pgcateg() == BTreePageId.INTERNAL) {
 			page = getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
-			BTreeEntry i = null;
-			Iterator<BTreeEntry> iter = ((BTreeInternalPage) page).iterator();
-			while (iter.hasNext()) {
-				i = iter.next();
-				if (f == null || f.compare(Op.LESS_THAN_OR_EQ, i.getKey()))
-					return findLeafPage(tid, dirtypages, i.getLeftChild(), perm, f);
-			}
-			return findLeafPage(tid, dirtypages, i.getRightChild(), perm, f);
+			BTreePageId childId = ((BTreeInternalPage) page).findChildId(f);
+			if (childId == null)
+				throw new DbException("internal page " + pid.pageNumber() + " has no children");
+			return findLeafPage(tid, dirtypages, childId, perm, f);
 		}
 		else
 			throw new DbException("It's not internal or leaf pages.");
@@ -278,13 +330,14 @@ public class BTreeFile implements DbFile {
 			((BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_WRITE)).setLeftSiblingId(newPage.getId());
 		page.setRightSiblingId(newPage.getId());
 
-		BTreeEntry newEntry = new BTreeEntry(tmp.getField(keyField), page.getId(), newPage.getId());
-		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), tmp.getField(keyField));
+		Field splitKey = keyOf(tmp);
+		BTreeEntry newEntry = new BTreeEntry(splitKey, page.getId(), newPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
 		newEntry.setRecordId(newPage.iterator().next().getRecordId());
 		parent.insertEntry(newEntry);
 		updateParentPointers(tid, dirtypages, parent);
 
-		if (field.compare(Op.LESS_THAN_OR_EQ, tmp.getField(keyField)))
+		if (field.compare(Op.LESS_THAN_OR_EQ, splitKey))
 			return page;
 		else
 			return newPage;
@@ -337,7 +390,7 @@ public class BTreeFile implements DbFile {
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), curEntry.getKey());
 		curEntry.setRecordId(newPage.iterator().next().getRecordId());
 		parent.insertEntry(curEntry);
-		updateParentPointers(tid, dirtypages, page);
+		updateParentPointers(tid, dirtypages, parent);
 		updateParentPointers(tid, dirtypages, newPage);
 
 		if (field.compare(Op.LESS_THAN, curEntry.getKey()))
@@ -493,6 +546,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		checkNoPendingLoad(tid);
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
 		// get a read lock on the root pointer page and use it to locate the root page
@@ -507,9 +561,10 @@ public class BTreeFile implements DbFile {
 
 		// find and lock the left-most leaf page corresponding to the key field,
 		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		Field key = keyOf(t);
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key);
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
 		}
 
 		// insert the tuple into the leaf page
@@ -648,7 +703,7 @@ public class BTreeFile implements DbFile {
 				sibling.deleteTuple(tmp);
 				page.insertTuple(tmp);
 			}
-			entry.setKey(page.iterator().next().getField(keyField));
+			entry.setKey(keyOf(page.iterator().next()));
 		}
 		else {
 			Iterator<Tuple> iter = sibling.iterator();
@@ -657,7 +712,7 @@ public class BTreeFile implements DbFile {
 				sibling.deleteTuple(tmp);
 				page.insertTuple(tmp);
 			}
-			entry.setKey(iter.next().getField(keyField));
+			entry.setKey(keyOf(iter.next()));
 		}
 		parent.updateEntry(entry);
 	}
@@ -948,6 +1003,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		checkNoPendingLoad(tid);
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
@@ -1191,6 +1247,44 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Find the tuple of this tree that is equal to t in every field. The tree must
+	 * have tuple keys, so that the search descends straight to the leaf holding the
+	 * tuple instead of scanning every tuple with the same key field. This method will
+	 * acquire a read lock on the pages along the path.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to find
+	 * @return the tuple stored in this tree, with its record id set, or null if there
+	 * is no such tuple
+	 * @see #hasTupleKeys()
+	 */
+	public Tuple findTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if(!tupleKeys) {
+			throw new UnsupportedOperationException("findTuple needs a tree with tuple keys");
+		}
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		BTreePageId rootId = getRootPtrPage(tid, dirtypages).getRootId();
+		if(rootId == null) {
+			return null;
+		}
+
+		TupleKey key = TupleKey.of(t, keyField);
+		BTreeLeafPage page = findLeafPage(tid, dirtypages, rootId, Permissions.READ_ONLY, key);
+		int pos = page.findPosition(key, Op.LESS_THAN);
+		// a key equal to the key of a parent entry is found in the page to its right
+		if(pos == page.getNumTuples() && page.getRightSiblingId() != null) {
+			page = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_ONLY);
+			pos = 0;
+		}
+		if(pos == page.getNumTuples()) {
+			return null;
+		}
+		Tuple found = page.iterator(pos).next();
+		return key.compareTuple(found) == 0 ? found : null;
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method
 	 * will acquire a read lock on the affected pages of the file, and may block until
@@ -1203,6 +1297,183 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Bulk load a stream of tuples, sorted on the key field, into this B+ tree in
+	 * its own transaction. See {@link #bulkLoad(TransactionId, DbIterator, double, boolean)}.
+	 *
+	 * @param sortedInput - the tuples to load, sorted on the key field
+	 * @param fillFactor - the fraction of each page to fill, in (0, 1]
+	 *
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	public void bulkLoad(DbIterator sortedInput, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		Transaction t = new Transaction();
+		t.start();
+		boolean committed = false;
+		try {
+			bulkLoad(t.getId(), sortedInput, fillFactor, true);
+			t.commit();
+			committed = true;
+		} finally {
+			if(!committed) {
+				t.abort();
+			}
+		}
+	}
+
+	/**
+	 * Bulk load a stream of tuples into this B+ tree, building the tree bottom-up
+	 * instead of inserting one tuple at a time. The tuples already in the tree are
+	 * merged with the input, leaf pages are packed sequentially to the requested
+	 * fill factor (but never below the half-full occupancy invariant), and each
+	 * level of internal pages is then built from the first keys of the level below.
+	 * The new tree is written to a temporary file next to this one, so pages are
+	 * written exactly once and no per-tuple splits happen.
+	 *
+	 * The temporary file is a pending change of tid: it replaces this file when tid
+	 * commits (see {@link BufferPool#transactionComplete(TransactionId, boolean)})
+	 * and is deleted when tid aborts, so an aborted or interrupted load leaves the
+	 * tree as it was. Until then tid still sees the old tree, and tid may not modify
+	 * the tree again.
+	 *
+	 * If the input is not sorted it is first run through an ExternalSort using the
+	 * default memory budget.
+	 *
+	 * This method acquires a write lock on the root pointer page, which tid holds
+	 * until it completes, and a read lock on every existing leaf page, and may block
+	 * until those locks can be acquired.
+	 *
+	 * @param tid - the transaction id
+	 * @param input - the tuples to load
+	 * @param fillFactor - the fraction of each page to fill, in (0, 1]
+	 * @param sorted - whether the input is already sorted on the key field
+	 *
+	 * @throws DbException if the input does not match this file's schema, claims
+	 * to be sorted but is not, or tid has already bulk loaded this tree
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	public synchronized void bulkLoad(TransactionId tid, DbIterator input, double fillFactor, boolean sorted)
+			throws DbException, IOException, TransactionAbortedException {
+		if(!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("fill factor must be in (0, 1], got " + fillFactor);
+		}
+		checkNoPendingLoad(tid);
+		TupleDesc inputTd = input.getTupleDesc();
+		if(inputTd.numFields() != td.numFields()) {
+			throw new DbException("bulk load input has " + inputTd.numFields() + " fields, expected " + td.numFields());
+		}
+		for(int i = 0; i < td.numFields(); i++) {
+			if(inputTd.getFieldType(i) != td.getFieldType(i)) {
+				throw new DbException("bulk load input field " + i + " has type " + inputTd.getFieldType(i));
+			}
+		}
+
+		// lock the root pointer so no other transaction can enter the tree while it is rebuilt
+		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, new HashMap<PageId, Page>());
+		Database.getBufferPool().getPage(tid, rootPtr.getId(), Permissions.READ_WRITE);
+		BTreePageId rootId = rootPtr.getRootId();
+
+		Comparator<Tuple> comparator = tupleComparator();
+		DbFileIterator existing = rootId == null ? null : iterator(tid);
+		DbFileIterator loaded = null;
+		ExternalSort sorter = null;
+		File tmp = File.createTempFile("bulkload", ".tmp", f.getAbsoluteFile().getParentFile());
+		input.open();
+		try {
+			if(sorted) {
+				loaded = new SortedInputIterator(input, comparator);
+			}
+			else {
+				sorter = new ExternalSort(td, comparator);
+				sorter.addAll(input);
+				loaded = sorter.iterator();
+			}
+			loaded.open();
+			if(existing != null) {
+				existing.open();
+			}
+
+			BTreeBulkLoader loader = new BTreeBulkLoader(this, tmp, fillFactor);
+			Tuple a = (existing != null && existing.hasNext()) ? existing.next() : null;
+			Tuple b = loaded.hasNext() ? loaded.next() : null;
+			while(a != null || b != null) {
+				if(b == null || (a != null && comparator.compare(a, b) <= 0)) {
+					loader.add(a);
+					a = existing.hasNext() ? existing.next() : null;
+				}
+				else {
+					loader.add(b);
+					b = loaded.hasNext() ? loaded.next() : null;
+				}
+			}
+			loader.finish();
+
+			pendingLoads.put(tid, tmp);
+			Database.getBufferPool().addBulkLoad(tid, this);
+		} finally {
+			input.close();
+			if(existing != null) {
+				existing.close();
+			}
+			if(loaded != null) {
+				loaded.close();
+			}
+			if(sorter != null) {
+				sorter.close();
+			}
+			if(pendingLoads.get(tid) != tmp) {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Finish a bulk load of the specified transaction. On commit the tree built by
+	 * the load replaces this file and the cached pages of the old file are discarded;
+	 * on abort it is deleted. Called by the BufferPool when tid completes, after the
+	 * dirty pages of tid have been flushed and before its locks are released.
+	 *
+	 * @param tid - the transaction id
+	 * @param commit - whether tid committed
+	 * @throws IOException
+	 */
+	synchronized void completeBulkLoad(TransactionId tid, boolean commit) throws IOException {
+		File tmp = pendingLoads.remove(tid);
+		if(tmp == null) {
+			return;
+		}
+		if(!commit) {
+			tmp.delete();
+			return;
+		}
+		int oldPages = numPages();
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		// the cached pages describe the old file and must never be written over the new one
+		BufferPool bp = Database.getBufferPool();
+		bp.discardPage(BTreeRootPtrPage.getId(tableid));
+		for(int i = 1; i <= oldPages; i++) {
+			bp.discardPage(new BTreePageId(tableid, i, BTreePageId.INTERNAL));
+			bp.discardPage(new BTreePageId(tableid, i, BTreePageId.LEAF));
+			bp.discardPage(new BTreePageId(tableid, i, BTreePageId.HEADER));
+		}
+	}
+
+	/**
+	 * Throw a DbException if tid has a bulk load of this tree that is not installed
+	 * yet; its changes would be written to the old file and lost.
+	 */
+	private void checkNoPendingLoad(TransactionId tid) throws DbException {
+		if(pendingLoads.containsKey(tid)) {
+			throw new DbException("transaction " + tid.getId() + " has bulk loaded this tree and must complete first");
+		}
+	}
+
 }
 
 /**
@@ -1318,14 +1589,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_WRITE);
 		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			// start from the first key greater than or equal to the field
 			curp = f.findLeafPage(tid, root, Permissions.READ_WRITE, ipred.getField());
+			it = curp.iterator(curp.findPosition(ipred.getField(), Op.LESS_THAN));
+		}
+		else if(ipred.getOp() == Op.GREATER_THAN) {
+			// start from the first key strictly greater than the field
+			curp = f.findLeafPage(tid, root, Permissions.READ_WRITE, ipred.getField());
+			it = curp.iterator(curp.findPosition(ipred.getField(), Op.LESS_THAN_OR_EQ));
 		}
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_WRITE, null);
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -1388,3 +1665,239 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		it = null;
 	}
 }
+
+/**
+ * Helper class that checks that a DbIterator passed to bulkLoad really is sorted
+ * on the key field, and adapts it to the DbFileIterator interface
+ */
+class SortedInputIterator extends AbstractDbFileIterator {
+
+	DbIterator child;
+	Comparator<Tuple> comparator;
+	Tuple prev = null;
+
+	/**
+	 * Constructor for this iterator
+	 * @param child - the (already opened) input
+	 * @param comparator - the order the input is expected to be in
+	 */
+	public SortedInputIterator(DbIterator child, Comparator<Tuple> comparator) {
+		this.child = child;
+		this.comparator = comparator;
+	}
+
+	public void open() {
+	}
+
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if(!child.hasNext())
+			return null;
+		Tuple t = child.next();
+		if(prev != null && comparator.compare(prev, t) > 0) {
+			throw new DbException("bulk load input is not sorted on the key field");
+		}
+		prev = t;
+		return t;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		child.rewind();
+		prev = null;
+	}
+
+	public void close() {
+		super.close();
+		prev = null;
+	}
+}
+
+/**
+ * Helper class that writes a complete B+ tree bottom-up from tuples handed to it
+ * in key order. Leaf pages are written as soon as they are full, internal pages once
+ * all leaves are known, and parent pointers are patched in at the end.
+ */
+class BTreeBulkLoader {
+
+	private final BTreeFile bf;
+	private final File out;
+	private final BufferedOutputStream bos;
+	private final Type[] types;
+	private final int maxTuples;
+	private final int maxEntries;
+	private final int targetTuples;
+	private final int targetEntries;
+
+	private int nextPageNo = 1;
+	private ArrayList<Tuple> pending = null;
+	private ArrayList<Tuple> current = new ArrayList<Tuple>();
+
+	// page numbers and first keys of the pages on the level being built
+	private ArrayList<Integer> children = new ArrayList<Integer>();
+	private ArrayList<Field> firstKeys = new ArrayList<Field>();
+	// parent page number of every page written, indexed by page number - 1
+	private ArrayList<Integer> parents = new ArrayList<Integer>();
+
+	/**
+	 * Constructor for the bulk loader
+	 * @param bf - the BTreeFile whose schema and key field the new tree uses
+	 * @param out - the file to write the new tree to
+	 * @param fillFactor - the fraction of each page to fill
+	 */
+	public BTreeBulkLoader(BTreeFile bf, File out, double fillFactor) throws IOException {
+		this.bf = bf;
+		this.out = out;
+		TupleDesc td = bf.getTupleDesc();
+		types = new Type[td.numFields()];
+		for(int i = 0; i < types.length; i++) {
+			types[i] = td.getFieldType(i);
+		}
+		maxTuples = new BTreeLeafPage(new BTreePageId(bf.getId(), 0, BTreePageId.LEAF),
+				BTreeLeafPage.createEmptyPageData(), bf.keyField()).getMaxTuples();
+		maxEntries = new BTreeInternalPage(new BTreePageId(bf.getId(), 0, BTreePageId.INTERNAL),
+				BTreeInternalPage.createEmptyPageData(), bf.keyField()).getMaxEntries();
+		targetTuples = Math.max(Math.max(maxTuples / 2, 1), Math.min(maxTuples, (int) (fillFactor * maxTuples)));
+		targetEntries = Math.max(Math.max(maxEntries / 2, 1), Math.min(maxEntries, (int) (fillFactor * maxEntries)));
+
+		bos = new BufferedOutputStream(new FileOutputStream(out));
+		// placeholder for the root pointer page, rewritten by finish()
+		bos.write(BTreeRootPtrPage.createEmptyPageData());
+	}
+
+	/**
+	 * Add the next tuple. Tuples must be added in key order.
+	 */
+	public void add(Tuple t) throws IOException {
+		current.add(t);
+		if(current.size() == targetTuples) {
+			// hold the last full page back so that an underfull final page
+			// can be rebalanced with it
+			if(pending != null) {
+				writeLeaf(pending, false);
+			}
+			pending = current;
+			current = new ArrayList<Tuple>();
+		}
+	}
+
+	/**
+	 * Write the remaining leaves and all internal levels, then the root pointer page.
+	 */
+	public void finish() throws IOException {
+		if(pending == null) {
+			// the whole tree is a single (possibly empty) leaf
+			writeLeaf(current, true);
+		}
+		else if(current.isEmpty()) {
+			writeLeaf(pending, true);
+		}
+		else if(current.size() >= maxTuples / 2) {
+			writeLeaf(pending, false);
+			writeLeaf(current, true);
+		}
+		else {
+			ArrayList<Tuple> all = new ArrayList<Tuple>(pending);
+			all.addAll(current);
+			if(all.size() <= maxTuples) {
+				writeLeaf(all, true);
+			}
+			else {
+				int half = all.size() / 2;
+				writeLeaf(new ArrayList<Tuple>(all.subList(0, half)), false);
+				writeLeaf(new ArrayList<Tuple>(all.subList(half, all.size())), true);
+			}
+		}
+
+		int rootCategory = BTreePageId.LEAF;
+		while(children.size() > 1) {
+			writeInternalLevel(rootCategory);
+			rootCategory = BTreePageId.INTERNAL;
+		}
+		bos.close();
+
+		RandomAccessFile rf = new RandomAccessFile(out, "rw");
+		try {
+			rf.write(BTreeFileEncoder.convertToRootPtrPage(children.get(0), rootCategory, 0));
+			for(int i = 0; i < parents.size(); i++) {
+				if(parents.get(i) != 0) {
+					rf.seek(BTreeRootPtrPage.getPageSize() + (long) i * BufferPool.getPageSize());
+					rf.writeInt(parents.get(i));
+				}
+			}
+		} finally {
+			rf.close();
+		}
+	}
+
+	private void writeLeaf(ArrayList<Tuple> tuples, boolean last) throws IOException {
+		int pageNo = nextPageNo++;
+		byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, BufferPool.getPageSize(),
+				types.length, types, bf.keyField());
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		buf.putInt(BTreePage.INDEX_SIZE, pageNo == 1 ? 0 : pageNo - 1); // left sibling
+		buf.putInt(2 * BTreePage.INDEX_SIZE, last ? 0 : pageNo + 1); // right sibling
+		bos.write(data);
+		parents.add(0);
+		children.add(pageNo);
+		firstKeys.add(tuples.isEmpty() ? null : bf.keyOf(tuples.get(0)));
+	}
+
+	/**
+	 * Replace the current level with the level of internal pages above it.
+	 */
+	private void writeInternalLevel(int childCategory) throws IOException {
+		int keySize = bf.hasTupleKeys() ? bf.getTupleDesc().getSize() : types[bf.keyField()].getLen();
+		ArrayList<Integer> parentChildren = new ArrayList<Integer>();
+		ArrayList<Field> parentKeys = new ArrayList<Field>();
+		int start = 0;
+		for(int size : groupSizes(children.size(), targetEntries + 1, maxEntries / 2 + 1, maxEntries + 1)) {
+			int pageNo = nextPageNo++;
+			ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+			for(int i = start + 1; i < start + size; i++) {
+				entries.add(new BTreeEntry(firstKeys.get(i),
+						new BTreePageId(bf.getId(), children.get(i - 1), childCategory),
+						new BTreePageId(bf.getId(), children.get(i), childCategory)));
+			}
+			for(int i = start; i < start + size; i++) {
+				parents.set(children.get(i) - 1, pageNo);
+			}
+			bos.write(BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+					keySize, childCategory));
+			parents.add(0);
+			parentChildren.add(pageNo);
+			parentKeys.add(firstKeys.get(start));
+			start += size;
+		}
+		children = parentChildren;
+		firstKeys = parentKeys;
+	}
+
+	/**
+	 * Split n items into groups of the target size. A short final group is merged
+	 * into the one before it, or the two are split evenly if they do not fit together,
+	 * so that every group holds at least min items.
+	 */
+	static ArrayList<Integer> groupSizes(int n, int target, int min, int max) {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for(int i = 0; i < n / target; i++) {
+			sizes.add(target);
+		}
+		int rem = n % target;
+		if(rem == 0) {
+			return sizes;
+		}
+		if(sizes.isEmpty() || rem >= min) {
+			sizes.add(rem);
+			return sizes;
+		}
+		int last = sizes.remove(sizes.size() - 1) + rem;
+		if(last <= max) {
+			sizes.add(last);
+		}
+		else {
+			sizes.add(last / 2);
+			sizes.add(last - last / 2);
+		}
+		return sizes;
+	}
+}
@@ -18,6 +18,11 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+
+	// slot directory: the used slots in slot order, which is also key order on this page.
+	// Slot 0 only holds the left-most child pointer
+	private final int sortedSlots[];
+	private int numUsedSlots;
 	
 	private int childCategory; // either leaf or internal
 
@@ -86,6 +91,13 @@ public class BTreeInternalPage extends BTreePage {
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
+		// build the slot directory from the header
+		sortedSlots = new int[numSlots];
+		numUsedSlots = 0;
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				sortedSlots[numUsedSlots++] = i;
+
 		keys = new Field[numSlots];
 		try{
 			// allocate and read the keys of this page
@@ -115,7 +127,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		int keySize = getKeySize();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -168,7 +180,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeySize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -178,10 +190,10 @@ public class BTreeInternalPage extends BTreePage {
 			return null;
 		}
 
-		// read the key field
+		// read the key field, or all fields of a tuple key
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = tupleKeys ? TupleKey.parse(dis, td, keyField) : td.getFieldType(keyField).parse(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -269,7 +281,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeySize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -316,7 +328,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeySize() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -569,13 +581,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
+		// the first key slot is not counted because it is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		int usedKeySlots = numUsedSlots;
+		if (numUsedSlots > 0 && sortedSlots[0] == 0)
+			usedKeySlots--;
+		return numSlots - 1 - usedKeySlots;
 	}
 
 	/**
@@ -595,10 +606,61 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
+		if(value == isSlotUsed(i))
+			return;
+
+		// keep the slot directory in step with the header
+		int pos = Arrays.binarySearch(sortedSlots, 0, numUsedSlots, i);
+		if(value) {
+			pos = -(pos + 1);
+			System.arraycopy(sortedSlots, pos, sortedSlots, pos + 1, numUsedSlots - pos);
+			sortedSlots[pos] = i;
+			numUsedSlots++;
 			header[headerbyte] |= 1 << headerbit;
-		else
+		}
+		else {
+			System.arraycopy(sortedSlots, pos + 1, sortedSlots, pos, numUsedSlots - pos - 1);
+			numUsedSlots--;
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		}
+	}
+
+	/**
+	 * Binary search over the keys on this page using the slot directory. Does not
+	 * allocate and needs O(log n) key comparisons.
+	 *
+	 * @param f - the key to search for
+	 * @param op - LESS_THAN to find the first entry with key greater than or equal to f,
+	 *        LESS_THAN_OR_EQ to find the first entry with key strictly greater than f
+	 * @return the position of that entry in key order, between 1 and getNumEntries() + 1.
+	 *         Position 0 stands for the left-most child pointer, which has no key
+	 */
+	public int findPosition(Field f, Op op) {
+		int lo = 1;
+		int hi = numUsedSlots;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[sortedSlots[mid]].compare(op, f))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the child page which is the root of the left-most subtree possibly
+	 * containing the key f, i.e. the left child of the first entry whose key is greater
+	 * than or equal to f, or the right-most child if there is no such entry.
+	 *
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page, or null if this page has no children
+	 */
+	public BTreePageId findChildId(Field f) {
+		if (numUsedSlots == 0 || sortedSlots[0] != 0)
+			return null;
+		int position = (f == null) ? 1 : findPosition(f, Op.LESS_THAN);
+		return new BTreePageId(pid.getTableId(), children[sortedSlots[position - 1]], childCategory);
 	}
 
 	/**
@@ -15,6 +15,10 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
+
+	// slot directory: the used slots in key order, which is also slot order on this page
+	private final int sortedSlots[];
+	private int numTuples;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -26,8 +30,9 @@ public class BTreeLeafPage extends BTreePage {
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			Field key = tupleKeys ? keyOf(t) : t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, key));
+			prev = key;
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
@@ -93,6 +98,13 @@ public class BTreeLeafPage extends BTreePage {
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
+		// build the slot directory from the header
+		sortedSlots = new int[numSlots];
+		numTuples = 0;
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				sortedSlots[numTuples++] = i;
+
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
@@ -310,11 +322,20 @@ public class BTreeLeafPage extends BTreePage {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
 
-		// find the first empty slot 
+		// binary search for the last key less than or equal to the key being inserted
+		int pos = findPosition(keyOf(t), Predicate.Op.LESS_THAN_OR_EQ);
+		int lessOrEqKey = (pos == 0) ? -1 : sortedSlots[pos - 1];
+
+		// find the empty slot closest to the insert position, so that as few
+		// records as possible have to be shifted
 		int emptySlot = -1;
-		for (int i=0; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
+		for (int lo = lessOrEqKey, hi = lessOrEqKey + 1; lo >= 0 || hi < numSlots; lo--, hi++) {
+			if (hi < numSlots && !isSlotUsed(hi)) {
+				emptySlot = hi;
+				break;
+			}
+			if (lo >= 0 && !isSlotUsed(lo)) {
+				emptySlot = lo;
 				break;
 			}
 		}
@@ -322,18 +343,6 @@ public class BTreeLeafPage extends BTreePage {
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
 
-		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
-
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
 		int goodSlot = -1;
@@ -438,18 +447,14 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		return numTuples;
 	}
 
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return numSlots - numTuples;
 	}
 
 	/**
@@ -469,10 +474,57 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
+		if(value == isSlotUsed(i))
+			return;
+
+		// keep the slot directory in step with the header
+		int pos = Arrays.binarySearch(sortedSlots, 0, numTuples, i);
+		if(value) {
+			pos = -(pos + 1);
+			System.arraycopy(sortedSlots, pos, sortedSlots, pos + 1, numTuples - pos);
+			sortedSlots[pos] = i;
+			numTuples++;
 			header[headerbyte] |= 1 << headerbit;
-		else
+		}
+		else {
+			System.arraycopy(sortedSlots, pos + 1, sortedSlots, pos, numTuples - pos - 1);
+			numTuples--;
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		}
+	}
+
+	/**
+	 * Binary search over the keys on this page using the slot directory. Does not
+	 * allocate and needs O(log n) key comparisons.
+	 *
+	 * @param f - the key to search for; a TupleKey is compared with whole tuples
+	 * @param op - LESS_THAN to find the first tuple with key greater than or equal to f,
+	 *        LESS_THAN_OR_EQ to find the first tuple with key strictly greater than f
+	 * @return the position of that tuple in key order, between 0 and getNumTuples()
+	 */
+	public int findPosition(Field f, Predicate.Op op) {
+		TupleKey tupleKey = (f instanceof TupleKey) ? (TupleKey) f : null;
+		int lo = 0;
+		int hi = numTuples;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			Tuple t = tuples[sortedSlots[mid]];
+			if (tupleKey != null ? TupleKey.holds(op, tupleKey.compareTuple(t)) : t.getField(keyField).compare(op, f))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the slot holding the tuple at the given position in key order
+	 * @see #findPosition(Field, Predicate.Op)
+	 */
+	public int getSlotAt(int position) {
+		if (position < 0 || position >= numTuples)
+			throw new NoSuchElementException();
+		return sortedSlots[position];
 	}
 
 	/**
@@ -483,6 +535,15 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param position - the position in key order of the first tuple to return
+	 * @return an iterator over the tuples on this page, starting from the given position
+	 * @see #findPosition(Field, Predicate.Op)
+	 */
+	public Iterator<Tuple> iterator(int position) {
+		return new BTreeLeafPageIterator(this, position < numTuples ? sortedSlots[position] : numSlots);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -529,6 +590,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
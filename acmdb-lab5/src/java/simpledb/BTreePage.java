@@ -22,6 +22,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final boolean tupleKeys;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,6 +56,24 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+		this.tupleKeys = file instanceof BTreeFile && ((BTreeFile) file).hasTupleKeys();
+	}
+
+	/**
+	 * @return the key of a tuple of this tree: its key field, or a TupleKey if the
+	 * tree has tuple keys
+	 * @see BTreeFile#hasTupleKeys()
+	 */
+	protected Field keyOf(Tuple t) {
+		return tupleKeys ? TupleKey.of(t, keyField) : t.getField(keyField);
+	}
+
+	/**
+	 * @return the number of bytes a key of this tree takes on an internal page
+	 */
+	protected int getKeySize() {
+		return tupleKeys ? td.getSize() : td.getFieldType(keyField).getLen();
 	}
 
 	/**
@@ -0,0 +1,106 @@
+package simpledb;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: it merges the
+ * batches of its child into a {@link HashAggregator}, which reads the group
+ * and aggregate values straight from the INT columns of each batch, and
+ * returns the results in batches.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] afields, gfields;
+    private final Aggregator.Op[] aops;
+    private final int memoryPages;
+    private final TupleDesc td;
+
+    private transient HashAggregator aggregator;
+    private transient DbIterator results;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The batch iterator that is feeding us rows.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each column in afields
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param memoryPages
+     *            the number of pages worth of groups to hold in memory
+     */
+    public BatchAggregate(BatchIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields, int memoryPages) {
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.memoryPages = memoryPages;
+        // fail here rather than on open for unsupported operators
+        this.td = newAggregator().getTupleDesc();
+    }
+
+    /**
+     * Constructor using {@link HashAggregator#DEFAULT_MEMORY_PAGES} as the
+     * memory budget.
+     */
+    public BatchAggregate(BatchIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields) {
+        this(child, afields, aops, gfields, HashAggregator.DEFAULT_MEMORY_PAGES);
+    }
+
+    private HashAggregator newAggregator() {
+        return new HashAggregator(child.getTupleDesc(), gfields, afields, aops, memoryPages);
+    }
+
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    /**
+     * The group by fields, followed by one INT field per aggregate, as for
+     * {@link Aggregate#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        aggregator = newAggregator();
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null)
+            aggregator.merge(batch);
+        results = aggregator.iterator();
+        results.open();
+        out = new TupleBatch(td);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (!out.isFull() && results.hasNext())
+            out.addTuple(results.next());
+        return out.numRows() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        results.rewind();
+    }
+
+    public void close() {
+        child.close();
+        if (results != null)
+            results.close();
+        if (aggregator != null)
+            aggregator.close();
+        results = null;
+        aggregator = null;
+        out = null;
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}: it narrows the
+ * selection vector of each batch of its child to the rows that pass its
+ * predicate, without copying any values. A predicate on an INT column with an
+ * INT operand is evaluated by a loop over the primitive column, with one
+ * loop per comparison operator; the loops write every row to the selection
+ * vector and only advance past the ones that pass, so they do not branch on
+ * the outcome of the comparison. Other predicates compare Fields.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate predicate;
+    private final BatchIterator child;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child batch iterator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.predicate = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            int n = filter(batch, sel, batch.numRows());
+            if (n > 0) {
+                batch.select(sel, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compacts sel[0..n) to the rows of the batch that pass the predicate.
+     *
+     * @return the number of rows that pass
+     */
+    private int filter(TupleBatch batch, int[] sel, int n) {
+        int field = predicate.getField();
+        Field operand = predicate.getOperand();
+        if (batch.getTupleDesc().getFieldType(field) != Type.INT_TYPE
+                || !(operand instanceof IntField)) {
+            Field[] col = batch.fieldColumn(field);
+            Predicate.Op op = predicate.getOp();
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                Field f = col != null ? col[r] : batch.getField(field, r);
+                if (f.compare(op, operand))
+                    sel[k++] = r;
+            }
+            return k;
+        }
+        return select(batch.intColumn(field), predicate.getOp(),
+                ((IntField) operand).getValue(), sel, n);
+    }
+
+    /**
+     * Compacts sel[0..n) to the rows r for which "col[r] op v" holds,
+     * without branching on the outcome of the comparisons. HeapPage uses this
+     * to evaluate the predicates pushed into a scan.
+     *
+     * @return the number of rows that pass
+     */
+    static int select(int[] col, Predicate.Op op, int v, int[] sel, int n) {
+        int k = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] == v ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] != v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] > v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] >= v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] < v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    sel[k] = r;
+                    k += col[r] <= v ? 1 : 0;
+                }
+                break;
+        }
+        return k;
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. It copies
+ * the rows of its left (build) child into batches of its own and chains the
+ * rows with the same join value through an int array, so the hash table
+ * holds no Tuples; an INT join field is looked up in a
+ * {@link LongGroupTable}, other fields in a HashMap. The batches of the right
+ * (probe) child are then joined a batch at a time, and the joined rows are
+ * copied column by column into the output batch.
+ * <p>
+ * The build side is held in memory whatever its size; use HashEquiJoin for
+ * inputs that need to be spilled.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate joinPredicate;
+    private final BatchIterator child1, child2;
+    private final TupleDesc td;
+    private final int capacity;
+
+    /* the build rows, numbered b * capacity + r for row r of rows[b] */
+    private transient ArrayList<TupleBatch> rows;
+    private transient int numRows;
+    /* the first row of each join value, and the next row with the same value */
+    private transient int[] head;
+    private transient int[] nextRow;
+    private transient LongGroupTable intKeys;
+    private transient HashMap<Field, Integer> keys;
+
+    private transient TupleBatch out;
+    private transient TupleBatch probe;
+    private transient int probeIndex;
+    private transient int probeRow;
+    private transient int match;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            the left (build) input
+     * @param child2
+     *            the right (probe) input
+     * @param capacity
+     *            the number of rows per output batch
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2,
+            int capacity) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("only equality joins can be hashed");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.capacity = capacity;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Constructor for output batches of {@link TupleBatch#DEFAULT_CAPACITY}
+     * rows.
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this(p, child1, child2, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child1, child2 };
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        out = new TupleBatch(td, capacity);
+        probe = null;
+        match = -1;
+    }
+
+    /**
+     * Copies the build side into batches and chains its rows by join value.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int field = joinPredicate.getField1();
+        TupleDesc td1 = child1.getTupleDesc();
+        boolean intKey = td1.getFieldType(field) == Type.INT_TYPE;
+        rows = new ArrayList<TupleBatch>();
+        numRows = 0;
+        head = new int[16];
+        nextRow = new int[16];
+        intKeys = intKey ? new LongGroupTable() : null;
+        keys = intKey ? null : new HashMap<Field, Integer>();
+        int groups = 0;
+        TupleBatch last = null;
+        TupleBatch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            for (int i = 0; i < batch.numRows(); i++) {
+                int r = batch.row(i);
+                if (last == null || last.isFull()) {
+                    last = new TupleBatch(td1, capacity);
+                    rows.add(last);
+                }
+                int copy = last.addRow();
+                last.copyRow(batch, r, copy, 0);
+                int g;
+                if (intKey) {
+                    g = intKeys.findOrAdd(batch.getInt(field, r));
+                } else {
+                    Field f = batch.getField(field, r);
+                    Integer known = keys.get(f);
+                    g = known != null ? known : keys.size();
+                    if (known == null)
+                        keys.put(f, g);
+                }
+                if (g == groups) {
+                    if (g == head.length)
+                        head = grow(head);
+                    head[g] = -1;
+                    groups++;
+                }
+                int id = numRows++;
+                if (id == nextRow.length)
+                    nextRow = grow(nextRow);
+                nextRow[id] = head[g];
+                head[g] = id;
+            }
+        }
+    }
+
+    private static int[] grow(int[] a) {
+        return Arrays.copyOf(a, 2 * a.length);
+    }
+
+    /**
+     * @return the first build row with the join value of a probe row, or -1
+     */
+    private int lookup(TupleBatch batch, int r) {
+        int field = joinPredicate.getField2();
+        if (intKeys != null) {
+            int g = intKeys.find(batch.getInt(field, r));
+            return g < 0 ? -1 : head[g];
+        }
+        Integer g = keys.get(batch.getField(field, r));
+        return g == null ? -1 : head[g];
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        int offset = child1.getTupleDesc().numFields();
+        while (!out.isFull()) {
+            if (match >= 0) {
+                int r = out.addRow();
+                out.copyRow(rows.get(match / capacity), match % capacity, r, 0);
+                out.copyRow(probe, probeRow, r, offset);
+                match = nextRow[match];
+                continue;
+            }
+            if (probe == null || probeIndex == probe.numRows()) {
+                probe = child2.nextBatch();
+                probeIndex = 0;
+                if (probe == null)
+                    break;
+                continue;
+            }
+            probeRow = probe.row(probeIndex++);
+            match = lookup(probe, probeRow);
+        }
+        return out.numRows() == 0 ? null : out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        match = -1;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        rows = null;
+        head = null;
+        nextRow = null;
+        intKeys = null;
+        keys = null;
+        out = null;
+        probe = null;
+    }
+}
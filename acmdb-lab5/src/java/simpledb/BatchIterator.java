@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the iterator interface of batch operators, which pass
+ * {@link TupleBatch}es of rows to each other instead of one Tuple at a time.
+ * It follows {@link DbIterator}: open must be called before the other
+ * methods, and an iterator opens and closes its children.
+ * <p>
+ * A batch returned by {@link #nextBatch()} belongs to the iterator that
+ * returned it and is only valid until the next call; the caller may change
+ * its selection, but must copy any rows it wants to keep. Use
+ * {@link BatchingIterator} to read a DbIterator in batches, and
+ * {@link UnbatchingIterator} to read a BatchIterator one Tuple at a time.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows, which holds at least one selected row.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the schema of the rows of the batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch version of {@link Project}. Each batch it
+ * returns is a view of the projected columns of its child's batch, so no
+ * values are copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param fieldList
+     *            The ids of the fields of the child's rows to project out
+     * @param child
+     *            The child batch iterator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.fields = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the ids of the child's fields this projection outputs
+     */
+    public ArrayList<Integer> getOutputFields() {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int f : fields)
+            list.add(f);
+        return list;
+    }
+
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(fields, td);
+    }
+}
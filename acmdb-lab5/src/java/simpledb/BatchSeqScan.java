@@ -0,0 +1,161 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is a sequential scan that returns the tuples of a table in
+ * batches. Over a HeapFile it copies the values of the used slots of each
+ * page straight into the columns of its batch; any other file is read
+ * through its DbFileIterator.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int capacity;
+    private final TupleDesc td;
+
+    private transient TupleBatch batch;
+    /* over a HeapFile: the page being read and the next slot on it */
+    private transient HeapFile heapFile;
+    private transient int pageNo;
+    private transient HeapPage page;
+    private transient int slot;
+    /* over any other file */
+    private transient DbFileIterator iter;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, which prefixes the field names as
+     *            for {@link SeqScan}
+     * @param capacity
+     *            the number of tuples per batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.capacity = capacity;
+        this.td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+    }
+
+    /**
+     * Creates a batch scan with batches of {@link TupleBatch#DEFAULT_CAPACITY}
+     * tuples.
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(td, capacity);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            heapFile = (HeapFile) file;
+        } else {
+            iter = file.iterator(tid);
+            iter.open();
+        }
+        rewind();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (iter != null) {
+            iter.rewind();
+        } else {
+            pageNo = -1;
+            page = null;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        if (iter != null) {
+            while (!batch.isFull() && iter.hasNext())
+                batch.addTuple(iter.next());
+        } else {
+            fill();
+        }
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    /**
+     * Copies the tuples of the following slots of the file into the batch,
+     * until it is full or there are no more pages. The INT values are copied
+     * from the page's column arrays, a run of slots at a time.
+     */
+    private void fill() throws DbException, TransactionAbortedException {
+        int n = td.numFields();
+        int[][] ints = new int[n][];
+        Field[][] fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = batch.intColumn(i);
+            else
+                fields[i] = batch.fieldColumn(i);
+        }
+        while (!batch.isFull()) {
+            if (page == null || slot == page.numSlots) {
+                if (pageNo + 1 >= heapFile.numPages()) {
+                    page = null;
+                    return;
+                }
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, ++pageNo), Permissions.READ_ONLY);
+                slot = 0;
+            }
+            // the next run of used slots that fits in the batch
+            while (slot < page.numSlots && !page.isSlotUsed(slot))
+                slot++;
+            int end = slot;
+            int room = batch.capacity() - batch.size();
+            while (end < page.numSlots && end - slot < room && page.isSlotUsed(end))
+                end++;
+            if (end == slot)
+                continue;
+            int first = batch.addRows(end - slot);
+            int[][] columns = page.intColumns();
+            for (int i = 0; i < n; i++) {
+                if (ints[i] != null) {
+                    System.arraycopy(columns[i], slot, ints[i], first, end - slot);
+                } else {
+                    for (int s = slot; s < end; s++)
+                        fields[i][first + s - slot] = page.tuples[s].getField(i);
+                }
+            }
+            System.arraycopy(page.recordIds(), slot, batch.recordIdColumn(), first, end - slot);
+            slot = end;
+        }
+    }
+
+    public void close() {
+        if (iter != null)
+            iter.close();
+        iter = null;
+        heapFile = null;
+        page = null;
+        batch = null;
+    }
+}
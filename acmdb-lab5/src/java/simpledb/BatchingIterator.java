@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * BatchingIterator reads the tuples of a DbIterator into batches, so that
+ * any operator can feed a batch operator.
+ */
+public class BatchingIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int capacity;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the iterator to read
+     * @param capacity
+     *            the number of tuples per batch
+     */
+    public BatchingIterator(DbIterator child, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Constructor for batches of {@link TupleBatch#DEFAULT_CAPACITY} tuples.
+     */
+    public BatchingIterator(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return the iterator this one reads
+     */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), capacity);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.numRows() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin evaluates an arbitrary join predicate like Join, but
+ * reads the outer (left) child a block at a time: as many outer tuples as fit
+ * in its memory budget are buffered, and the inner child is scanned once per
+ * block rather than once per outer tuple. With a budget of B tuples the inner
+ * relation is read ceil(|outer| / B) times instead of |outer| times.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages of BufferPool.getPageSize() bytes. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    private JoinPredicate joinPredicate;
+    private DbIterator child1, child2;
+    private final int memoryPages;
+
+    private transient ArrayList<Tuple> block;
+    private transient CompiledJoinPredicate compiled;
+    private transient TupleDesc td;
+    private int blocksRead;
+    private int blockPos;
+    private Tuple inner;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            the number of pages worth of outer tuples to buffer per block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2, int memoryPages) {
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+    }
+
+    /**
+     * Constructor using {@link #DEFAULT_MEMORY_PAGES} as the memory budget.
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Returns the number of tuples of the given TupleDesc that fit in
+     * memoryPages pages.
+     */
+    public static int blockCapacity(TupleDesc td, int memoryPages) {
+        long capacity = (long) memoryPages * BufferPool.getPageSize() / td.getSize();
+        return (int) Math.max(1, Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        block = new ArrayList<Tuple>();
+        blocksRead = 0;
+        inner = null;
+        compiled = new CompiledJoinPredicate(joinPredicate, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        td = getTupleDesc();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        inner = null;
+        if (compiled != null)
+            compiled.flushStatistics();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        blocksRead = 0;
+        inner = null;
+    }
+
+    /**
+     * Replaces the buffered block with the next block of outer tuples.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int capacity = blockCapacity(child1.getTupleDesc(), memoryPages);
+        while (block.size() < capacity && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty())
+            return false;
+        blocksRead++;
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For every inner tuple the whole buffered block of outer
+     * tuples is checked, so results come out grouped by block and then by
+     * inner tuple.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (compiled.filter(outer, inner))
+                        return Tuple.merge(td, outer, inner);
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
+            }
+            if (!readBlock())
+                return null;
+            if (blocksRead > 1)
+                child2.rewind();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,81 @@
+package simpledb;
+
+/**
+ * BloomFilter is a set of field values that may report values it does not
+ * hold, but never misses one it holds. Values are added and looked up by
+ * their hashCode, so an int is looked up as the IntField holding it; equal
+ * StringFields and DictionaryFields also hash alike.
+ * <p>
+ * The filter has about 10 bits per value it was sized for and sets 5 of
+ * them per value, so about 1 in 100 values it does not hold passes.
+ */
+public class BloomFilter {
+
+    private static final int HASHES = 5;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * Creates an empty filter sized for the given number of values.
+     */
+    public BloomFilter(int expectedValues) {
+        long wanted = Math.max(64L, 10L * expectedValues);
+        int size = 64;
+        while (size < wanted && size < (1 << 30))
+            size <<= 1;
+        bits = new long[size >>> 6];
+        mask = size - 1;
+    }
+
+    /**
+     * @return the number of bits of the filter
+     */
+    public int numBits() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds the value with the given hashCode.
+     */
+    public void add(int hash) {
+        long x = mix(hash);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public void add(Field f) {
+        add(f.hashCode());
+    }
+
+    /**
+     * @return false if no value with the given hashCode was added
+     */
+    public boolean mightContain(int hash) {
+        long x = mix(hash);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public boolean mightContain(Field f) {
+        return mightContain(f.hashCode());
+    }
+
+    /* spreads the bits of a hashCode over a long (the finalizer of SplitMix64) */
+    private static long mix(int hash) {
+        long x = hash * 0x9e3779b97f4a7c15L;
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
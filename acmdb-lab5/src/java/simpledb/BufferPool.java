@@ -164,6 +164,11 @@ public class BufferPool {
             return false;
         }
 
+        public synchronized boolean holds(PageId pageId, TransactionId transactionId) {
+            return (SharedLock.containsKey(pageId) && SharedLock.get(pageId).contains(transactionId))
+                    || (ExclusiveLock.containsKey(pageId) && ExclusiveLock.get(pageId).contains(transactionId));
+        }
+
         public synchronized void releaseLock(PageId pageId, TransactionId transactionId) {
             if (SharedLock.containsKey(pageId)) {
                 SharedLock.get(pageId).remove(transactionId);
@@ -203,6 +208,7 @@ public class BufferPool {
      */
 
     private Locker locker = new Locker();
+    private ConcurrentHashMap<TransactionId, ArrayList<BTreeFile>> bulkLoads = new ConcurrentHashMap<>();
 
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
@@ -235,26 +241,29 @@ public class BufferPool {
                 return page;
 
             }*/
-            if (pages.containsKey(pid)) {
-                return pages.get(pid);
-            }
-            if (pages.size() >= Number) {
-                Iterator<PageId> iter = pages.keySet().iterator();
-                PageId curPage = iter.next();
-                while (pages.get(curPage).isDirty() != null) {
-                    if (!iter.hasNext())
-                        throw new DbException("no enough clean page");
-                    curPage = iter.next();
+            // parallel scans fetch pages from several threads at once
+            synchronized (this) {
+                if (pages.containsKey(pid)) {
+                    return pages.get(pid);
+                }
+                if (pages.size() >= Number) {
+                    Iterator<PageId> iter = pages.keySet().iterator();
+                    PageId curPage = iter.next();
+                    while (pages.get(curPage).isDirty() != null) {
+                        if (!iter.hasNext())
+                            throw new DbException("no enough clean page");
+                        curPage = iter.next();
+                    }
+                    flushPage(curPage);
+                    pages.remove(curPage);
+                    Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    pages.put(pid, page);
+                    return page;
                 }
-                flushPage(curPage);
-                pages.remove(curPage);
                 Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
                 pages.put(pid, page);
                 return page;
             }
-            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pages.put(pid, page);
-            return page;
         } catch (Exception e) {
             throw new DbException("Page Conflict");
         }
@@ -291,7 +300,7 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return locker.holds(p, tid);
     }
 
     /**
@@ -305,7 +314,6 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        locker.releaseTransaction(tid);
         if (commit)
             flushPages(tid);
         else {
@@ -319,6 +327,28 @@ public class BufferPool {
             for (Page page: olds)
                 pages.put(page.getId(), page);
         }
+        // install or drop bulk loaded trees while tid still holds their root pointer locks
+        ArrayList<BTreeFile> loaded = bulkLoads.remove(tid);
+        if (loaded != null)
+            for (BTreeFile file : loaded)
+                file.completeBulkLoad(tid, commit);
+        locker.releaseTransaction(tid);
+    }
+
+    /**
+     * Registers a B+ tree that the specified transaction has bulk loaded into
+     * a temporary file. The tree replaces the file when the transaction commits
+     * and is deleted when it aborts.
+     *
+     * @see BTreeFile#bulkLoad(TransactionId, DbIterator, double, boolean)
+     */
+    synchronized void addBulkLoad(TransactionId tid, BTreeFile file) {
+        ArrayList<BTreeFile> files = bulkLoads.get(tid);
+        if (files == null) {
+            files = new ArrayList<>();
+            bulkLoads.put(tid, files);
+        }
+        files.add(file);
     }
 
     private void Tupletmp(TransactionId tid, ArrayList<Page> pageArrayList)
@@ -376,6 +406,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * Any secondary indexes registered for the table in the Catalog are
+     * updated with the new tuple's RecordId.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -388,6 +421,8 @@ public class BufferPool {
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> pageArrayList = f.insertTuple(tid, t);
         Tupletmp(tid, pageArrayList);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            Tupletmp(tid, index.insertEntry(tid, t));
     }
 
     /**
@@ -400,6 +435,8 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * The tuple's entries are removed from any secondary indexes on its table.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -407,7 +444,10 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        DbFile f = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            Tupletmp(tid, index.deleteEntry(tid, t));
         ArrayList<Page> pageArrayList = f.deleteTuple(tid, t);
         Tupletmp(tid, pageArrayList);
     }
@@ -440,6 +480,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        pages.remove(pid);
     }
 
     /**
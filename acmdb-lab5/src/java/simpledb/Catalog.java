@@ -22,6 +22,8 @@ public class Catalog {
     private HashMap<Integer, DbFile> files = new HashMap<>();
     private HashMap<Integer, String> keys = new HashMap<>();
     private HashMap<Integer, Integer> ids = new HashMap<>();
+    private HashMap<Integer, ArrayList<SecondaryIndex>> indexes = new HashMap<>();
+    private HashMap<Integer, SecondaryIndex> indexFiles = new HashMap<>();
 
 /*    private Vector<String> tables = new Vector<>();
     private Vector<DbFile> files = new Vector<>();
@@ -69,6 +71,7 @@ public class Catalog {
             files.remove(conflict);
             keys.remove(conflict);
             ids.remove(conflict);
+            removeIndexes(conflict);
         }
         tables.put(file.getId(), name);
         files.put(file.getId(), file);
@@ -113,12 +116,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        DbFile dbFile = null;
-        if (tables.get(tableid) != null)
-            dbFile = files.get(tableid);
-        if (dbFile == null)
-            throw new NoSuchElementException("Table does not exist");
-        return dbFile.getTupleDesc();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -132,11 +130,69 @@ public class Catalog {
         DbFile dbFile = null;
         if (tables.get(tableid) != null)
             dbFile = files.get(tableid);
+        if (dbFile == null && indexFiles.get(tableid) != null)
+            dbFile = indexFiles.get(tableid).getFile();
         if (dbFile == null)
             throw new NoSuchElementException("Table does not exist");
         return dbFile;
     }
 
+    /**
+     * Registers a secondary index on one of the tables in the catalog,
+     * replacing any index already registered on the same field. From then on
+     * BufferPool.insertTuple and deleteTuple keep it up to date, and
+     * getDatabaseFile(index.getFile().getId()) returns its B+ tree so its
+     * pages can be read through the BufferPool.
+     * @param index the index to add; its table must already be in the catalog
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     */
+    public void addIndex(SecondaryIndex index) throws NoSuchElementException {
+        getDatabaseFile(index.getTableId());
+        ArrayList<SecondaryIndex> list = indexes.get(index.getTableId());
+        if (list == null) {
+            list = new ArrayList<SecondaryIndex>();
+            indexes.put(index.getTableId(), list);
+        }
+        SecondaryIndex old = getIndex(index.getTableId(), index.getField());
+        if (old != null) {
+            list.remove(old);
+            indexFiles.remove(old.getFile().getId());
+        }
+        list.add(index);
+        indexFiles.put(index.getFile().getId(), index);
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table; the list is empty
+     * if it has none.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        ArrayList<SecondaryIndex> list = indexes.get(tableid);
+        if (list == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the secondary index on the given field of the specified table,
+     * or null if that field is not indexed.
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    private void removeIndexes(int tableid) {
+        ArrayList<SecondaryIndex> list = indexes.remove(tableid);
+        if (list == null)
+            return;
+        for (SecondaryIndex index : list)
+            indexFiles.remove(index.getFile().getId());
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         int num = 0;
@@ -167,11 +223,20 @@ public class Catalog {
         tables.clear();
         keys.clear();
         ids.clear();
+        indexes.clear();
+        indexFiles.clear();
         // some code goes here
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form name (field type [pk] [idx] [dict], ...); a field annotated
+     * with idx gets a SecondaryIndex stored in name.field.idx next to name.dat,
+     * which is built from the table if the file does not exist yet. The string
+     * fields annotated with dict are dictionary encoded, with the dictionary in
+     * name.dict; name.dat is encoded if name.dict does not exist yet, and its
+     * index files are then rebuilt.
+     * @see HeapFile#openDictionary
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -189,6 +254,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                ArrayList<Integer> encoded = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -200,11 +267,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("idx"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[i].trim().equals("dict") && types.get(types.size() - 1) == Type.STRING_TYPE)
+                            encoded.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -212,13 +283,46 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                Dictionary dictionary = null;
+                if (!encoded.isEmpty()) {
+                    int[] encodedAr = new int[encoded.size()];
+                    for (int i = 0; i < encodedAr.length; i++)
+                        encodedAr[i] = encoded.get(i);
+                    // a table without a dictionary yet is stored unencoded
+                    File dictFile = new File(baseFolder + "/" + name + ".dict");
+                    // encoding moves its tuples, so its indexes are rebuilt;
+                    // they are dropped first in case encoding is interrupted
+                    if (HeapFile.needsEncoding(dataFile, dictFile)) {
+                        for (String field : namesAr)
+                            new File(baseFolder + "/" + name + "." + field + ".idx").delete();
+                    }
+                    dictionary = HeapFile.openDictionary(dataFile, t, dictFile, encodedAr);
+                }
+                HeapFile tabHf = new HeapFile(dataFile, t, dictionary);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + namesAr[field] + ".idx");
+                    boolean exists = indexFile.length() > 0;
+                    SecondaryIndex index = new SecondaryIndex(indexFile, tabHf, field);
+                    addIndex(index);
+                    if (!exists) {
+                        Transaction tr = new Transaction();
+                        tr.start();
+                        index.build(tr.getId());
+                        tr.commit();
+                    }
+                    System.out.println("Added index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("Could not build index or dictionary for catalog entry : " + line);
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
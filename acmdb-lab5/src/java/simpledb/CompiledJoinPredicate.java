@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * CompiledJoinPredicate evaluates a JoinPredicate on pairs of tuples of two
+ * schemas, through the handle {@link ExpressionCompiler} compiled for it or,
+ * if it could not be compiled, with {@link JoinPredicate#filter}. An
+ * instance is used by one thread at a time.
+ */
+public class CompiledJoinPredicate {
+
+    private final JoinPredicate predicate;
+    /* (Tuple,Tuple)boolean, or null to interpret the predicate */
+    private final MethodHandle test;
+    private long evaluations;
+
+    /**
+     * @param p
+     *            the join predicate
+     * @param td1
+     *            the schema of the first tuple of each pair
+     * @param td2
+     *            the schema of the second tuple of each pair
+     */
+    public CompiledJoinPredicate(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        predicate = p;
+        test = ExpressionCompiler.compile(p, td1, td2);
+    }
+
+    /**
+     * @return true if the predicate is evaluated by compiled code
+     */
+    public boolean isCompiled() {
+        return test != null;
+    }
+
+    public JoinPredicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return true if the predicate holds for t1 and t2
+     */
+    public boolean filter(Tuple t1, Tuple t2) {
+        if (test == null)
+            return predicate.filter(t1, t2);
+        evaluations++;
+        try {
+            return (boolean) test.invokeExact(t1, t2);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the evaluations since the last call to the counters of
+     * {@link ExpressionCompiler#report()}.
+     */
+    public void flushStatistics() {
+        ExpressionCompiler.countEvaluations(evaluations);
+        evaluations = 0;
+    }
+}
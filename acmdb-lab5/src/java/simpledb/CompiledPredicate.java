@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CompiledPredicate evaluates a conjunction of Predicates on the tuples of
+ * one schema, through the handle {@link ExpressionCompiler} compiled for it
+ * or, if the predicates could not be compiled, by interpreting them with
+ * {@link Predicate#filter}. An instance is used by one thread at a time.
+ */
+public class CompiledPredicate {
+
+    private final Predicate[] predicates;
+    /* (Tuple)boolean, or null to interpret the predicates */
+    private final MethodHandle test;
+    private long evaluations;
+
+    /**
+     * @param predicates
+     *            the predicates that must all hold
+     * @param td
+     *            the schema of the tuples to evaluate them on
+     */
+    public CompiledPredicate(List<Predicate> predicates, TupleDesc td) {
+        this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+        test = ExpressionCompiler.compile(predicates, td);
+    }
+
+    public CompiledPredicate(Predicate p, TupleDesc td) {
+        this(Collections.singletonList(p), td);
+    }
+
+    /**
+     * @return true if the predicates are evaluated by compiled code
+     */
+    public boolean isCompiled() {
+        return test != null;
+    }
+
+    public List<Predicate> getPredicates() {
+        List<Predicate> result = new ArrayList<Predicate>();
+        Collections.addAll(result, predicates);
+        return result;
+    }
+
+    /**
+     * @return true if all the predicates hold for t
+     */
+    public boolean filter(Tuple t) {
+        if (test == null) {
+            for (Predicate p : predicates) {
+                if (!p.filter(t))
+                    return false;
+            }
+            return true;
+        }
+        evaluations++;
+        try {
+            return (boolean) test.invokeExact(t);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the evaluations since the last call to the counters of
+     * {@link ExpressionCompiler#report()}.
+     */
+    public void flushStatistics() {
+        ExpressionCompiler.countEvaluations(evaluations);
+        evaluations = 0;
+    }
+}
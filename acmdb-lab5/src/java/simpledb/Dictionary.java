@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary holds the dictionary encoding of some of the STRING fields of
+ * a HeapFile. Each distinct value of an encoded field is given a code, the
+ * next free int from 0 up, and pages store the 4-byte code instead of the
+ * padded string; the values of the field are read as
+ * {@link DictionaryField}s, which compare and hash by their code.
+ * <p>
+ * The dictionary is kept in its own file next to the HeapFile, as a log of
+ * (field, value) entries in the order their codes were given, so codes
+ * never change. A new value is appended and flushed to the file when it is
+ * first encoded, before any page holding its code can be written; the
+ * codes of values whose insert was aborted stay unused. For the same reason
+ * an entry that was only partly written, by a crash or a failed write, has a
+ * code that no page holds, and it is cut off the end of the file.
+ */
+public class Dictionary {
+
+    private final File file;
+    private final boolean[] encoded;
+    /* by field: the values by code, their codes, and their DictionaryFields */
+    private final ArrayList<String>[] values;
+    private final HashMap<String, Integer>[] codes;
+    private final DictionaryField[][] fields;
+    private DataOutputStream log;
+    /* the length of the complete entries of the file */
+    private long length;
+
+    /**
+     * Opens the dictionary of a file, reading its entries if the dictionary
+     * file exists and truncating the file after its last complete entry.
+     *
+     * @param f
+     *            the dictionary file
+     * @param td
+     *            the schema of the table
+     * @param encodedFields
+     *            the STRING fields of the table to encode
+     * @throws IllegalArgumentException
+     *             if one of the fields is not a STRING field
+     */
+    @SuppressWarnings("unchecked")
+    public Dictionary(File f, TupleDesc td, int[] encodedFields) throws IOException {
+        file = f;
+        int n = td.numFields();
+        encoded = new boolean[n];
+        values = new ArrayList[n];
+        codes = new HashMap[n];
+        fields = new DictionaryField[n][];
+        for (int field : encodedFields) {
+            if (field < 0 || field >= n || td.getFieldType(field) != Type.STRING_TYPE)
+                throw new IllegalArgumentException("field " + field + " is not a STRING field");
+            encoded[field] = true;
+            values[field] = new ArrayList<String>();
+            codes[field] = new HashMap<String, Integer>();
+            fields[field] = new DictionaryField[16];
+        }
+        if (!f.exists())
+            return;
+        byte[] data = Files.readAllBytes(f.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        while (length < data.length) {
+            int field;
+            String value;
+            try {
+                field = in.readInt();
+                value = in.readUTF();
+            } catch (EOFException e) {
+                break;
+            } catch (UTFDataFormatException e) {
+                // only the last entry can have been partly written
+                if (in.available() > 0)
+                    throw e;
+                break;
+            }
+            if (field < 0 || field >= n || !encoded[field])
+                throw new IOException("dictionary " + f + " has an entry for field " + field);
+            add(field, value);
+            length = data.length - in.available();
+        }
+        if (length < data.length)
+            truncate(f, length);
+    }
+
+    /* cuts a file to the given length */
+    private static void truncate(File f, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (raf.length() > length)
+                raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the file the dictionary is kept in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the field is dictionary encoded
+     */
+    public boolean isEncoded(int field) {
+        return field >= 0 && field < encoded.length && encoded[field];
+    }
+
+    /**
+     * @return the number of distinct values of an encoded field
+     */
+    public synchronized int size(int field) {
+        return values[field].size();
+    }
+
+    private int add(int field, String value) {
+        int code = values[field].size();
+        values[field].add(value);
+        codes[field].put(value, code);
+        if (code == fields[field].length)
+            fields[field] = Arrays.copyOf(fields[field], 2 * code);
+        fields[field][code] = new DictionaryField(this, field, code, value);
+        return code;
+    }
+
+    /**
+     * @return the code of a value of an encoded field, or -1 if the value
+     *         has no code
+     */
+    public synchronized int lookup(int field, String value) {
+        Integer code = codes[field].get(truncate(value));
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the code of a value of an encoded field, giving it the next
+     * code and logging it to the dictionary file if it has none.
+     *
+     * @throws DbException
+     *             if the dictionary file cannot be written; the part of the
+     *             entry that was written is cut off the file
+     */
+    public synchronized int encode(int field, String value) throws DbException {
+        value = truncate(value);
+        Integer code = codes[field].get(value);
+        if (code != null)
+            return code;
+        try {
+            if (log == null) {
+                truncate(file, length);
+                log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            int written = log.size();
+            log.writeInt(field);
+            log.writeUTF(value);
+            log.flush();
+            length += log.size() - written;
+        } catch (IOException e) {
+            // the log is reopened, and the file truncated, by the next encode
+            try {
+                close();
+            } catch (IOException closeFailed) {
+                log = null;
+            }
+            try {
+                truncate(file, length);
+            } catch (IOException truncateFailed) {
+                // retried when the log is reopened
+            }
+            throw new DbException("could not write dictionary " + file + ": " + e.getMessage());
+        }
+        return add(field, value);
+    }
+
+    /**
+     * @return the field of an encoded value, as stored in tuples
+     */
+    public synchronized DictionaryField getField(int field, int code) {
+        if (code < 0 || code >= values[field].size())
+            throw new IllegalArgumentException("no value with code " + code + " for field " + field);
+        return fields[field][code];
+    }
+
+    /**
+     * @return the value of an encoded field with the given code
+     */
+    public String decode(int field, int code) {
+        return getField(field, code).getValue();
+    }
+
+    /**
+     * @return the number of bytes a field of the given type takes in a
+     *         page, 4 for encoded fields
+     */
+    int getLen(int field, Type type) {
+        return isEncoded(field) ? Type.INT_TYPE.getLen() : type.getLen();
+    }
+
+    /**
+     * @return the number of bytes a tuple of td takes in a page
+     */
+    int getSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += getLen(i, td.getFieldType(i));
+        return size;
+    }
+
+    /* values are truncated as StringField truncates them */
+    private static String truncate(String value) {
+        return value.length() > Type.STRING_LEN ? value.substring(0, Type.STRING_LEN) : value;
+    }
+
+    /**
+     * Closes the dictionary file; it is reopened when a new value is encoded.
+     */
+    public synchronized void close() throws IOException {
+        if (log != null)
+            log.close();
+        log = null;
+    }
+}
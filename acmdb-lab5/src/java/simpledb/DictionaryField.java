@@ -0,0 +1,81 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary encoded field of a HeapFile. It holds
+ * the value's code in the {@link Dictionary} as well as the value, so two
+ * values of the same encoded field are compared and hashed by their codes;
+ * compared with any other StringField it behaves as a StringField.
+ * <p>
+ * There is one DictionaryField per code, shared by all the tuples holding
+ * that value.
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Dictionary dictionary;
+    private final int field;
+    private final int code;
+    private final int hash;
+
+    DictionaryField(Dictionary dictionary, int field, int code, String value) {
+        super(value, Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.field = field;
+        this.code = code;
+        this.hash = value.hashCode();
+    }
+
+    /**
+     * @return the code of this value in its dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the dictionary this value was read through
+     */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the encoded field this value belongs to
+     */
+    public int getEncodedField() {
+        return field;
+    }
+
+    /**
+     * @return true if f is a value of the same encoded field, so that it can
+     *         be compared with this one by code
+     */
+    private boolean sameDomain(Field f) {
+        if (!(f instanceof DictionaryField))
+            return false;
+        DictionaryField d = (DictionaryField) f;
+        return d.dictionary == dictionary && dictionary != null && d.field == field;
+    }
+
+    public int hashCode() {
+        // the hash of the string, so equal StringFields hash alike
+        return hash;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDomain((Field) field))
+            return ((DictionaryField) field).code == code;
+        return super.equals(field);
+    }
+
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDomain(val)) {
+            if (op == Predicate.Op.EQUALS)
+                return ((DictionaryField) val).code == code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return ((DictionaryField) val).code != code;
+        }
+        return super.compare(op, val);
+    }
+}
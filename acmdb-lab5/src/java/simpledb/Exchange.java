@@ -0,0 +1,370 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exchange runs each of its children on a worker thread of its own and
+ * returns the union of their tuples, in no particular order.
+ * <p>
+ * Workers pass their tuples to the consuming thread in batches through a
+ * bounded queue, so a worker that gets too far ahead of the consumer waits
+ * for it. An exception thrown by a worker is rethrown to the consumer by the
+ * next call to hasNext or next. Closing an Exchange stops the workers, and it
+ * returns once all of them have closed their children.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default capacity of the queue between the workers and the consumer, in batches. */
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+
+    /** Number of tuples a worker hands over at a time. */
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * Workers spend most of their time blocked on I/O, locks or the queue,
+     * which rules out a fork-join pool; they run on daemon threads that are
+     * created as needed and reused.
+     */
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-exchange");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /* marks the end of one worker's tuples in the queue */
+    private static final List<Tuple> DONE = new ArrayList<Tuple>();
+
+    private DbIterator[] children;
+    private final int queueBatches;
+
+    private transient DbIterator[] running;
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient ArrayList<Future<?>> futures;
+    private transient volatile boolean cancelled;
+    private transient volatile Throwable error;
+    private transient int finished;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the plans to run in parallel; they must all have the same
+     *            TupleDesc
+     * @param queueBatches
+     *            the number of batches of tuples the queue holds
+     */
+    public Exchange(DbIterator[] children, int queueBatches) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("need at least one child");
+        if (queueBatches <= 0)
+            throw new IllegalArgumentException("queue capacity must be positive");
+        this.children = children.clone();
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+     * Constructor using {@link #DEFAULT_QUEUE_BATCHES} as the queue capacity.
+     */
+    public Exchange(DbIterator[] children) {
+        this(children, DEFAULT_QUEUE_BATCHES);
+    }
+
+    /**
+     * @return the name shown for this operator in query plans
+     */
+    public String getName() {
+        return "exchange(" + children.length + ")";
+    }
+
+    /**
+     * @return the number of plans run in parallel
+     */
+    public int numWorkers() {
+        return children.length;
+    }
+
+    /**
+     * Returns the plans the workers run, one per worker, each time the
+     * Exchange is opened or rewound. By default these are the children.
+     */
+    protected DbIterator[] workerPlans() throws DbException,
+            TransactionAbortedException {
+        return children;
+    }
+
+    /**
+     * Runs the tasks on the worker threads and waits for all of them to
+     * finish, for operators with phases that must complete before their
+     * output can be produced.
+     *
+     * @throws DbException
+     *             or TransactionAbortedException if a task threw one; other
+     *             exceptions are wrapped in a DbException
+     */
+    static void runAll(List<Callable<Void>> tasks) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> task : tasks)
+            futures.add(WORKERS.submit(task));
+        Throwable error = null;
+        for (Future<Void> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error == null)
+                    error = new DbException("interrupted while waiting for workers");
+            }
+        }
+        if (error != null)
+            rethrow(error);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    /**
+     * Starts one worker per plan returned by {@link #workerPlans}.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        running = workerPlans();
+        queue = new ArrayBlockingQueue<List<Tuple>>(queueBatches);
+        futures = new ArrayList<Future<?>>();
+        cancelled = false;
+        error = null;
+        finished = 0;
+        batch = null;
+        for (final DbIterator child : running) {
+            futures.add(WORKERS.submit(new Runnable() {
+                public void run() {
+                    produce(child);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Runs one child to completion, or until the Exchange is closed, passing
+     * its tuples to the queue.
+     */
+    private void produce(DbIterator child) {
+        try {
+            child.open();
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>(BATCH_SIZE);
+            while (!cancelled && child.hasNext()) {
+                tuples.add(child.next());
+                if (tuples.size() == BATCH_SIZE) {
+                    put(tuples);
+                    tuples = new ArrayList<Tuple>(BATCH_SIZE);
+                }
+            }
+            if (!tuples.isEmpty())
+                put(tuples);
+        } catch (Throwable e) {
+            if (error == null)
+                error = e;
+        } finally {
+            child.close();
+            try {
+                put(DONE);
+            } catch (InterruptedException e) {
+                // only happens once the consumer has stopped reading
+            }
+        }
+    }
+
+    private void put(List<Tuple> tuples) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(tuples, 10, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    /**
+     * Stops the workers and waits for them to close their children.
+     */
+    private void stop() {
+        if (futures == null)
+            return;
+        cancelled = true;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // produce() catches everything
+            }
+        }
+        futures = null;
+        queue = null;
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    /**
+     * Stops the workers and starts them again, without closing and reopening
+     * this operator, so state built when it was opened is kept.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        super.close();
+        start();
+        super.open();
+    }
+
+    private static void rethrow(Throwable e) throws DbException,
+            TransactionAbortedException {
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new DbException("exchange worker failed: " + e);
+    }
+
+    /**
+     * Returns the next tuple produced by any of the workers, or null once all
+     * of them are done.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (error != null)
+                rethrow(error);
+            if (finished == running.length)
+                return null;
+            List<Tuple> tuples;
+            try {
+                tuples = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for exchange workers");
+            }
+            if (tuples == DONE)
+                finished++;
+            else
+                batch = tuples.iterator();
+        }
+        return batch.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children.clone();
+    }
+
+    /**
+     * Returns iterators that together return the tuples of an input exactly
+     * once, and that can be read by different threads: the workers' plans of
+     * a {@link ParallelSeqScan}, or else the given number of readers sharing
+     * the input, which the caller must open and close.
+     */
+    static DbIterator[] fragments(DbIterator child, int workers) throws DbException,
+            TransactionAbortedException {
+        if (child instanceof ParallelSeqScan)
+            return ((ParallelSeqScan) child).workerPlans();
+        SharedInput input = new SharedInput(child);
+        DbIterator[] readers = new DbIterator[workers];
+        for (int i = 0; i < workers; i++)
+            readers[i] = new SharedReader(input);
+        return readers;
+    }
+
+    /**
+     * An input that several workers read a batch of tuples at a time.
+     */
+    static class SharedInput {
+
+        private final DbIterator child;
+
+        SharedInput(DbIterator child) {
+            this.child = child;
+        }
+
+        synchronized List<Tuple> nextBatch() throws DbException,
+                TransactionAbortedException {
+            ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_SIZE);
+            while (batch.size() < BATCH_SIZE && child.hasNext())
+                batch.add(child.next());
+            return batch;
+        }
+    }
+
+    /**
+     * One worker's reader of a SharedInput. The operator the input belongs to
+     * opens and closes it.
+     */
+    static class SharedReader implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SharedInput input;
+        private Iterator<Tuple> batch;
+        private boolean done;
+
+        SharedReader(SharedInput input) {
+            this.input = input;
+        }
+
+        public void open() {
+            batch = null;
+            done = false;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (!done && (batch == null || !batch.hasNext())) {
+                List<Tuple> tuples = input.nextBatch();
+                done = tuples.isEmpty();
+                batch = tuples.iterator();
+            }
+            return !done;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("shared inputs are rewound by their operator");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return input.child.getTupleDesc();
+        }
+
+        public void close() {
+            batch = null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ExpressionCompiler turns predicates into MethodHandles when a plan is
+ * built. The operator and the operand of a predicate are fixed by then, so
+ * its handle is a chain of combinators that reads the field, unboxes it and
+ * compares it with the operand bound in as a constant: the Predicate.Op
+ * switch of {@link Field#compare} and the virtual call to it are not part of
+ * the handle.
+ * <p>
+ * Predicates on INT and STRING fields with an operand of the field's type
+ * are compiled; {@link #compile} returns null for the others, and for all
+ * predicates while compilation is disabled, so that the caller interprets
+ * them. The counters of {@link #report()} tell how many predicates were
+ * compiled or interpreted, how long compiling took, and how many tuples
+ * compiled predicates were evaluated on.
+ */
+public class ExpressionCompiler {
+
+    private static volatile boolean enabled = true;
+
+    private static final AtomicLong compiled = new AtomicLong();
+    private static final AtomicLong interpreted = new AtomicLong();
+    private static final AtomicLong compileNanos = new AtomicLong();
+    private static final AtomicLong evaluations = new AtomicLong();
+
+    private static final MethodHandle INT_VALUE;
+    private static final MethodHandle STRING_VALUE;
+    private static final MethodHandle STRING_COMPARE;
+    private static final MethodHandle CONTAINS;
+    private static final MethodHandle FALSE;
+    /* the comparisons of two ints, by Predicate.Op ordinal */
+    private static final MethodHandle[] INT_OPS = new MethodHandle[Predicate.Op.values().length];
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INT_VALUE = lookup.findStatic(ExpressionCompiler.class, "intValue",
+                    MethodType.methodType(int.class, Tuple.class, int.class));
+            STRING_VALUE = lookup.findStatic(ExpressionCompiler.class, "stringValue",
+                    MethodType.methodType(String.class, Tuple.class, int.class));
+            STRING_COMPARE = lookup.findVirtual(String.class, "compareTo",
+                    MethodType.methodType(int.class, String.class));
+            CONTAINS = lookup.findStatic(ExpressionCompiler.class, "contains",
+                    MethodType.methodType(boolean.class, String.class, String.class));
+            MethodType compare = MethodType.methodType(boolean.class, int.class, int.class);
+            INT_OPS[Predicate.Op.EQUALS.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "eq", compare);
+            INT_OPS[Predicate.Op.NOT_EQUALS.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "ne", compare);
+            INT_OPS[Predicate.Op.GREATER_THAN.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "gt", compare);
+            INT_OPS[Predicate.Op.GREATER_THAN_OR_EQ.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "ge", compare);
+            INT_OPS[Predicate.Op.LESS_THAN.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "lt", compare);
+            INT_OPS[Predicate.Op.LESS_THAN_OR_EQ.ordinal()] = lookup.findStatic(ExpressionCompiler.class, "le", compare);
+            // IntField.compare treats LIKE as EQUALS
+            INT_OPS[Predicate.Op.LIKE.ordinal()] = INT_OPS[Predicate.Op.EQUALS.ordinal()];
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        FALSE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, Tuple.class);
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return t.getInt(field);
+    }
+
+    private static String stringValue(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    private static boolean contains(String value, String operand) {
+        return value.indexOf(operand) >= 0;
+    }
+
+    private static boolean eq(int a, int b) {
+        return a == b;
+    }
+
+    private static boolean ne(int a, int b) {
+        return a != b;
+    }
+
+    private static boolean gt(int a, int b) {
+        return a > b;
+    }
+
+    private static boolean ge(int a, int b) {
+        return a >= b;
+    }
+
+    private static boolean lt(int a, int b) {
+        return a < b;
+    }
+
+    private static boolean le(int a, int b) {
+        return a <= b;
+    }
+
+    /**
+     * Enables or disables compilation; while it is disabled every predicate
+     * is interpreted.
+     */
+    public static void setEnabled(boolean enabled) {
+        ExpressionCompiler.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compiles the conjunction of predicates on tuples of td.
+     *
+     * @return a handle of type (Tuple)boolean, or null if compilation is
+     *         disabled or one of the predicates cannot be compiled
+     */
+    public static MethodHandle compile(List<Predicate> predicates, TupleDesc td) {
+        if (!enabled) {
+            interpreted.incrementAndGet();
+            return null;
+        }
+        long start = System.nanoTime();
+        MethodHandle result = null;
+        for (int i = predicates.size() - 1; i >= 0; i--) {
+            MethodHandle test = compile(predicates.get(i), td);
+            if (test == null) {
+                interpreted.incrementAndGet();
+                return null;
+            }
+            // evaluate the later predicates only if this one holds
+            result = result == null ? test : MethodHandles.guardWithTest(test, result, FALSE);
+        }
+        if (result == null)
+            result = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, Tuple.class);
+        compileNanos.addAndGet(System.nanoTime() - start);
+        compiled.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * @return a handle of type (Tuple)boolean for p, or null if p cannot be
+     *         compiled
+     */
+    private static MethodHandle compile(Predicate p, TupleDesc td) {
+        if (p.getField() < 0 || p.getField() >= td.numFields() || p.getOperand() == null)
+            return null;
+        Type type = td.getFieldType(p.getField());
+        if (p.getOperand().getType() != type)
+            return null;
+        MethodHandle value = fieldValue(type, p.getField());
+        if (value == null)
+            return null;
+        MethodHandle test;
+        if (type == Type.INT_TYPE) {
+            test = MethodHandles.insertArguments(INT_OPS[p.getOp().ordinal()], 1,
+                    ((IntField) p.getOperand()).getValue());
+        } else {
+            test = compareStrings(p.getOp());
+            test = MethodHandles.insertArguments(test, 1, ((StringField) p.getOperand()).getValue());
+        }
+        return MethodHandles.filterArguments(test, 0, value);
+    }
+
+    /**
+     * Compiles a join predicate on pairs of tuples of td1 and td2.
+     *
+     * @return a handle of type (Tuple,Tuple)boolean, or null if compilation
+     *         is disabled or the predicate cannot be compiled
+     */
+    public static MethodHandle compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        if (!enabled || p.getField1() < 0 || p.getField1() >= td1.numFields()
+                || p.getField2() < 0 || p.getField2() >= td2.numFields()
+                || td1.getFieldType(p.getField1()) != td2.getFieldType(p.getField2())) {
+            interpreted.incrementAndGet();
+            return null;
+        }
+        long start = System.nanoTime();
+        Type type = td1.getFieldType(p.getField1());
+        MethodHandle value1 = fieldValue(type, p.getField1());
+        MethodHandle value2 = fieldValue(type, p.getField2());
+        if (value1 == null || value2 == null) {
+            interpreted.incrementAndGet();
+            return null;
+        }
+        MethodHandle test = type == Type.INT_TYPE ? INT_OPS[p.getOperator().ordinal()]
+                : compareStrings(p.getOperator());
+        test = MethodHandles.filterArguments(test, 0, value1, value2);
+        compileNanos.addAndGet(System.nanoTime() - start);
+        compiled.incrementAndGet();
+        return test;
+    }
+
+    /**
+     * @return a handle of type (Tuple)int or (Tuple)String that reads the
+     *         field, or null for other types
+     */
+    private static MethodHandle fieldValue(Type type, int field) {
+        if (type == Type.INT_TYPE)
+            return MethodHandles.insertArguments(INT_VALUE, 1, field);
+        if (type == Type.STRING_TYPE)
+            return MethodHandles.insertArguments(STRING_VALUE, 1, field);
+        return null;
+    }
+
+    /**
+     * @return a handle of type (String,String)boolean that compares two
+     *         strings as StringField.compare does
+     */
+    private static MethodHandle compareStrings(Predicate.Op op) {
+        if (op == Predicate.Op.LIKE)
+            return CONTAINS;
+        // compare the result of compareTo with 0
+        MethodHandle test = MethodHandles.insertArguments(INT_OPS[op.ordinal()], 1, 0);
+        return MethodHandles.filterReturnValue(STRING_COMPARE, test);
+    }
+
+    /**
+     * Adds to the number of tuples compiled predicates were evaluated on.
+     */
+    static void countEvaluations(long n) {
+        if (n > 0)
+            evaluations.addAndGet(n);
+    }
+
+    /**
+     * @return a summary of the counters since the last reset
+     */
+    public static String report() {
+        return String.format("%d predicates compiled in %.3f ms, %d interpreted; "
+                + "%d tuples evaluated by compiled predicates",
+                compiled.get(), compileNanos.get() / 1e6, interpreted.get(), evaluations.get());
+    }
+
+    public static long numCompiled() {
+        return compiled.get();
+    }
+
+    public static long numInterpreted() {
+        return interpreted.get();
+    }
+
+    public static long numEvaluations() {
+        return evaluations.get();
+    }
+
+    /**
+     * Resets the counters of {@link #report()}.
+     */
+    public static void resetStatistics() {
+        compiled.set(0);
+        interpreted.set(0);
+        compileNanos.set(0);
+        evaluations.set(0);
+    }
+}
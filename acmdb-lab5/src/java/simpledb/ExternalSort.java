@@ -0,0 +1,515 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ExternalSort sorts an arbitrarily large stream of tuples using a bounded
+ * amount of memory. Tuples are buffered in memory until the budget is
+ * exhausted, at which point the buffer is sorted and written to a temporary
+ * run file. Once all the input has been added, {@link #iterator()} merges
+ * the runs (and whatever is still buffered) back into a single sorted stream.
+ * <p>
+ * If the input fits in memory no run files are ever written. Runs store
+ * integers as 4 bytes and strings as their length and bytes, without the
+ * padding of the page format. The runs are merged through a loser tree,
+ * which costs one comparison per level of the tree for every tuple returned;
+ * if there are more runs than the memory budget has pages, groups of runs
+ * are first merged into longer runs.
+ * <p>
+ * The order is either given by a Comparator, or by a list of key fields each
+ * sorted ascending or descending. In the latter case, when all the keys are
+ * integers, the in-memory buffer is sorted on a primitive array of the key
+ * values rather than by comparing Fields.
+ */
+public class ExternalSort {
+
+    /** Default memory budget, in pages of BufferPool.getPageSize() bytes. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxBufferedTuples;
+    private final int maxMergeWidth;
+
+    /** the sort keys, or null if the order is given by a Comparator */
+    private final int[] keyFields;
+    private final boolean[] ascending;
+    private final boolean intKeys;
+
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private ArrayList<File> runs = new ArrayList<File>();
+    private int numRuns = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the tuples to sort
+     * @param comparator
+     *            the order to sort the tuples in
+     * @param memoryPages
+     *            the number of pages worth of tuples that may be buffered in
+     *            memory before a run is spilled to disk
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryPages) {
+        this(td, comparator, null, null, memoryPages);
+    }
+
+    /**
+     * Constructor using {@link #DEFAULT_MEMORY_PAGES} as the memory budget.
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator) {
+        this(td, comparator, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for sorting on a list of fields: tuples are ordered by
+     * keyFields[0], ties are broken by keyFields[1], and so on.
+     *
+     * @param td
+     *            the TupleDesc of the tuples to sort
+     * @param keyFields
+     *            the indexes of the sort key fields
+     * @param ascending
+     *            for each key field, true to sort it in ascending order and
+     *            false for descending order
+     * @param memoryPages
+     *            the number of pages worth of tuples that may be buffered in
+     *            memory before a run is spilled to disk
+     */
+    public ExternalSort(TupleDesc td, int[] keyFields, boolean[] ascending,
+            int memoryPages) {
+        this(td, new KeyComparator(keyFields, ascending), keyFields.clone(),
+                ascending.clone(), memoryPages);
+    }
+
+    /**
+     * Constructor for sorting on a list of fields, using
+     * {@link #DEFAULT_MEMORY_PAGES} as the memory budget.
+     */
+    public ExternalSort(TupleDesc td, int[] keyFields, boolean[] ascending) {
+        this(td, keyFields, ascending, DEFAULT_MEMORY_PAGES);
+    }
+
+    private ExternalSort(TupleDesc td, Comparator<Tuple> comparator,
+            int[] keyFields, boolean[] ascending, int memoryPages) {
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.td = td;
+        this.comparator = comparator;
+        long budget = (long) memoryPages * BufferPool.getPageSize() / td.getSize();
+        this.maxBufferedTuples = (int) Math.max(1, Math.min(budget, Integer.MAX_VALUE));
+        this.maxMergeWidth = Math.max(2, memoryPages);
+        this.keyFields = keyFields;
+        this.ascending = ascending;
+        boolean ints = keyFields != null;
+        if (keyFields != null) {
+            for (int f : keyFields)
+                ints &= td.getFieldType(f) == Type.INT_TYPE;
+        }
+        this.intKeys = ints;
+    }
+
+    /**
+     * Orders tuples on a list of key fields.
+     */
+    static class KeyComparator implements Comparator<Tuple> {
+        private final int[] keyFields;
+        private final boolean[] ascending;
+
+        KeyComparator(int[] keyFields, boolean[] ascending) {
+            if (keyFields.length == 0 || keyFields.length != ascending.length)
+                throw new IllegalArgumentException("need one direction per sort key");
+            this.keyFields = keyFields.clone();
+            this.ascending = ascending.clone();
+        }
+
+        public int compare(Tuple t1, Tuple t2) {
+            for (int i = 0; i < keyFields.length; i++) {
+                Field f1 = t1.getField(keyFields[i]);
+                Field f2 = t2.getField(keyFields[i]);
+                int c;
+                if (f1.getType() == Type.INT_TYPE)
+                    c = Integer.compare(((IntField) f1).getValue(), ((IntField) f2).getValue());
+                else
+                    c = ((StringField) f1).getValue().compareTo(((StringField) f2).getValue());
+                if (c != 0)
+                    return ascending[i] ? c : -c;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Adds a tuple to the sort, spilling the in-memory buffer to a new run if
+     * the memory budget has been reached.
+     */
+    public void add(Tuple t) throws DbException {
+        buffer.add(t);
+        if (buffer.size() >= maxBufferedTuples)
+            spill();
+    }
+
+    /**
+     * Adds every tuple produced by the (already opened) iterator.
+     */
+    public void addAll(DbIterator it) throws DbException,
+            TransactionAbortedException {
+        while (it.hasNext())
+            add(it.next());
+    }
+
+    /**
+     * @return the number of runs that have been written to disk so far
+     */
+    public int numRuns() {
+        return numRuns;
+    }
+
+    /**
+     * Returns an iterator over all the tuples added so far in sorted order.
+     * No more tuples should be added once this has been called.
+     */
+    public DbFileIterator iterator() throws DbException {
+        sortBuffer();
+        while (runs.size() > maxMergeWidth)
+            mergePass();
+        return new MergeIterator();
+    }
+
+    /**
+     * Releases the memory buffer and deletes any run files.
+     */
+    public void close() {
+        buffer = new ArrayList<Tuple>();
+        for (File run : runs)
+            run.delete();
+        runs.clear();
+    }
+
+    /**
+     * Sorts the in-memory buffer. With integer keys, the key values are
+     * copied into one int array and a permutation of the buffer is merge
+     * sorted by comparing its entries; the sort is stable either way.
+     */
+    private void sortBuffer() {
+        if (!intKeys) {
+            Collections.sort(buffer, comparator);
+            return;
+        }
+        int n = buffer.size();
+        int k = keyFields.length;
+        int[] keys = new int[n * k];
+        for (int i = 0; i < n; i++) {
+            Tuple t = buffer.get(i);
+            for (int j = 0; j < k; j++)
+                keys[i * k + j] = t.getInt(keyFields[j]);
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        int[] tmp = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+                int a = lo, b = mid, o = lo;
+                while (a < mid && b < hi)
+                    tmp[o++] = compareKeys(keys, k, order[b], order[a]) < 0 ? order[b++] : order[a++];
+                while (a < mid)
+                    tmp[o++] = order[a++];
+                while (b < hi)
+                    tmp[o++] = order[b++];
+            }
+            int[] swap = order;
+            order = tmp;
+            tmp = swap;
+        }
+        ArrayList<Tuple> sorted = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++)
+            sorted.add(buffer.get(order[i]));
+        buffer = sorted;
+    }
+
+    private int compareKeys(int[] keys, int k, int a, int b) {
+        for (int j = 0; j < k; j++) {
+            int c = Integer.compare(keys[a * k + j], keys[b * k + j]);
+            if (c != 0)
+                return ascending[j] ? c : -c;
+        }
+        return 0;
+    }
+
+    private void spill() throws DbException {
+        sortBuffer();
+        File run = newRun();
+        try {
+            DataOutputStream dos = openRun(run, buffer.size());
+            try {
+                for (Tuple t : buffer)
+                    writeTuple(dos, t);
+            } finally {
+                dos.close();
+            }
+        } catch (IOException e) {
+            run.delete();
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+        runs.add(run);
+        numRuns++;
+        buffer = new ArrayList<Tuple>();
+    }
+
+    /**
+     * Merges each group of up to maxMergeWidth consecutive runs into a single
+     * run, keeping the runs in the order they were written so the sort stays
+     * stable.
+     */
+    private void mergePass() throws DbException {
+        ArrayList<File> merged = new ArrayList<File>();
+        for (int start = 0; start < runs.size(); start += maxMergeWidth) {
+            List<File> group = runs.subList(start, Math.min(start + maxMergeWidth, runs.size()));
+            File run = newRun();
+            ArrayList<Source> sources = new ArrayList<Source>();
+            try {
+                int count = 0;
+                for (File f : group) {
+                    RunReader r = new RunReader(f);
+                    count += r.remaining;
+                    sources.add(r);
+                }
+                DataOutputStream dos = openRun(run, count);
+                try {
+                    LoserTree tree = new LoserTree(sources);
+                    Tuple t;
+                    while ((t = tree.next()) != null)
+                        writeTuple(dos, t);
+                } finally {
+                    dos.close();
+                }
+            } catch (IOException e) {
+                run.delete();
+                throw new DbException("could not merge sort runs: " + e.getMessage());
+            } finally {
+                for (Source s : sources)
+                    s.close();
+            }
+            for (File f : group)
+                f.delete();
+            merged.add(run);
+        }
+        runs = merged;
+    }
+
+    private static File newRun() throws DbException {
+        try {
+            File run = File.createTempFile("sortrun", ".dat");
+            run.deleteOnExit();
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not create sort run: " + e.getMessage());
+        }
+    }
+
+    private static DataOutputStream openRun(File run, int count) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run)));
+        dos.writeInt(count);
+        return dos;
+    }
+
+    private void writeTuple(DataOutputStream dos, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == Type.INT_TYPE) {
+                dos.writeInt(((IntField) f).getValue());
+            } else {
+                byte[] s = ((StringField) f).getValue().getBytes();
+                dos.writeShort(s.length);
+                dos.write(s);
+            }
+        }
+    }
+
+    /**
+     * A sorted stream of tuples taking part in a merge; head is its current
+     * tuple, or null once it is exhausted.
+     */
+    private static abstract class Source {
+        Tuple head;
+
+        abstract void advance() throws DbException;
+
+        void close() {
+        }
+    }
+
+    /**
+     * Sequential reader over a single run file.
+     */
+    private class RunReader extends Source {
+        private final DataInputStream dis;
+        private int remaining;
+
+        RunReader(File run) throws IOException {
+            dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run)));
+            remaining = dis.readInt();
+        }
+
+        void advance() throws DbException {
+            if (remaining == 0) {
+                head = null;
+                return;
+            }
+            remaining--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(dis.readInt()));
+                    } else {
+                        byte[] s = new byte[dis.readUnsignedShort()];
+                        dis.readFully(s);
+                        t.setField(i, new StringField(new String(s), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("corrupt sort run: " + e.getMessage());
+            }
+            head = t;
+        }
+
+        void close() {
+            try {
+                dis.close();
+            } catch (IOException e) {
+                // nothing useful to do; the run is deleted anyway
+            }
+        }
+    }
+
+    /**
+     * The sorted in-memory buffer as a merge source.
+     */
+    private class BufferSource extends Source {
+        private int pos = 0;
+
+        void advance() {
+            head = pos < buffer.size() ? buffer.get(pos++) : null;
+        }
+    }
+
+    /**
+     * Tree of losers over k sources. Leaf i sits at position i + k and the
+     * parent of position n is n / 2; every internal position holds the source
+     * that lost the comparison there, and position 0 the overall winner.
+     * Replacing the winner's head only replays the path from its leaf to the
+     * root. Ties go to the source with the lower index.
+     */
+    private class LoserTree {
+        private final Source[] sources;
+        private final int[] tree;
+
+        LoserTree(List<Source> list) throws DbException {
+            sources = list.toArray(new Source[list.size()]);
+            int k = sources.length;
+            tree = new int[Math.max(1, k)];
+            for (Source s : sources)
+                s.advance();
+            if (k == 0)
+                return;
+            int[] winners = new int[2 * k];
+            for (int i = 0; i < k; i++)
+                winners[i + k] = i;
+            for (int n = k - 1; n >= 1; n--) {
+                int a = winners[2 * n], b = winners[2 * n + 1];
+                if (beats(a, b)) {
+                    winners[n] = a;
+                    tree[n] = b;
+                } else {
+                    winners[n] = b;
+                    tree[n] = a;
+                }
+            }
+            tree[0] = k == 1 ? 0 : winners[1];
+        }
+
+        /** @return true if the head of source a sorts before that of b */
+        private boolean beats(int a, int b) {
+            if (sources[a].head == null)
+                return false;
+            if (sources[b].head == null)
+                return true;
+            int c = comparator.compare(sources[a].head, sources[b].head);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /**
+         * @return the smallest head, which is replaced by the next tuple of
+         *         its source, or null if every source is exhausted
+         */
+        Tuple next() throws DbException {
+            if (sources.length == 0)
+                return null;
+            int s = tree[0];
+            Tuple t = sources[s].head;
+            if (t == null)
+                return null;
+            sources[s].advance();
+            for (int n = (s + sources.length) / 2; n > 0; n /= 2) {
+                if (beats(tree[n], s)) {
+                    int loser = s;
+                    s = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = s;
+            return t;
+        }
+
+        void close() {
+            for (Source s : sources)
+                s.close();
+        }
+    }
+
+    /**
+     * K-way merge of the runs on disk and the sorted in-memory buffer.
+     */
+    private class MergeIterator extends AbstractDbFileIterator {
+        private LoserTree tree;
+
+        public void open() throws DbException {
+            ArrayList<Source> sources = new ArrayList<Source>();
+            try {
+                for (File run : runs)
+                    sources.add(new RunReader(run));
+            } catch (IOException e) {
+                for (Source s : sources)
+                    s.close();
+                throw new DbException("could not read sort run: " + e.getMessage());
+            }
+            // the buffer holds the most recently added tuples, so it goes last
+            sources.add(new BufferSource());
+            tree = new LoserTree(sources);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException {
+            return tree == null ? null : tree.next();
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (tree != null)
+                tree.close();
+            tree = null;
+        }
+    }
+}
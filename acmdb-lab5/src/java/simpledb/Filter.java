@@ -10,6 +10,7 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate predicate;
     private DbIterator child;
+    private transient CompiledPredicate compiled;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -41,12 +42,15 @@ public class Filter extends Operator {
         // some code goes here
         super.open();
         child.open();
+        compiled = new CompiledPredicate(predicate, child.getTupleDesc());
     }
 
     public void close() {
         // some code goes here
         super.close();
         child.close();
+        if (compiled != null)
+            compiled.flushStatistics();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -68,7 +72,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple tuple = child.next();
-            if (predicate.filter(tuple))
+            if (compiled.filter(tuple))
                 return tuple;
         }
         return null;
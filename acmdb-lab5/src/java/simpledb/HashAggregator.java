@@ -0,0 +1,690 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes several aggregates over a child's tuples at once, grouped by any
+ * number of fields, using one hash table for all of them.
+ * <p>
+ * Every group gets a number the first time it is seen, and the state of
+ * aggregate j for group g is the primitive accumulator acc[j][g] (the sum for
+ * SUM and AVG, the extreme value for MIN and MAX) plus the group's row count,
+ * which COUNT and AVG share. When there are at most two group fields and all
+ * of them are INT, the group values are packed into a long and numbered by a
+ * {@link LongGroupTable}; other groupings are looked up in a HashMap keyed
+ * on the list of group values. Result tuples are only created while the
+ * iterator returned by {@link #iterator()} is read.
+ * <p>
+ * The number of groups held in memory is bounded by a memory budget. When it
+ * is reached, the partial aggregates of all the groups in memory are written
+ * to spill files, partitioned by the hash of the group values, and the table
+ * starts over empty. A group can end up with several partial aggregates in
+ * the same partition; when the results are read, each partition is
+ * aggregated on its own by merging them (sums and counts add up, MIN and MAX
+ * keep the extreme value, AVG is kept as a sum and a count), partitioning
+ * again with a different hash function if a partition still has too many
+ * groups. Once the results of a spilled aggregator have been read no more
+ * tuples may be merged into it, and {@link #close()} removes its files.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages of BufferPool.getPageSize() bytes. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    /**
+     * Nesting depth after which a partition is aggregated in memory whatever
+     * its size; partitioning with a new hash function at every level makes
+     * that practically unreachable.
+     */
+    static final int MAX_DEPTH = 6;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] whats;
+    private final TupleDesc tupleDesc;
+    private final int memoryPages;
+    private final int depth;
+    private final int groupCapacity;
+
+    /*
+     * If partial, the merged tuples are partial aggregates read back from a
+     * spill file: the group values, then the count and the accumulator of
+     * each aggregate, every long stored as two INT fields (high, low).
+     */
+    private final boolean partial;
+    private final TupleDesc partialTd;
+
+    /* per-group state, indexed by group number */
+    private int numGroups;
+    private long[] cnt;
+    private long[][] acc;
+
+    /* group values: longGroups for up to two INT fields, keys otherwise */
+    private LongGroupTable longGroups;
+    private List<Field>[] keys;
+    private HashMap<List<Field>, Integer> groupOf;
+
+    private SpillFile[] partitions;
+    private int numSpills;
+
+    /* the group of each row of the batch being merged */
+    private transient int[] batchGroups;
+
+    /**
+     * Aggregate constructor using {@link #DEFAULT_MEMORY_PAGES} as the memory
+     * budget.
+     *
+     * @param td
+     *            the TupleDesc of the tuples that will be merged
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields, empty if there is
+     *            no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *             if there are no aggregates, if afields and whats differ in
+     *             length, if an operator is SUM_COUNT or SC_AVG, or if an
+     *             operator other than COUNT is applied to a STRING field
+     */
+    public HashAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] whats) {
+        this(td, gbfields, afields, whats, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Aggregate constructor.
+     *
+     * @param memoryPages
+     *            the number of pages worth of groups to hold in memory
+     * @see #HashAggregator(TupleDesc, int[], int[], Aggregator.Op[])
+     */
+    public HashAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] whats,
+            int memoryPages) {
+        if (afields.length == 0 || afields.length != whats.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] == Op.SUM_COUNT || whats[j] == Op.SC_AVG)
+                throw new IllegalArgumentException("unsupported aggregate " + whats[j]);
+            if (whats[j] != Op.COUNT && td.getFieldType(afields[j]) != Type.INT_TYPE)
+                throw new IllegalArgumentException(whats[j] + " needs an INT field");
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.tupleDesc = resultTupleDesc(td, gbfields, afields, whats);
+        this.memoryPages = memoryPages;
+        this.depth = 0;
+        this.partial = false;
+        Type[] types = new Type[gbfields.length + 2 + 2 * whats.length];
+        Arrays.fill(types, Type.INT_TYPE);
+        for (int i = 0; i < gbfields.length; i++)
+            types[i] = td.getFieldType(gbfields[i]);
+        this.partialTd = new TupleDesc(types);
+        this.groupCapacity = groupCapacity();
+        init(td);
+    }
+
+    /**
+     * Creates the aggregator that merges the partial aggregates of one of
+     * parent's partitions.
+     */
+    private HashAggregator(HashAggregator parent) {
+        this.gbfields = new int[parent.gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            gbfields[i] = i;
+        this.afields = parent.afields;
+        this.whats = parent.whats;
+        this.tupleDesc = parent.tupleDesc;
+        this.memoryPages = parent.memoryPages;
+        this.depth = parent.depth + 1;
+        this.partial = true;
+        this.partialTd = parent.partialTd;
+        this.groupCapacity = parent.groupCapacity;
+        init(partialTd);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(TupleDesc td) {
+        int capacity = gbfields.length == 0 ? 1 : INITIAL_GROUPS;
+        cnt = new long[capacity];
+        acc = new long[whats.length][capacity];
+        boolean allInt = gbfields.length <= 2;
+        for (int f : gbfields)
+            allInt &= td.getFieldType(f) == Type.INT_TYPE;
+        if (gbfields.length > 0) {
+            if (allInt) {
+                longGroups = new LongGroupTable(capacity);
+            } else {
+                keys = new List[capacity];
+                groupOf = new HashMap<List<Field>, Integer>();
+            }
+        }
+    }
+
+    /**
+     * @return the number of groups that fit in the memory budget, from a
+     *         rough per-group size: the count, the accumulators, and the
+     *         group values with their hash table entry
+     */
+    private int groupCapacity() {
+        int bytes = 8 + 8 * whats.length;
+        boolean allInt = gbfields.length <= 2;
+        for (int i = 0; i < gbfields.length; i++)
+            allInt &= partialTd.getFieldType(i) == Type.INT_TYPE;
+        if (allInt) {
+            bytes += 8 + 24;
+        } else {
+            bytes += 64;
+            for (int i = 0; i < gbfields.length; i++)
+                bytes += 16 + partialTd.getFieldType(i).getLen();
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) memoryPages * BufferPool.getPageSize() / bytes));
+    }
+
+    /**
+     * Returns the TupleDesc of the results of an aggregation: the group-by
+     * fields, under their names in td, followed by one INT field per
+     * aggregate named after its operator and field, e.g. "sum(t.a)".
+     */
+    public static TupleDesc resultTupleDesc(TupleDesc td, int[] gbfields,
+            int[] afields, Op[] whats) {
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = td.getFieldType(gbfields[i]);
+            names[i] = td.getFieldName(gbfields[i]);
+        }
+        for (int j = 0; j < afields.length; j++) {
+            // aggregates over anonymous fields stay anonymous
+            String name = td.getFieldName(afields[j]);
+            types[gbfields.length + j] = Type.INT_TYPE;
+            names[gbfields.length + j] = name == null || name.isEmpty() ? name
+                    : whats[j] + "(" + name + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the number of the group of the tuple, adding the group if it
+     * is new.
+     */
+    private int group(Tuple tup) {
+        if (gbfields.length == 0) {
+            if (numGroups == 0)
+                newGroup();
+            return 0;
+        }
+        if (longGroups != null) {
+            long key = tup.getInt(gbfields[0]);
+            if (gbfields.length == 2)
+                key = (key << 32) | (tup.getInt(gbfields[1]) & 0xffffffffL);
+            return longGroup(key);
+        }
+        Field[] values = new Field[gbfields.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = tup.getField(gbfields[i]);
+        return keyGroup(Arrays.asList(values));
+    }
+
+    private int longGroup(long key) {
+        int g = longGroups.findOrAdd(key);
+        if (g == numGroups)
+            newGroup();
+        return g;
+    }
+
+    private int keyGroup(List<Field> key) {
+        Integer g = groupOf.get(key);
+        if (g != null)
+            return g;
+        int n = newGroup();
+        keys[n] = key;
+        groupOf.put(key, n);
+        return n;
+    }
+
+    private int newGroup() {
+        if (numGroups == cnt.length) {
+            int capacity = 2 * cnt.length;
+            cnt = Arrays.copyOf(cnt, capacity);
+            for (int j = 0; j < acc.length; j++)
+                acc[j] = Arrays.copyOf(acc[j], capacity);
+            if (keys != null)
+                keys = Arrays.copyOf(keys, capacity);
+        }
+        // MIN and MAX start from the other extreme, so any value replaces it
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] == Op.MIN)
+                acc[j][numGroups] = Long.MAX_VALUE;
+            else if (whats[j] == Op.MAX)
+                acc[j][numGroups] = Long.MIN_VALUE;
+        }
+        return numGroups++;
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     * @throws RuntimeException
+     *             wrapping a DbException if the groups could not be spilled;
+     *             use {@link #merge} to get the DbException itself
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        try {
+            merge(tup);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group, spilling the groups
+     * in memory if the memory budget is exceeded.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     * @throws DbException
+     *             if the groups could not be written to a spill file
+     */
+    public void merge(Tuple tup) throws DbException {
+        int g = group(tup);
+        if (partial)
+            mergePartial(tup, g);
+        else
+            mergeValues(tup, g);
+        if (numGroups >= groupCapacity && gbfields.length > 0 && depth < MAX_DEPTH)
+            spill();
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregates of their
+     * groups, as {@link #merge(Tuple)} does for each of them, reading the
+     * aggregate values straight from the INT columns of the batch.
+     *
+     * @param batch
+     *            the rows containing the aggregate and group-by fields
+     * @throws DbException
+     *             if the groups could not be written to a spill file
+     */
+    public void merge(TupleBatch batch) throws DbException {
+        int n = batch.numRows();
+        if (batchGroups == null || batchGroups.length < n)
+            batchGroups = new int[batch.capacity()];
+        int[] key0 = longGroups != null ? batch.intColumn(gbfields[0]) : null;
+        int[] key1 = longGroups != null && gbfields.length == 2 ? batch.intColumn(gbfields[1]) : null;
+        int i = 0;
+        while (i < n) {
+            // number the groups of the rows until the memory budget is reached
+            int start = i;
+            boolean full = false;
+            while (i < n && !full) {
+                int r = batch.row(i);
+                int g;
+                if (gbfields.length == 0) {
+                    if (numGroups == 0)
+                        newGroup();
+                    g = 0;
+                } else if (key1 != null) {
+                    g = longGroup(((long) key0[r] << 32) | (key1[r] & 0xffffffffL));
+                } else if (key0 != null) {
+                    g = longGroup(key0[r]);
+                } else {
+                    Field[] values = new Field[gbfields.length];
+                    for (int k = 0; k < values.length; k++)
+                        values[k] = batch.getField(gbfields[k], r);
+                    g = keyGroup(Arrays.asList(values));
+                }
+                batchGroups[i++] = g;
+                full = numGroups >= groupCapacity && gbfields.length > 0 && depth < MAX_DEPTH;
+            }
+            accumulate(batch, start, i);
+            if (full)
+                spill();
+        }
+    }
+
+    /**
+     * Adds the values of the batch's selected rows start..end-1, whose groups
+     * are in batchGroups, to the accumulators, one aggregate at a time.
+     */
+    private void accumulate(TupleBatch batch, int start, int end) {
+        int[] groups = batchGroups;
+        for (int i = start; i < end; i++)
+            cnt[groups[i]]++;
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] == Op.COUNT)
+                continue;
+            int[] column = batch.intColumn(afields[j]);
+            long[] a = acc[j];
+            switch (whats[j]) {
+                case MIN:
+                    for (int i = start; i < end; i++) {
+                        int g = groups[i];
+                        a[g] = Math.min(a[g], column[batch.row(i)]);
+                    }
+                    break;
+                case MAX:
+                    for (int i = start; i < end; i++) {
+                        int g = groups[i];
+                        a[g] = Math.max(a[g], column[batch.row(i)]);
+                    }
+                    break;
+                default:
+                    for (int i = start; i < end; i++)
+                        a[groups[i]] += column[batch.row(i)];
+                    break;
+            }
+        }
+    }
+
+    private void mergeValues(Tuple tup, int g) {
+        cnt[g]++;
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] != Op.COUNT)
+                accumulate(j, g, tup.getInt(afields[j]));
+        }
+    }
+
+    private void mergePartial(Tuple tup, int g) {
+        int k = gbfields.length;
+        cnt[g] += readLong(tup, k);
+        for (int j = 0; j < whats.length; j++) {
+            if (whats[j] != Op.COUNT)
+                accumulate(j, g, readLong(tup, k + 2 + 2 * j));
+        }
+    }
+
+    /**
+     * Adds a value to the accumulator of aggregate j of group g.
+     */
+    private void accumulate(int j, int g, long value) {
+        long[] a = acc[j];
+        switch (whats[j]) {
+            case MIN:
+                a[g] = Math.min(a[g], value);
+                break;
+            case MAX:
+                a[g] = Math.max(a[g], value);
+                break;
+            default:
+                a[g] += value;
+                break;
+        }
+    }
+
+    private static long readLong(Tuple tup, int i) {
+        long high = tup.getInt(i);
+        long low = tup.getInt(i + 1);
+        return (high << 32) | (low & 0xffffffffL);
+    }
+
+    private static void writeLong(Tuple tup, int i, long value) {
+        tup.setField(i, new IntField((int) (value >> 32)));
+        tup.setField(i + 1, new IntField((int) value));
+    }
+
+    /**
+     * Sets the group-by values of group g as fields 0.. of the tuple.
+     */
+    private void setGroupFields(Tuple tuple, int g) {
+        if (longGroups != null) {
+            long key = longGroups.key(g);
+            if (gbfields.length == 2) {
+                tuple.setField(0, new IntField((int) (key >> 32)));
+                tuple.setField(1, new IntField((int) key));
+            } else {
+                tuple.setField(0, new IntField((int) key));
+            }
+        } else if (keys != null) {
+            for (int i = 0; i < gbfields.length; i++)
+                tuple.setField(i, keys[g].get(i));
+        }
+    }
+
+    /**
+     * Returns the partition of group g. Each nesting level mixes in a
+     * different seed, so groups that shared a partition are spread over the
+     * partitions of the nested aggregator.
+     */
+    private int partition(int g) {
+        int h = longGroups != null ? LongGroupTable.hash(longGroups.key(g)) : keys[g].hashCode();
+        h ^= depth * 0x27d4eb2f;
+        h *= 0x9e3779b1;
+        h ^= h >>> 15;
+        h *= 0x85ebca77;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % numPartitions();
+    }
+
+    /**
+     * @return the number of partitions groups are spilled to
+     */
+    int numPartitions() {
+        return Math.max(2, Math.min(64, memoryPages));
+    }
+
+    /**
+     * @return the partial aggregate of group g, as written to spill files
+     */
+    private Tuple partialTuple(int g) {
+        int k = gbfields.length;
+        Tuple tuple = new Tuple(partialTd);
+        setGroupFields(tuple, g);
+        writeLong(tuple, k, cnt[g]);
+        for (int j = 0; j < whats.length; j++)
+            writeLong(tuple, k + 2 + 2 * j, acc[j][g]);
+        return tuple;
+    }
+
+    /**
+     * Writes the partial aggregates of the groups in memory to the spill
+     * files and empties the hash table.
+     */
+    private void spill() throws DbException {
+        if (partitions == null) {
+            partitions = new SpillFile[numPartitions()];
+            for (int i = 0; i < partitions.length; i++)
+                partitions[i] = new SpillFile(partialTd);
+        }
+        for (int g = 0; g < numGroups; g++)
+            partitions[partition(g)].add(partialTuple(g));
+        Arrays.fill(cnt, 0, numGroups, 0);
+        for (long[] a : acc)
+            Arrays.fill(a, 0, numGroups, 0);
+        if (longGroups != null) {
+            longGroups = new LongGroupTable(numGroups);
+        } else {
+            Arrays.fill(keys, 0, numGroups, null);
+            groupOf = new HashMap<List<Field>, Integer>();
+        }
+        numGroups = 0;
+        numSpills++;
+    }
+
+    /**
+     * @return the value of aggregate j for group g
+     */
+    private int result(int j, int g) {
+        switch (whats[j]) {
+            case COUNT:
+                return (int) cnt[g];
+            case AVG:
+                return (int) (acc[j][g] / cnt[g]);
+            default:
+                return (int) acc[j][g];
+        }
+    }
+
+    /**
+     * Returns the partial aggregates of all the groups merged so far, split
+     * by the hash of their group values the way spill files are: aggregators
+     * with the same arguments and memory budget put a group in the same
+     * partition. Without grouping there is a single partition. Once this has
+     * been called no more tuples may be merged.
+     *
+     * @return one iterator over partial aggregates per partition
+     * @see #partialMerger()
+     */
+    @SuppressWarnings("unchecked")
+    DbIterator[] partialPartitions() throws DbException {
+        DbIterator[] result = new DbIterator[gbfields.length == 0 ? 1 : numPartitions()];
+        if (partitions != null) {
+            if (numGroups > 0)
+                spill();
+            for (int p = 0; p < result.length; p++)
+                result[p] = partitions[p].iterator();
+            return result;
+        }
+        ArrayList<Tuple>[] lists = new ArrayList[result.length];
+        for (int p = 0; p < lists.length; p++)
+            lists[p] = new ArrayList<Tuple>();
+        for (int g = 0; g < numGroups; g++)
+            lists[result.length == 1 ? 0 : partition(g)].add(partialTuple(g));
+        for (int p = 0; p < result.length; p++)
+            result[p] = new TupleIterator(partialTd, lists[p]);
+        return result;
+    }
+
+    /**
+     * @return an empty aggregator that merges partial aggregates returned by
+     *         {@link #partialPartitions()} of this one and of aggregators
+     *         with the same arguments, and returns the final results
+     */
+    HashAggregator partialMerger() {
+        return new HashAggregator(this);
+    }
+
+    /**
+     * @return the number of groups held in memory
+     */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /**
+     * @return the number of times the groups in memory were written to the
+     *         spill files, 0 if the aggregation fit in memory
+     */
+    public int numSpills() {
+        return numSpills;
+    }
+
+    /**
+     * Removes the spill files.
+     */
+    public void close() {
+        if (partitions != null) {
+            for (SpillFile f : partitions)
+                f.delete();
+        }
+        partitions = null;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values followed by
+     *         the value of each aggregate, in the order of the constructor
+     *         arguments
+     */
+    public DbIterator iterator() {
+        return new GroupIterator();
+    }
+
+    /**
+     * Iterates over the groups in memory in the order they were first seen,
+     * building each result tuple from the accumulators as it is returned.
+     * If groups were spilled, the ones still in memory are spilled as well
+     * and the partitions are aggregated and returned one after another.
+     */
+    private class GroupIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private int next = -1;
+        private int nextPartition;
+        private HashAggregator merged;
+        private DbIterator current;
+
+        public void open() throws DbException {
+            next = 0;
+            if (partitions != null && numGroups > 0)
+                spill();
+            resetPartitions();
+        }
+
+        private void resetPartitions() {
+            nextPartition = 0;
+            current = null;
+            if (merged != null)
+                merged.close();
+            merged = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next < 0)
+                return false;
+            if (partitions == null)
+                return next < numGroups;
+            while (current == null || !current.hasNext()) {
+                if (merged != null)
+                    merged.close();
+                merged = null;
+                current = null;
+                if (nextPartition >= partitions.length)
+                    return false;
+                merged = new HashAggregator(HashAggregator.this);
+                DbIterator it = partitions[nextPartition++].iterator();
+                it.open();
+                while (it.hasNext())
+                    merged.merge(it.next());
+                it.close();
+                current = merged.iterator();
+                current.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (partitions != null)
+                return current.next();
+            int g = next++;
+            Tuple tuple = new Tuple(tupleDesc);
+            setGroupFields(tuple, g);
+            for (int j = 0; j < whats.length; j++)
+                tuple.setField(gbfields.length + j, new IntField(result(j, g)));
+            return tuple;
+        }
+
+        public void rewind() {
+            next = 0;
+            resetPartitions();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return tupleDesc;
+        }
+
+        public void close() {
+            next = -1;
+            resetPartitions();
+        }
+    }
+
+}
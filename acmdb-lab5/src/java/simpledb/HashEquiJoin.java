@@ -3,14 +3,66 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join by building a hash
+ * table on its left (outer) child and probing it with the tuples of its
+ * right (inner) child.
+ * <p>
+ * It is a hybrid hash join: both inputs are split into partitions by the
+ * hash of their join field, and as long as the build side fits in the memory
+ * budget every partition stays in memory. When it does not, the largest
+ * partitions are spilled to temporary files, for both the build and the probe
+ * side, until the rest fits. Tuples of the in-memory partitions are joined as
+ * the probe side streams by; each spilled pair of partitions is then joined
+ * by a nested HashEquiJoin that partitions again with a different hash
+ * function, so memory use stays bounded whatever the input sizes.
+ * <p>
+ * Before the probe side is opened, the join pushes a {@link RuntimeFilter}
+ * down to the SeqScan its probe join field comes from, and once the build
+ * side is read sets it to a Bloom filter of the build join values, so that
+ * the scan drops the probe tuples that cannot match. The Bloom filter is sized
+ * for the build tuples that fit in the memory budget, so it stays bounded
+ * too; when the build side spills it holds more values than it was sized for
+ * and passes more probe tuples, until it stops testing if it drops too few.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages of BufferPool.getPageSize() bytes. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /**
+     * Nesting depth after which spilled partitions are joined with a block
+     * nested-loops join instead; only reached when a single join value has
+     * more build tuples than fit in memory.
+     */
+    static final int MAX_DEPTH = 6;
+
     private JoinPredicate joinPredicate;
     private DbIterator child1, child2;
-    private HashMap<Field, ArrayList<Tuple> > table;
+    private final int memoryPages;
+    private final int depth;
+
+    /**
+     * One hash partition of the inputs: either held in memory as a hash table
+     * on the build side, or spilled to a build and a probe file.
+     */
+    private static class Partition {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        HashMap<Field, ArrayList<Tuple>> table;
+        SpillFile build, probe;
+    }
+
+    private transient Partition[] partitions;
+    private transient Tuple probeTuple;
+    private transient CompiledJoinPredicate compiled;
+    private transient TupleDesc td;
+    private transient Iterator<Tuple> listIt = null;
+    private transient int nextSpilled;
+    private transient DbIterator spilledJoin;
+    private transient RuntimeFilter runtimeFilter;
+    /* the build join values, for the runtime filter */
+    private transient BloomFilter bloom;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -22,12 +74,31 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the left(outer) relation to join
      * @param child2
      *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            the number of pages worth of build tuples to hold in memory
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    /**
+     * Constructor using {@link #DEFAULT_MEMORY_PAGES} as the memory budget.
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    private HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages, int depth) {
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
         joinPredicate = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.depth = depth;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -52,26 +123,157 @@ public class HashEquiJoin extends Operator {
         return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
     }
 
+    /**
+     * @return the number of partitions that were spilled to disk when the
+     *         build side was read, or 0 if it fit in memory
+     */
+    public int numSpilledPartitions() {
+        int n = 0;
+        if (partitions != null) {
+            for (Partition part : partitions) {
+                if (part.build != null)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the filter the join pushed down to its probe side while it is
+     *         open, or null if it could not push one
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
+    /**
+     * Returns the partition of a join value. Each nesting level mixes in a
+     * different seed, so values that shared a spilled partition are spread
+     * over the partitions of the nested join.
+     */
+    private int partition(Field f) {
+        int h = f.hashCode() ^ (depth * 0x27d4eb2f);
+        h *= 0x9e3779b1;
+        h ^= h >>> 15;
+        h *= 0x85ebca77;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % partitions.length;
+    }
+
+    /**
+     * Reads the build side into partitions, spilling the largest in-memory
+     * partition whenever more tuples than fit in the memory budget are held,
+     * and turns the partitions that stayed in memory into hash tables.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int capacity = BlockNestedLoopJoin.blockCapacity(child1.getTupleDesc(), memoryPages);
+        partitions = new Partition[Math.max(2, Math.min(64, memoryPages))];
+        for (int i = 0; i < partitions.length; i++)
+            partitions[i] = new Partition();
+        int resident = 0;
+        while (child1.hasNext()) {
+            Tuple tuple = child1.next();
+            Field key = tuple.getField(joinPredicate.getField1());
+            if (bloom != null)
+                bloom.add(key);
+            Partition part = partitions[partition(key)];
+            if (part.build != null) {
+                part.build.add(tuple);
+                continue;
+            }
+            part.tuples.add(tuple);
+            if (++resident > capacity)
+                resident -= spillLargest();
+        }
+        for (Partition part : partitions) {
+            if (part.build != null)
+                continue;
+            part.table = new HashMap<Field, ArrayList<Tuple>>();
+            for (Tuple tuple : part.tuples) {
+                Field field = tuple.getField(joinPredicate.getField1());
+                ArrayList<Tuple> arrayList = part.table.get(field);
+                if (arrayList == null) {
+                    arrayList = new ArrayList<Tuple>();
+                    part.table.put(field, arrayList);
+                }
+                arrayList.add(tuple);
+            }
+            part.tuples = null;
+        }
+    }
+
+    /**
+     * Moves the largest in-memory partition to disk.
+     *
+     * @return the number of tuples that were freed
+     */
+    private int spillLargest() throws DbException {
+        Partition largest = null;
+        for (Partition part : partitions) {
+            if (part.build == null && (largest == null || part.tuples.size() > largest.tuples.size()))
+                largest = part;
+        }
+        int n = largest.tuples.size();
+        largest.build = new SpillFile(child1.getTupleDesc());
+        for (Tuple tuple : largest.tuples)
+            largest.build.add(tuple);
+        largest.tuples = null;
+        largest.probe = new SpillFile(child2.getTupleDesc());
+        return n;
+    }
+
+    /**
+     * Resets the probe phase: the build side is kept, in memory and on disk,
+     * and the probe files of spilled partitions are emptied.
+     */
+    private void resetProbe() throws DbException {
+        probeTuple = null;
+        listIt = null;
+        if (spilledJoin != null)
+            spilledJoin.close();
+        spilledJoin = null;
+        nextSpilled = 0;
+        for (Partition part : partitions) {
+            if (part.probe != null) {
+                part.probe.delete();
+                part.probe = new SpillFile(child2.getTupleDesc());
+            }
+        }
+    }
+
+    private void deletePartitions() {
+        if (spilledJoin != null)
+            spilledJoin.close();
+        spilledJoin = null;
+        if (partitions == null)
+            return;
+        for (Partition part : partitions) {
+            if (part.build != null)
+                part.build.delete();
+            if (part.probe != null)
+                part.probe.delete();
+        }
+        partitions = null;
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         super.open();
         child1.open();
+        compiled = new CompiledJoinPredicate(joinPredicate, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        td = getTupleDesc();
+        if (joinPredicate.getOperator() == Predicate.Op.EQUALS)
+            runtimeFilter = RuntimeFilter.push(child2, joinPredicate.getField2());
+        bloom = runtimeFilter == null ? null
+                : new BloomFilter(BlockNestedLoopJoin.blockCapacity(child1.getTupleDesc(), memoryPages));
+        build();
+        if (runtimeFilter != null)
+            runtimeFilter.setBloomFilter(bloom);
+        bloom = null;
         child2.open();
-        table = new HashMap<Field, ArrayList<Tuple> >();
-        while (child1.hasNext()) {
-            Tuple tuple = child1.next();
-            Field field = tuple.getField(joinPredicate.getField1());
-            if (table.containsKey(field))
-                table.get(field).add(tuple);
-            else {
-                ArrayList<Tuple> arrayList = new ArrayList<Tuple>();
-                arrayList.add(tuple);
-                table.put(field, arrayList);
-            }
-        }
-        child1.rewind();
+        resetProbe();
     }
 
     public void close() {
@@ -79,34 +281,55 @@ public class HashEquiJoin extends Operator {
         super.close();
         child1.close();
         child2.close();
+        deletePartitions();
+        if (runtimeFilter != null)
+            runtimeFilter.detach();
+        runtimeFilter = null;
+        probeTuple = null;
+        listIt = null;
+        if (compiled != null)
+            compiled.flushStatistics();
     }
 
+    /**
+     * Rewinds the probe side only; the hash tables and spilled build
+     * partitions are reused.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child1.rewind();
         child2.rewind();
-        table.clear();
-        while (child1.hasNext()) {
-            Tuple tuple = child1.next();
-            Field field = tuple.getField(joinPredicate.getField1());
-            if (table.containsKey(field))
-                table.get(field).add(tuple);
-            else {
-                ArrayList<Tuple> arrayList = new ArrayList<Tuple>();
-                arrayList.add(tuple);
-                table.put(field, arrayList);
-            }
-        }
-        child1.rewind();
+        resetProbe();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * Opens the join of the next spilled pair of partitions that can produce
+     * output.
+     *
+     * @return false if there are no more spilled partitions
+     */
+    private boolean nextSpilledJoin() throws DbException, TransactionAbortedException {
+        while (nextSpilled < partitions.length) {
+            Partition part = partitions[nextSpilled++];
+            if (part.build == null || part.build.size() == 0 || part.probe.size() == 0)
+                continue;
+            DbIterator build = part.build.iterator();
+            DbIterator probe = part.probe.iterator();
+            if (depth + 1 >= MAX_DEPTH)
+                spilledJoin = new BlockNestedLoopJoin(joinPredicate, build, probe, memoryPages);
+            else
+                spilledJoin = new HashEquiJoin(joinPredicate, build, probe, memoryPages, depth + 1);
+            spilledJoin.open();
+            return true;
+        }
+        return false;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. Matches from the in-memory partitions are
+     * returned while the probe side is read; those from spilled partitions
+     * follow once it is exhausted.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -120,59 +343,39 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-
-    private Tuple tmp;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (tmp == null) {
-            if (!child2.hasNext())
-                return null;
-            else {
-                tmp = child2.next();
-                Field field = tmp.getField(joinPredicate.getField2());
-                while (!table.containsKey(field)){
-                    if (!child2.hasNext())
-                        return null;
-                    tmp = child2.next();
-                    field = tmp.getField(joinPredicate.getField2());
+        while (true) {
+            if (listIt != null) {
+                while (listIt.hasNext()) {
+                    Tuple tuple = listIt.next();
+                    if (compiled.filter(tuple, probeTuple))
+                        return Tuple.merge(td, tuple, probeTuple);
                 }
-                ArrayList<Tuple> arrayList = table.get(field);
-                listIt = arrayList.iterator();
-            }
-        }
-        if (listIt != null) {
-            while (listIt.hasNext()) {
-                Tuple tuple = listIt.next();
-                if (!joinPredicate.filter(tuple, tmp))
-                    continue;
-                Tuple t = new Tuple(TupleDesc.merge(tuple.getTupleDesc(), tmp.getTupleDesc()));
-                for (int i = 0; i < tuple.getTupleDesc().numFields(); i++)
-                    t.setField(i, tuple.getField(i));
-                for (int i = 0; i < tmp.getTupleDesc().numFields(); i++)
-                    t.setField(i + tuple.getTupleDesc().numFields(), tmp.getField(i));
-                return t;
+                listIt = null;
             }
-        }
-        while (child2.hasNext()) {
-            tmp = child2.next();
-            Field field = tmp.getField(joinPredicate.getField2());
-            if (!table.containsKey(field))
+            if (spilledJoin == null && child2.hasNext()) {
+                probeTuple = child2.next();
+                Field field = probeTuple.getField(joinPredicate.getField2());
+                Partition part = partitions[partition(field)];
+                if (part.table == null) {
+                    part.probe.add(probeTuple);
+                } else {
+                    ArrayList<Tuple> arrayList = part.table.get(field);
+                    if (arrayList != null)
+                        listIt = arrayList.iterator();
+                }
                 continue;
-            ArrayList<Tuple> arrayList = table.get(field);
-            listIt = arrayList.iterator();
-            while (listIt.hasNext()){
-                Tuple tuple = listIt.next();
-                if (!joinPredicate.filter(tuple, tmp))
-                    continue;
-                Tuple t = new Tuple(TupleDesc.merge(tuple.getTupleDesc(), tmp.getTupleDesc()));
-                for (int i = 0; i < tuple.getTupleDesc().numFields(); i++)
-                    t.setField(i, tuple.getField(i));
-                for (int i = 0; i < tmp.getTupleDesc().numFields(); i++)
-                    t.setField(i + tuple.getTupleDesc().numFields(), tmp.getField(i));
-                return t;
             }
+            if (spilledJoin != null) {
+                if (spilledJoin.hasNext())
+                    return spilledJoin.next();
+                spilledJoin.close();
+                spilledJoin = null;
+            }
+            if (!nextSpilledJoin())
+                return null;
         }
-        return null;
     }
 
     @Override
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashSemiJoin returns the tuples of its left (outer) child that match some
+ * tuple of its right (inner) child, or, as an anti-join, those that match
+ * none; each outer tuple is returned at most once, unchanged. It evaluates
+ * IN and EXISTS subqueries (semi-join) and NOT IN and NOT EXISTS subqueries
+ * (anti-join), with the subquery as the inner child.
+ * <p>
+ * The inner child is read once, when the join is opened. For an equality the
+ * distinct inner join values are held in a hash set, so each outer tuple
+ * costs a single probe; for other predicates the inner tuples are held in a
+ * list that each outer tuple scans until its first match. Either is held in
+ * memory whatever its size. A semi-join also pushes a {@link RuntimeFilter}
+ * of the inner values down to its outer side.
+ */
+public class HashSemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate joinPredicate;
+    private final boolean anti;
+    private DbIterator child1, child2;
+
+    private transient HashSet<Field> values;
+    private transient ArrayList<Tuple> inner;
+    private transient CompiledJoinPredicate compiled;
+    private transient RuntimeFilter runtimeFilter;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            the predicate an outer tuple and an inner tuple match on
+     * @param child1
+     *            the outer relation, whose tuples are returned
+     * @param child2
+     *            the inner relation
+     * @param anti
+     *            true to return the outer tuples that match no inner tuple,
+     *            false for those that match some
+     */
+    public HashSemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean anti) {
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return true for an anti-join, false for a semi-join
+     */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    /**
+     * @return the TupleDesc of the outer child; the inner tuples are only
+     *         matched, not returned
+     */
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    private boolean hashed() {
+        return joinPredicate.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child2.open();
+        if (!anti && hashed())
+            runtimeFilter = RuntimeFilter.push(child1, joinPredicate.getField1());
+        if (hashed()) {
+            values = new HashSet<Field>();
+            while (child2.hasNext())
+                values.add(child2.next().getField(joinPredicate.getField2()));
+        } else {
+            inner = new ArrayList<Tuple>();
+            while (child2.hasNext())
+                inner.add(child2.next());
+            compiled = new CompiledJoinPredicate(joinPredicate, child1.getTupleDesc(),
+                    child2.getTupleDesc());
+        }
+        if (runtimeFilter != null) {
+            BloomFilter bloom = new BloomFilter(values.size());
+            for (Field f : values)
+                bloom.add(f);
+            runtimeFilter.setBloomFilter(bloom);
+        }
+        child1.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        values = null;
+        inner = null;
+        if (compiled != null)
+            compiled.flushStatistics();
+        compiled = null;
+        if (runtimeFilter != null)
+            runtimeFilter.detach();
+        runtimeFilter = null;
+    }
+
+    /**
+     * Rewinds the outer child only; the inner values are reused.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+    }
+
+    /**
+     * @return true if the outer tuple matches some inner tuple, stopping at
+     *         the first match
+     */
+    private boolean matches(Tuple t) {
+        if (values != null)
+            return values.contains(t.getField(joinPredicate.getField1()));
+        for (Tuple u : inner) {
+            if (compiled.filter(t, u))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next outer tuple that matches some inner tuple, or for an
+     * anti-join none.
+     *
+     * @return the next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
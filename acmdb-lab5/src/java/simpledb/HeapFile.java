@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -17,6 +21,7 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    private final Dictionary dictionary;
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -25,9 +30,135 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages store
+     * the fields encoded by the given dictionary as codes.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param dictionary
+     *            the dictionary of the file, or null if no field is encoded
+     */
+    public HeapFile(File f, TupleDesc td, Dictionary dictionary) {
         file = f;
         tupleDesc = td;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the dictionary of this file, or null if no field is encoded
+     */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Opens the dictionary of a heap file whose fields are encoded, encoding
+     * the file first if it has no dictionary yet. The file must not be in use.
+     * <p>
+     * Encoding writes the encoded pages and the dictionary to temporary files
+     * and installs the dictionary before replacing the file with the encoded
+     * pages, so the dictionary file exists exactly when the encoded pages are
+     * complete. An encoding interrupted before that point is redone from the
+     * unencoded file; one interrupted after it is finished here.
+     * <p>
+     * Encoding packs the tuples into fewer pages, so their RecordIds change;
+     * the indexes of the file must be dropped before it is encoded.
+     *
+     * @see #needsEncoding(File, File)
+     * @param f
+     *            the heap file
+     * @param td
+     *            the schema of the file
+     * @param dictFile
+     *            the file of the dictionary
+     * @param encodedFields
+     *            the indexes of the fields to encode
+     * @return the dictionary of the file
+     */
+    public static Dictionary openDictionary(File f, TupleDesc td, File dictFile, int[] encodedFields)
+            throws IOException, DbException {
+        File tmp = new File(f.getPath() + ".tmp");
+        File dictTmp = new File(dictFile.getPath() + ".tmp");
+        if (dictFile.exists()) {
+            if (tmp.exists())
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+        } else if (needsEncoding(f, dictFile)) {
+            encode(f, tmp, td, new Dictionary(emptyFile(dictTmp), td, encodedFields));
+            Files.move(dictTmp.toPath(), dictFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            tmp.delete();
+            dictTmp.delete();
+        }
+        return new Dictionary(dictFile, td, encodedFields);
+    }
+
+    /**
+     * @return true if {@link #openDictionary} will encode the heap file f,
+     *         which has no dictionary file dictFile yet
+     */
+    public static boolean needsEncoding(File f, File dictFile) {
+        return !dictFile.exists() && f.length() > 0;
+    }
+
+    /**
+     * Truncates or creates a file.
+     *
+     * @return the file
+     */
+    private static File emptyFile(File f) throws IOException {
+        new FileOutputStream(f).close();
+        return f;
+    }
+
+    /**
+     * Writes the tuples of a heap file with no encoded fields to another file,
+     * with the fields encoded by dict stored as codes, and syncs both that
+     * file and the file of dict to disk.
+     */
+    private static void encode(File f, File to, TupleDesc td, Dictionary dict) throws IOException, DbException {
+        int pageSize = BufferPool.getPageSize();
+        int pages = (int) (f.length() / pageSize);
+        HeapPageId pid = new HeapPageId(0, 0);
+        byte[] data = new byte[pageSize];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        FileOutputStream fos = new FileOutputStream(to);
+        OutputStream out = new BufferedOutputStream(fos);
+        try {
+            HeapPage encoded = new HeapPage(pid, HeapPage.createEmptyPageData(), td, dict);
+            for (int i = 0; i < pages; i++) {
+                in.readFully(data);
+                Iterator<Tuple> it = new HeapPage(pid, data, td, null).iterator();
+                while (it.hasNext()) {
+                    if (encoded.getNumEmptySlots() == 0) {
+                        out.write(encoded.getPageData());
+                        encoded = new HeapPage(pid, HeapPage.createEmptyPageData(), td, dict);
+                    }
+                    encoded.insertTuple(it.next());
+                }
+            }
+            if (encoded.getNumEmptySlots() < encoded.numSlots)
+                out.write(encoded.getPageData());
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            in.close();
+            out.close();
+            dict.close();
+        }
+        FileChannel ch = FileChannel.open(dict.getFile().toPath(), StandardOpenOption.WRITE);
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
     }
 
     /**
@@ -78,7 +209,7 @@ public class HeapFile implements DbFile {
             byte[] content = new byte[BufferPool.getPageSize()];
             randomAccessFile.read(content);
             randomAccessFile.close();
-            return new HeapPage((HeapPageId)pid, content);
+            return new HeapPage((HeapPageId)pid, content, tupleDesc, dictionary);
         } catch (Exception e) {
             throw new IllegalArgumentException("No such a Page!");
         }
@@ -118,7 +249,8 @@ public class HeapFile implements DbFile {
                 return dirtyPages;
             }
         }
-        HeapPage heapPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+        HeapPage heapPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData(),
+                tupleDesc, dictionary);
         heapPage.insertTuple(t);
         writePage(heapPage);
         dirtyPages.add(heapPage);
@@ -140,11 +272,56 @@ public class HeapFile implements DbFile {
 
     public class HeapFileIterator implements DbFileIterator {
         private TransactionId tid;
+        private int firstPage, endPage;
+        private Predicate[] predicates;
+        private List<RuntimeFilter> runtimeFilters;
+        private int[] columns;
+        private TupleDesc projected;
         private int pageCnt;
         private Iterator<Tuple> iter;
 
         public HeapFileIterator(TransactionId tid) {
+            this(tid, 0, -1);
+        }
+
+        /**
+         * Iterates over the pages in [firstPage, endPage) only; an endPage of
+         * -1 stands for the end of the file.
+         */
+        public HeapFileIterator(TransactionId tid, int firstPage, int endPage) {
+            this(tid, firstPage, endPage, new Predicate[0], null,
+                    Collections.<RuntimeFilter>emptyList());
+        }
+
+        /**
+         * Iterates over the tuples on the pages in [firstPage, endPage) that
+         * pass all of the predicates and of the runtime filters in the list
+         * when the page is read, holding only the given columns, or every
+         * column if columns is null.
+         */
+        public HeapFileIterator(TransactionId tid, int firstPage, int endPage,
+                Predicate[] predicates, int[] columns, List<RuntimeFilter> runtimeFilters) {
             this.tid = tid;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.predicates = predicates;
+            this.runtimeFilters = runtimeFilters;
+            this.columns = columns;
+            this.projected = columns == null ? null : tupleDesc.project(columns);
+        }
+
+        private Iterator<Tuple> pageIterator(int pgNo)
+                throws DbException, TransactionAbortedException {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            RuntimeFilter[] filters = runtimeFilters.toArray(new RuntimeFilter[0]);
+            if (predicates.length == 0 && columns == null && filters.length == 0)
+                return page.iterator();
+            return page.iterator(predicates, filters, columns, projected);
+        }
+
+        private int endPage() {
+            return endPage < 0 ? numPages() : Math.min(endPage, numPages());
         }
 
         public boolean hasNext() throws DbException, TransactionAbortedException{
@@ -153,12 +330,11 @@ public class HeapFile implements DbFile {
             while (!iter.hasNext())
             {
                 ++pageCnt;
-                if (pageCnt >= numPages())
+                if (pageCnt >= endPage())
                 {
                     return false;
                 }
-                iter = ((HeapPage) Database.getBufferPool().getPage(
-                        tid, new HeapPageId(getId(), pageCnt), Permissions.READ_WRITE)).iterator();
+                iter = pageIterator(pageCnt);
             }
             return true;
         }
@@ -178,9 +354,12 @@ public class HeapFile implements DbFile {
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            pageCnt = 0;
-            iter = ((HeapPage) Database.getBufferPool().getPage(tid,
-                    new HeapPageId(getId(), 0), Permissions.READ_WRITE)).iterator();
+            pageCnt = firstPage;
+            if (endPage >= 0 && firstPage >= endPage()) {
+                iter = Collections.<Tuple>emptyList().iterator();
+                return;
+            }
+            iter = pageIterator(firstPage);
         }
         @Override
         public void close() {
@@ -199,5 +378,85 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid);
     }
 
+    /**
+     * Returns an iterator over the tuples on pages firstPage (inclusive)
+     * through endPage (exclusive) of this file. Parallel scans give each
+     * worker its own range of pages.
+     *
+     * @param tid
+     *            the transaction the pages are read as a part of
+     * @param firstPage
+     *            the first page to read
+     * @param endPage
+     *            the page after the last one to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        if (firstPage < 0 || endPage < firstPage)
+            throw new IllegalArgumentException("bad page range " + firstPage + "-" + endPage);
+        return new HeapFileIterator(tid, firstPage, endPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that pass all of the
+     * given predicates, holding only the given columns. The predicates are
+     * evaluated on each page before any tuple is built (see
+     * {@link HeapPage#iterator(Predicate[], int[], TupleDesc)}).
+     *
+     * @param tid
+     *            the transaction the pages are read as a part of
+     * @param predicates
+     *            predicates on the fields of this file's tuples
+     * @param columns
+     *            the indexes of the fields to return, in order, or null for
+     *            all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] columns) {
+        return iterator(tid, 0, -1, predicates, columns);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that pass all of the
+     * given predicates, and the runtime filters in the given list when each
+     * page is read, holding only the given columns.
+     *
+     * @see #iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] columns,
+            List<RuntimeFilter> runtimeFilters) {
+        return iterator(tid, 0, -1, predicates, columns, runtimeFilters);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages firstPage (inclusive)
+     * through endPage (exclusive, or -1 for the end of the file) that pass
+     * all of the given predicates, holding only the given columns.
+     *
+     * @see #iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage,
+            List<Predicate> predicates, int[] columns) {
+        return iterator(tid, firstPage, endPage, predicates, columns,
+                Collections.<RuntimeFilter>emptyList());
+    }
+
+    private DbFileIterator iterator(TransactionId tid, int firstPage, int endPage,
+            List<Predicate> predicates, int[] columns, List<RuntimeFilter> runtimeFilters) {
+        if (firstPage < 0 || (endPage >= 0 && endPage < firstPage))
+            throw new IllegalArgumentException("bad page range " + firstPage + "-" + endPage);
+        for (Predicate p : predicates) {
+            if (p.getField() < 0 || p.getField() >= tupleDesc.numFields())
+                throw new IllegalArgumentException("no field " + p.getField() + " to filter on");
+        }
+        if (columns != null) {
+            for (int c : columns) {
+                if (c < 0 || c >= tupleDesc.numFields())
+                    throw new IllegalArgumentException("no field " + c + " to project");
+            }
+            columns = columns.clone();
+        }
+        return new HeapFileIterator(tid, firstPage, endPage,
+                predicates.toArray(new Predicate[0]), columns, runtimeFilters);
+    }
+
 }
 
@@ -15,6 +15,10 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
+    /* the encoding of the file's STRING fields, or null if none are encoded */
+    final Dictionary dictionary;
+    /* the number of bytes of a tuple on the page */
+    private final int tupleSize;
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
@@ -22,6 +26,10 @@ public class HeapPage implements Page {
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
+    /* the values of the INT fields and the RecordIds by slot, built by the first batch scan */
+    private volatile int[][] intColumns;
+    private volatile RecordId[] recordIds;
+
     private boolean dirty = false;
     private TransactionId transaction = null;
 
@@ -37,13 +45,27 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * Dictionary encoded fields take 4 bytes, the size of their code.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                dictionaryOf(id.getTableId()));
+    }
+
+    /**
+     * Creates a HeapPage of tuples of the given schema and encoding from a
+     * set of bytes, without looking the table up in the Catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td, Dictionary dictionary) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.dictionary = dictionary;
+        this.tupleSize = dictionary == null ? td.getSize() : dictionary.getSize(td);
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -70,7 +92,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1.0));
+        return (int) Math.floor((BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1.0));
     }
 
     /**
@@ -93,7 +115,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid, oldDataRef, td, dictionary);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -124,7 +146,7 @@ public class HeapPage implements Page {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            for (int i=0; i<tupleSize; i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -140,9 +162,20 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    t.setInt(j, dis.readInt());
+                    continue;
+                }
+                if (dictionary != null && dictionary.isEncoded(j)) {
+                    t.setField(j, dictionary.getField(j, dis.readInt()));
+                    continue;
+                }
                 Field f = td.getFieldType(j).parse(dis);
                 t.setField(j, f);
             }
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
@@ -182,7 +215,7 @@ public class HeapPage implements Page {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<tupleSize; j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -195,10 +228,13 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        dos.writeInt(tuples[i].getInt(j));
+                    else if (dictionary != null && dictionary.isEncoded(j))
+                        dos.writeInt(((DictionaryField) tuples[i].getField(j)).getCode());
+                    else
+                        tuples[i].getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -206,7 +242,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + tupleSize * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -253,6 +289,7 @@ public class HeapPage implements Page {
             throw new DbException("Tuple doesn't exist");
         markSlotUsed(t.getRecordId().tupleno(), false);
         tuples[t.getRecordId().tupleno()] = null;
+        intColumns = null;
     }
 
     /**
@@ -269,15 +306,45 @@ public class HeapPage implements Page {
             throw new DbException("TupleDesc do not match");
         if (getNumEmptySlots() == 0)
             throw new DbException("Page is full");
+        if (dictionary != null)
+            encode(t);
         for (int i = 0; i < numSlots; i++)
             if (!isSlotUsed(i)) {
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
                 tuples[i] = t;
+                intColumns = null;
                 return;
             }
     }
 
+    /**
+     * Replaces the values of the encoded fields of t by the DictionaryFields
+     * of their codes, encoding the values new to the dictionary.
+     */
+    private void encode(Tuple t) throws DbException {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!dictionary.isEncoded(j))
+                continue;
+            Field f = t.getField(j);
+            if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == dictionary
+                    && ((DictionaryField) f).getEncodedField() == j)
+                continue;
+            if (!(f instanceof StringField))
+                throw new DbException("field " + j + " is not a string");
+            int code = dictionary.encode(j, ((StringField) f).getValue());
+            t.setField(j, dictionary.getField(j, code));
+        }
+    }
+
+    /**
+     * @return the dictionary of a HeapFile in the Catalog, or null
+     */
+    private static Dictionary dictionaryOf(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof HeapFile ? ((HeapFile) f).getDictionary() : null;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -324,6 +391,61 @@ public class HeapPage implements Page {
         return ((header[i / 8] >> (i % 8)) & 1) == 1;
     }
 
+    /**
+     * Returns the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuples[i];
+    }
+
+    /**
+     * Returns the values of the INT fields of the tuples on this page, by
+     * field and then by slot, and the codes of dictionary encoded fields,
+     * with null for fields of other types; the values of empty slots are
+     * unspecified. The arrays are built on the
+     * first call and kept until a tuple is inserted or deleted, so batch
+     * scans copy primitive values instead of unboxing every field.
+     */
+    int[][] intColumns() {
+        int[][] columns = intColumns;
+        if (columns == null) {
+            columns = new int[td.numFields()][];
+            RecordId[] rids = new RecordId[numSlots];
+            for (int j = 0; j < columns.length; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE
+                        || (dictionary != null && dictionary.isEncoded(j)))
+                    columns[j] = new int[numSlots];
+            }
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] == null)
+                    continue;
+                rids[i] = tuples[i].getRecordId();
+                for (int j = 0; j < columns.length; j++) {
+                    if (columns[j] == null)
+                        continue;
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        columns[j][i] = tuples[i].getInt(j);
+                    else
+                        columns[j][i] = ((DictionaryField) tuples[i].getField(j)).getCode();
+                }
+            }
+            recordIds = rids;
+            intColumns = columns;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the RecordIds of the tuples on this page by slot, null for
+     * empty slots, kept along with {@link #intColumns()}.
+     */
+    RecordId[] recordIds() {
+        intColumns();
+        return recordIds;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -349,5 +471,84 @@ public class HeapPage implements Page {
         return tmp.iterator();
     }
 
-}
+    /**
+     * Returns an iterator over the tuples on this page that pass all of the
+     * given predicates, holding only the given fields. Predicates on INT
+     * fields with INT operands are evaluated on the page's column arrays
+     * (see {@link #intColumns()}) without touching the tuples, as are
+     * equalities on dictionary encoded fields, on the codes; a Tuple is only
+     * built for the rows that pass.
+     *
+     * @param predicates
+     *            predicates on the fields of this page's tuples
+     * @param columns
+     *            the fields to keep, in order, or null to return the tuples of
+     *            the page themselves
+     * @param projected
+     *            the TupleDesc of the returned tuples
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns, TupleDesc projected) {
+        return iterator(predicates, new RuntimeFilter[0], columns, projected);
+    }
 
+    /**
+     * Returns an iterator over the tuples on this page that pass all of the
+     * given predicates and runtime filters, holding only the given fields.
+     * Runtime filters on INT fields test the page's column arrays too.
+     *
+     * @see #iterator(Predicate[], int[], TupleDesc)
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, RuntimeFilter[] filters,
+            int[] columns, TupleDesc projected) {
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        }
+        int[][] ints = predicates.length > 0 || filters.length > 0 ? intColumns() : null;
+        for (int j = 0; j < predicates.length && n > 0; j++) {
+            Predicate p = predicates[j];
+            int f = p.getField();
+            if (ints[f] != null && p.getOperand() instanceof IntField) {
+                n = BatchFilter.select(ints[f], p.getOp(),
+                        ((IntField) p.getOperand()).getValue(), slots, n);
+            } else if (ints[f] != null && p.getOperand() instanceof StringField
+                    && (p.getOp() == Predicate.Op.EQUALS || p.getOp() == Predicate.Op.NOT_EQUALS)) {
+                int code = dictionary.lookup(f, ((StringField) p.getOperand()).getValue());
+                if (code >= 0)
+                    n = BatchFilter.select(ints[f], p.getOp(), code, slots, n);
+                else if (p.getOp() == Predicate.Op.EQUALS)
+                    n = 0; // a value without a code is on no page
+            } else {
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    if (tuples[slots[i]].getField(f).compare(p.getOp(), p.getOperand()))
+                        slots[k++] = slots[i];
+                }
+                n = k;
+            }
+        }
+        for (int j = 0; j < filters.length && n > 0; j++) {
+            int f = filters[j].getField();
+            if (td.getFieldType(f) == Type.INT_TYPE)
+                n = filters[j].select(ints[f], slots, n);
+            else
+                n = filters[j].select(tuples, slots, n);
+        }
+        ArrayList<Tuple> tmp = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Tuple t = tuples[slots[i]];
+            if (columns != null) {
+                Tuple p = new Tuple(projected);
+                for (int j = 0; j < columns.length; j++)
+                    p.setField(j, t.getField(columns[j]));
+                p.setRecordId(t.getRecordId());
+                t = p;
+            }
+            tmp.add(t);
+        }
+        return tmp.iterator();
+    }
+
+}
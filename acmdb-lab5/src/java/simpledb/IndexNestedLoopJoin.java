@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer child with an inner table stored in a
+ * BTreeFile keyed on the inner join field. Instead of rescanning the inner
+ * relation for every outer tuple (as Join does), it probes the B+ tree with an
+ * IndexPredicate built from the outer tuple's join value, so each outer tuple
+ * costs one root-to-leaf descent plus the matching leaf pages.
+ * <p>
+ * The inner child must be a SeqScan or BTreeScan over such a table, optionally
+ * wrapped in Filters; see {@link #canProbe}. Any filters (and the inner scan's
+ * own index predicate) are applied to the probed tuples, so the result is the
+ * same as joining with the inner child itself.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate joinPredicate;
+    private DbIterator child1, child2;
+
+    private TransactionId tid;
+    private BTreeFile innerFile;
+    private IndexPredicate innerPred;
+    private ArrayList<Predicate> innerFilters;
+    private Predicate.Op probeOp;
+
+    private transient CompiledPredicate innerTest;
+    private transient CompiledJoinPredicate joinTest;
+    private transient TupleDesc td;
+
+    private Tuple outer;
+    private DbFileIterator probe;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join; must be
+     *            accepted by {@link #canProbe}
+     * @throws IllegalArgumentException
+     *             if the inner child cannot be probed through an index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("inner child of an index join must be a scan of a B+ tree keyed on the join field");
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probeOp = flip(p.getOperator());
+
+        innerFilters = new ArrayList<Predicate>();
+        DbIterator it = child2;
+        while (it instanceof Filter) {
+            innerFilters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        int tableid;
+        if (it instanceof BTreeScan) {
+            BTreeScan s = (BTreeScan) it;
+            tid = s.getTransactionId();
+            tableid = s.getTableId();
+            innerPred = s.getIndexPredicate();
+        } else {
+            SeqScan s = (SeqScan) it;
+            tid = s.getTransactionId();
+            tableid = s.getTableId();
+            innerFilters.addAll(s.getPredicates());
+        }
+        innerFile = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+    }
+
+    /**
+     * Returns true if child can be the inner relation of an index join on p:
+     * it is a SeqScan of all the columns or a BTreeScan, possibly below a
+     * chain of Filters, of a BTreeFile whose key field is the second field of
+     * p, and p's operator can be answered by an index range scan (i.e., it is
+     * not NOT_EQUALS or LIKE).
+     */
+    public static boolean canProbe(JoinPredicate p, DbIterator child) {
+        if (flip(p.getOperator()) == null)
+            return false;
+        while (child instanceof Filter)
+            child = ((Filter) child).getChildren()[0];
+        int tableid;
+        if (child instanceof BTreeScan)
+            tableid = ((BTreeScan) child).getTableId();
+        else if (child instanceof SeqScan && ((SeqScan) child).getColumns() == null)
+            tableid = ((SeqScan) child).getTableId();
+        else
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2();
+    }
+
+    /**
+     * Rewrites "outer op inner" as "inner op' outer", the form an index
+     * predicate on the inner key needs. Returns null for operators that an
+     * index cannot answer.
+     */
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        innerTest = new CompiledPredicate(innerFilters, child2.getTupleDesc());
+        joinTest = new CompiledJoinPredicate(joinPredicate, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        td = getTupleDesc();
+        outer = null;
+        probe = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (probe != null)
+            probe.close();
+        probe = null;
+        outer = null;
+        if (innerTest != null) {
+            innerTest.flushStatistics();
+            joinTest.flushStatistics();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (probe != null)
+            probe.close();
+        probe = null;
+        outer = null;
+    }
+
+    private boolean matchesInner(Tuple t) {
+        if (innerPred != null && !t.getField(innerFile.keyField()).compare(
+                innerPred.getOp(), innerPred.getField()))
+            return false;
+        return innerTest.filter(t);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: for each outer tuple, the B+ tree is probed for the inner
+     * tuples whose key satisfies the join predicate against it, and the
+     * concatenation of each matching pair is returned.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe == null) {
+                if (!child1.hasNext())
+                    return null;
+                outer = child1.next();
+                probe = innerFile.indexIterator(tid, new IndexPredicate(probeOp,
+                        outer.getField(joinPredicate.getField1())));
+                probe.open();
+            }
+            while (probe.hasNext()) {
+                Tuple inner = probe.next();
+                if (!matchesInner(inner) || !joinTest.filter(outer, inner))
+                    continue;
+                return Tuple.merge(td, outer, inner);
+            }
+            probe.close();
+            probe = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -1,26 +1,44 @@
 package simpledb;
 
-import java.util.HashMap;
+import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group has one slot in a set of primitive arrays: a long accumulator
+ * (the sum for SUM and AVG, the extreme value for MIN and MAX) and a long
+ * count. Groups are numbered in the order they are first seen. INT group
+ * values are numbered by a {@link LongGroupTable}, so merging a tuple
+ * allocates nothing; other group types go through a
+ * HashMap from the group value to its number. Without grouping there is a
+ * single pair of accumulators. Result tuples are only created while the
+ * iterator returned by {@link #iterator()} is read.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_GROUPS = 16;
+
     private int gbfield, afield;
     private Type gbfieldtype;
     private Op what;
 
-    private HashMap<Field, Integer> sum, max, min, cnt, avg;
-    private HashMap<Field, Tuple> ans;
-
     TupleDesc tupleDesc;
 
+    /* per-group accumulators, indexed by group number */
+    private int numGroups;
+    private long[] acc;
+    private long[] cnt;
+
+    /* group values: intGroups for INT grouping, keys for the other types */
+    private LongGroupTable intGroups;
+    private Field[] keys;
+    private HashMap<Field, Integer> groupOf;
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -31,10 +49,14 @@ public class IntegerAggregator implements Aggregator {
      *            the 0-based index of the aggregate field in the tuple
      * @param what
      *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if what is SUM_COUNT or SC_AVG, which are not supported
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + what);
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
@@ -43,95 +65,102 @@ public class IntegerAggregator implements Aggregator {
             this.tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
         else
             this.tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
-        sum = new HashMap<Field, Integer>();
-        max = new HashMap<Field, Integer>();
-        min = new HashMap<Field, Integer>();
-        cnt = new HashMap<Field, Integer>();
-        avg = new HashMap<Field, Integer>();
 
-        ans = new HashMap<Field, Tuple>();
+        int capacity = gbfield == NO_GROUPING ? 1 : INITIAL_GROUPS;
+        acc = new long[capacity];
+        cnt = new long[capacity];
+        if (gbfield != NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE) {
+                intGroups = new LongGroupTable(capacity);
+            } else {
+                keys = new Field[capacity];
+                groupOf = new HashMap<Field, Integer>();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the group with the given value, adding the group
+     * if it is new.
+     */
+    private int fieldGroup(Field key) {
+        Integer g = groupOf.get(key);
+        if (g != null)
+            return g;
+        int n = newGroup();
+        keys[n] = key;
+        groupOf.put(key, n);
+        return n;
+    }
+
+    private int newGroup() {
+        if (numGroups == acc.length) {
+            int capacity = 2 * acc.length;
+            acc = Arrays.copyOf(acc, capacity);
+            cnt = Arrays.copyOf(cnt, capacity);
+            if (keys != null)
+                keys = Arrays.copyOf(keys, capacity);
+        }
+        return numGroups++;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field field = null;
-        if (gbfield != NO_GROUPING)
-            field = tup.getField(gbfield);
-        int tmp = ((IntField)tup.getField(afield)).getValue();
-        if (!sum.containsKey(field))
-            sum.put(field,0);
-        if (!max.containsKey(field))
-            max.put(field,tmp);
-        if (!min.containsKey(field))
-            min.put(field,tmp);
-        if (!cnt.containsKey(field))
-            cnt.put(field,0);
-        if (!avg.containsKey(field))
-            avg.put(field,0);
-        sum.put(field, sum.get(field) + tmp);
-        max.put(field, Math.max(max.get(field), tmp));
-        min.put(field, Math.min(min.get(field), tmp));
-        cnt.put(field, cnt.get(field) + 1);
-        avg.put(field, sum.get(field) / cnt.get(field));
-
+        int g;
         if (gbfield == NO_GROUPING) {
-            Tuple tuple = new Tuple(tupleDesc);
-            switch (what) {
-                case SUM:
-                    tuple.setField(0, new IntField(sum.get(field)));
-                    break;
-                case MAX:
-                    tuple.setField(0, new IntField(max.get(field)));
-                    break;
-                case MIN:
-                    tuple.setField(0, new IntField(min.get(field)));
-                    break;
-                case AVG:
-                    tuple.setField(0, new IntField(avg.get(field)));
-                    break;
-                case COUNT:
-                    tuple.setField(0, new IntField(cnt.get(field)));
-                    break;
-                default:
-                    break;
-            }
-            ans.put(field, tuple);
+            g = 0;
+            numGroups = 1;
+        } else if (intGroups != null) {
+            g = intGroups.findOrAdd(tup.getInt(gbfield));
+            if (g == numGroups)
+                newGroup();
         } else {
-            Tuple tuple = new Tuple(tupleDesc);
-            tuple.setField(0, field);
-            switch (what) {
-                case SUM:
-                    tuple.setField(1, new IntField(sum.get(field)));
-                    break;
-                case MAX:
-                    tuple.setField(1, new IntField(max.get(field)));
-                    break;
-                case MIN:
-                    tuple.setField(1, new IntField(min.get(field)));
-                    break;
-                case AVG:
-                    tuple.setField(1, new IntField(avg.get(field)));
-                    break;
-                case COUNT:
-                    tuple.setField(1, new IntField(cnt.get(field)));
-                    break;
-                default:
-                    break;
-            }
-            ans.put(field, tuple);
+            g = fieldGroup(tup.getField(gbfield));
+        }
+        int value = tup.getInt(afield);
+        long n = cnt[g]++;
+        switch (what) {
+            case MIN:
+                if (n == 0 || value < acc[g])
+                    acc[g] = value;
+                break;
+            case MAX:
+                if (n == 0 || value > acc[g])
+                    acc[g] = value;
+                break;
+            case SUM:
+            case AVG:
+                acc[g] += value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the aggregate value of group g
+     */
+    private int result(int g) {
+        switch (what) {
+            case COUNT:
+                return (int) cnt[g];
+            case AVG:
+                return (int) (acc[g] / cnt[g]);
+            default:
+                return (int) acc[g];
         }
     }
 
     /**
      * Create a DbIterator over group aggregate results.
-     * 
+     *
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
@@ -139,7 +168,52 @@ public class IntegerAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        return new TupleIterator(tupleDesc, ans.values());
+        return new GroupIterator();
+    }
+
+    /**
+     * Iterates over the groups in the order they were first seen, building
+     * each result tuple from the accumulators as it is returned.
+     */
+    private class GroupIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private int next = -1;
+
+        public void open() {
+            next = 0;
+        }
+
+        public boolean hasNext() {
+            return next >= 0 && next < numGroups;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int g = next++;
+            Tuple tuple = new Tuple(tupleDesc);
+            if (gbfield == NO_GROUPING) {
+                tuple.setField(0, new IntField(result(g)));
+            } else {
+                tuple.setField(0, intGroups != null ? new IntField((int) intGroups.key(g)) : keys[g]);
+                tuple.setField(1, new IntField(result(g)));
+            }
+            return tuple;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return tupleDesc;
+        }
+
+        public void close() {
+            next = -1;
+        }
     }
 
 }
@@ -9,6 +9,8 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate joinPredicate;
+    private transient CompiledJoinPredicate compiled;
+    private transient TupleDesc td;
     private DbIterator child1, child2;
 
     /**
@@ -69,6 +71,9 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        compiled = new CompiledJoinPredicate(joinPredicate, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        td = getTupleDesc();
     }
 
     public void close() {
@@ -76,6 +81,8 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        if (compiled != null)
+            compiled.flushStatistics();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -115,13 +122,8 @@ public class Join extends Operator {
         while (true) {
             while (child2.hasNext()) {
                 tuple2 = child2.next();
-                if (joinPredicate.filter(tuple1, tuple2)){
-                    Tuple tuple = new Tuple(TupleDesc.merge(tuple1.getTupleDesc(), tuple2.getTupleDesc()));
-                    for (int i = 0; i < tuple1.getTupleDesc().numFields(); i++)
-                        tuple.setField(i, tuple1.getField(i));
-                    for (int i = 0; i < tuple2.getTupleDesc().numFields(); i++)
-                        tuple.setField(i + tuple1.getTupleDesc().numFields(), tuple2.getField(i));
-                    return tuple;
+                if (compiled.filter(tuple1, tuple2)){
+                    return Tuple.merge(td, tuple1, tuple2);
                 }
             }
             if (!child1.hasNext())
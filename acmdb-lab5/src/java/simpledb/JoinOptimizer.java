@@ -13,6 +13,8 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    private double planCost;
+    private int planCard;
 
     /**
      * Constructor
@@ -27,6 +29,75 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * The physical join operators the optimizer can choose between for a
+     * join node.
+     */
+    public enum JoinAlgorithm {
+        /** {@link Join}: rescans the inner child for every outer tuple */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: rescans the inner child once per block of outer tuples */
+        BLOCK_NESTED_LOOP,
+        /** {@link HashEquiJoin}: builds a hash table on the outer (left) child */
+        HASH,
+        /** {@link IndexNestedLoopJoin}: probes the inner table's B+ tree */
+        INDEX_NESTED_LOOP,
+        /** {@link SortMergeJoin}: merges both children sorted on the join fields */
+        SORT_MERGE,
+        /** {@link ParallelHashJoin}: builds and probes in-memory hash tables with several workers */
+        PARALLEL_HASH
+    }
+
+    /**
+     * Relative CPU cost of inserting a tuple into a hash table, compared to a
+     * single predicate application (or hash table probe) costing 1.
+     */
+    static final double HASH_BUILD_COST = 1.5;
+
+    /**
+     * Relative cost of writing a tuple to a spill file and reading it back,
+     * paid by a hash join for the tuples of partitions that do not fit in
+     * memory.
+     */
+    static final double SPILL_COST = 2.0;
+
+    /**
+     * Fraction of the left-hand tuples a semi-join is assumed to return when
+     * its left-hand join field is not a key.
+     */
+    static final double SEMI_JOIN_SELECTIVITY = 0.5;
+
+    /**
+     * Relative cost per tuple and per merge level of sorting an input that is
+     * not already in join field order.
+     */
+    static final double SORT_COST = 1.0;
+
+    /**
+     * Cost of starting the workers of a parallel join, so that joins of a
+     * few tuples stay on a single thread.
+     */
+    static final double PARALLEL_STARTUP_COST = 1000.0;
+
+    private static int joinMemoryPages = BlockNestedLoopJoin.DEFAULT_MEMORY_PAGES;
+
+    /**
+     * Sets the memory budget, in pages, that join operators which buffer
+     * their input are planned and instantiated with.
+     */
+    public static void setJoinMemoryPages(int pages) {
+        if (pages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        joinMemoryPages = pages;
+    }
+
+    /**
+     * @return the memory budget, in pages, of buffering join operators
+     */
+    public static int getJoinMemoryPages() {
+        return joinMemoryPages;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -34,6 +105,17 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The operator instantiated is the one {@link #orderJoins} chose for lj
+     * (see {@link LogicalJoinNode#algorithm}). If lj has not been costed, an
+     * index join is used when plan2 can be probed, a hash join for other
+     * equality joins, and a block nested-loops join otherwise. Children of a
+     * merge join that are not already sorted on their join field (see
+     * {@link SortMergeJoin#isSortedOn}) are sorted with an OrderBy. A join
+     * with a subquery is a {@link HashSemiJoin} for IN and EXISTS subqueries
+     * and their negations, and a nested-loops {@link Join} otherwise. The
+     * build sides of hash joins and semi-joins, and the inputs of sorts, go
+     * through {@link AsyncBuffer#wrap}.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +150,55 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj instanceof LogicalSubplanJoinNode) {
+            LogicalSubplanJoinNode.JoinType type = ((LogicalSubplanJoinNode) lj).type;
+            if (type == LogicalSubplanJoinNode.JoinType.INNER)
+                return new Join(p, plan1, plan2);
+            return new HashSemiJoin(p, plan1, AsyncBuffer.wrap(plan2),
+                    type == LogicalSubplanJoinNode.JoinType.ANTI);
+        }
+
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == null) {
+            if (IndexNestedLoopJoin.canProbe(p, plan2))
+                algorithm = JoinAlgorithm.INDEX_NESTED_LOOP;
+            else if (lj.p == Predicate.Op.EQUALS)
+                algorithm = JoinAlgorithm.HASH;
+            else
+                algorithm = JoinAlgorithm.BLOCK_NESTED_LOOP;
+        }
+
+        switch (algorithm) {
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2, joinMemoryPages);
+            break;
+        case HASH:
+            j = new HashEquiJoin(p, AsyncBuffer.wrap(plan1), plan2, joinMemoryPages);
+            break;
+        case PARALLEL_HASH:
+            j = new ParallelHashJoin(p, plan1, plan2, LogicalPlan.getScanWorkers());
+            break;
+        case SORT_MERGE:
+            if (SortMergeJoin.canMerge(lj.p)) {
+                if (!SortMergeJoin.isSortedOn(plan1, t1id))
+                    plan1 = new OrderBy(t1id, true, AsyncBuffer.wrap(plan1));
+                if (!SortMergeJoin.isSortedOn(plan2, t2id))
+                    plan2 = new OrderBy(t2id, true, AsyncBuffer.wrap(plan2));
+                j = new SortMergeJoin(p, plan1, plan2);
+                break;
+            }
+            j = new Join(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOP:
+            if (IndexNestedLoopJoin.canProbe(p, plan2)) {
+                j = new IndexNestedLoopJoin(p, plan1, plan2);
+                break;
+            }
+            // fall through: the planner put something other than a scan of
+            // the indexed table on the inner side
+        default:
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
@@ -82,7 +212,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * This is the cost of the cheapest {@link JoinAlgorithm} that can
+     * evaluate j; see {@link #estimateJoinCost(JoinAlgorithm, LogicalJoinNode,
+     * int, int, double, double)}.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -102,19 +235,249 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        boolean sorted1 = isBaseSortedOn(j.t1Alias, j.f1PureName);
+        boolean sorted2 = isBaseSortedOn(j.t2Alias, j.f2PureName);
+        return estimateJoinCost(chooseJoinAlgorithm(j, card1, card2, cost1,
+                cost2, true, sorted1, sorted2), j, card1, card2, cost1, cost2,
+                sorted1, sorted2);
+    }
+
+    /**
+     * Estimate the cost of evaluating a join with a particular algorithm. The
+     * parameters are as for {@link #estimateJoinCost(LogicalJoinNode, int,
+     * int, double, double)}.
+     * <ul>
+     * <li>NESTED_LOOP scans the right-hand side once per left-hand tuple and
+     * applies the predicate to every pair.</li>
+     * <li>BLOCK_NESTED_LOOP applies the predicate to every pair too, but scans
+     * the right-hand side only once per block of left-hand tuples that fits
+     * in the join memory budget.</li>
+     * <li>HASH scans each side once, inserts every left-hand tuple into a hash
+     * table and probes it once per right-hand tuple, so the left-hand side
+     * should be the smaller one. If the left-hand side does not fit in the
+     * join memory budget, the share of both sides that falls into spilled
+     * partitions is also written out and read back once. Only equality joins
+     * can be hashed.</li>
+     * <li>INDEX_NESTED_LOOP probes the right-hand table's B+ tree once per
+     * left-hand tuple; see {@link #estimateIndexJoinCost}.</li>
+     * <li>SORT_MERGE sorts each side that is not already in join field order
+     * and merges them in a single pass; range joins also visit every pair
+     * they return. Both sides are taken to be base tables here, which are in
+     * order if they are B+ trees keyed on the join field.</li>
+     * <li>PARALLEL_HASH does the work of HASH split between
+     * {@link LogicalPlan#getScanWorkers()} workers, plus a fixed cost for
+     * starting them. It is only considered with more than one worker, and
+     * when the left-hand side fits in the join memory budget.</li>
+     * </ul>
+     * 
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the
+     *         algorithm cannot evaluate j
+     */
+    public double estimateJoinCost(JoinAlgorithm algorithm, LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2) {
+        return estimateJoinCost(algorithm, j, card1, card2, cost1, cost2,
+                isBaseSortedOn(j.t1Alias, j.f1PureName),
+                isBaseSortedOn(j.t2Alias, j.f2PureName));
+    }
+
+    /**
+     * Like {@link #estimateJoinCost(JoinAlgorithm, LogicalJoinNode, int, int,
+     * double, double)}, with the order of the two sides given.
+     * 
+     * @param sorted1
+     *            whether the left-hand side is sorted on its join field
+     * @param sorted2
+     *            whether the right-hand side is sorted on its join field
+     */
+    private double estimateJoinCost(JoinAlgorithm algorithm, LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 5.
-            return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
+            // A LogicalSubplanJoinNode represents a subquery, the right-hand
+            // side. A semi- or anti-join reads it once into a hash table and
+            // probes it once per left-hand tuple; a plain join is a nested
+            // loop that runs it again for every left-hand tuple
+            if (((LogicalSubplanJoinNode) j).type != LogicalSubplanJoinNode.JoinType.INNER)
+                return cost1 + cost2 + HASH_BUILD_COST * card2 + card1;
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+        switch (algorithm) {
+        case BLOCK_NESTED_LOOP:
+            return cost1 + Math.ceil((double) card1 / estimateBlockCapacity(j)) * cost2
+                    + (double) card1 * card2;
+        case HASH:
+            if (j.p != Predicate.Op.EQUALS)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + cost2 + HASH_BUILD_COST * card1 + card2
+                    + estimateSpillCost(j, card1, card2);
+        case PARALLEL_HASH:
+            int workers = LogicalPlan.getScanWorkers();
+            if (j.p != Predicate.Op.EQUALS || workers < 2
+                    || estimateSpillCost(j, card1, card2) > 0)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + cost2 + PARALLEL_STARTUP_COST
+                    + (HASH_BUILD_COST * card1 + card2) / workers;
+        case INDEX_NESTED_LOOP:
+            return estimateIndexJoinCost(j, card1, card2, cost1, cost2);
+        case SORT_MERGE:
+            if (!SortMergeJoin.canMerge(j.p))
+                return Double.POSITIVE_INFINITY;
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!sorted1)
+                cost += estimateSortCost(card1);
+            if (!sorted2)
+                cost += estimateSortCost(card2);
+            if (j.p != Predicate.Op.EQUALS)
+                cost += 0.3 * card1 * card2;
+            return cost;
+        default:
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /**
+     * Estimate the cost of sorting card tuples: a pass over them per level of
+     * a binary merge.
+     */
+    private static double estimateSortCost(int card) {
+        return SORT_COST * card * Math.ceil(Math.log(card + 1.0) / Math.log(2));
+    }
+
+    /**
+     * Return true if the base table with the given alias is stored in a B+
+     * tree keyed on the given field, so that scanning it (in full or through
+     * the index) returns its tuples sorted on that field.
+     */
+    private boolean isBaseSortedOn(String alias, String field) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile
+                && f.getTupleDesc().getFieldName(((BTreeFile) f).keyField()).equals(field);
+    }
+
+    /**
+     * Return true if the result of the left-deep join plan is sorted on the
+     * given field: the last join is a merge join that returns its results in
+     * the order of that field (both join fields for equality, the driving
+     * side's for range joins).
+     */
+    private boolean isPlanSortedOn(Vector<LogicalJoinNode> plan, String alias, String field) {
+        if (plan.isEmpty())
+            return false;
+        LogicalJoinNode last = plan.lastElement();
+        if (last.algorithm != JoinAlgorithm.SORT_MERGE)
+            return false;
+        boolean left = last.t1Alias.equals(alias) && last.f1PureName.equals(field);
+        boolean right = alias.equals(last.t2Alias) && last.f2PureName.equals(field);
+        if (last.p == Predicate.Op.EQUALS)
+            return left || right;
+        if (last.p == Predicate.Op.LESS_THAN || last.p == Predicate.Op.LESS_THAN_OR_EQ)
+            return right;
+        return left;
+    }
+
+    /**
+     * Estimate how many left-hand tuples of a join fit in a block of
+     * {@link #getJoinMemoryPages()} pages, from the tuple size of the
+     * left-hand table (tuples coming out of earlier joins are wider, so this
+     * is optimistic for them). If the table is unknown, a block is assumed to
+     * hold a single tuple.
+     */
+    private int estimateBlockCapacity(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return 1;
+        return BlockNestedLoopJoin.blockCapacity(
+                Database.getCatalog().getTupleDesc(tableId), joinMemoryPages);
+    }
+
+    /**
+     * Estimate the cost of the spill files of a hash join whose left-hand
+     * side is a table of card1 tuples. The tuples beyond what fits in the
+     * join memory budget are spilled, along with the same fraction of the
+     * right-hand side. If the table is unknown, nothing is assumed to spill.
+     */
+    private double estimateSpillCost(LogicalJoinNode j, int card1, int card2) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null || card1 == 0)
+            return 0;
+        int capacity = BlockNestedLoopJoin.blockCapacity(
+                Database.getCatalog().getTupleDesc(tableId), joinMemoryPages);
+        if (card1 <= capacity)
+            return 0;
+        double spilled = (double) (card1 - capacity) / card1;
+        return SPILL_COST * spilled * ((double) card1 + card2);
+    }
+
+    /**
+     * Returns the cheapest algorithm for evaluating a join, by the estimates
+     * of {@link #estimateJoinCost(JoinAlgorithm, LogicalJoinNode, int, int,
+     * double, double)}.
+     * 
+     * @param innerIsBaseTable
+     *            whether the right-hand side is a single base table (rather
+     *            than the result of earlier joins); only then can it be
+     *            probed through its B+ tree index
+     * @param sorted1
+     *            whether the left-hand side is sorted on its join field
+     * @param sorted2
+     *            whether the right-hand side is sorted on its join field
+     */
+    private JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2, boolean innerIsBaseTable,
+            boolean sorted1, boolean sorted2) {
+        JoinAlgorithm best = JoinAlgorithm.NESTED_LOOP;
+        if (j instanceof LogicalSubplanJoinNode)
+            return best;
+        double bestCost = estimateJoinCost(best, j, card1, card2, cost1, cost2,
+                sorted1, sorted2);
+        for (JoinAlgorithm algorithm : JoinAlgorithm.values()) {
+            if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP && !innerIsBaseTable)
+                continue;
+            double cost = estimateJoinCost(algorithm, j, card1, card2, cost1,
+                    cost2, sorted1, sorted2);
+            if (cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}: one scan of the
+     * outer side, then for every outer tuple a descent of the inner B+ tree
+     * and a read of the leaf pages that match. Equality probes are assumed to
+     * touch a single leaf; range probes a third of the leaves, the same
+     * fraction {@link #estimateTableJoinCardinality} assumes for range joins.
+     * 
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the inner
+     *         table has no B+ tree on the join field or the predicate cannot
+     *         use it
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return Double.POSITIVE_INFINITY;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return Double.POSITIVE_INFINITY;
+        BTreeFile bf = (BTreeFile) f;
+        if (!f.getTupleDesc().getFieldName(bf.keyField()).equals(j.f2PureName))
+            return Double.POSITIVE_INFINITY;
+
+        // cost2 is the cost of reading all of the inner table's pages
+        int pages = Math.max(1, bf.numPages());
+        double costPerPage = cost2 / pages;
+        double leaves = j.p == Predicate.Op.EQUALS ? 1 : Math.max(1, Math.ceil(0.3 * pages));
+        double probeCost = (TableStats.estimateIndexHeight(bf) + leaves) * costPerPage;
+        double matchesPerProbe = j.p == Predicate.Op.EQUALS ? 1 : 0.3 * card2;
+        return cost1 + card1 * probeCost + card1 * matchesPerProbe;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -137,9 +500,8 @@ public class JoinOptimizer {
     public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2,
             boolean t1pkey, boolean t2pkey, Map<String, TableStats> stats) {
         if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 5.
-            return card1;
+            return estimateSubplanJoinCardinality((LogicalSubplanJoinNode) j,
+                    card1, card2, t1pkey);
         } else {
             return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
                     j.f1PureName, j.f2PureName, card1, card2, t1pkey, t2pkey,
@@ -147,6 +509,28 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cardinality of a join with a subquery of card2 tuples. A
+     * semi-join returns at most one tuple per left-hand tuple: one per
+     * subquery tuple if the left-hand join field is a key, else
+     * {@link #SEMI_JOIN_SELECTIVITY} of them. An anti-join returns the
+     * left-hand tuples the semi-join does not.
+     */
+    static int estimateSubplanJoinCardinality(LogicalSubplanJoinNode j, int card1,
+            int card2, boolean t1pkey) {
+        if (j.type == LogicalSubplanJoinNode.JoinType.INNER)
+            return estimateTableJoinCardinality(j.p, j.t1Alias, null, j.f1PureName,
+                    null, card1, card2, t1pkey, false, null, null);
+        int semi;
+        if (card2 == 0)
+            semi = 0;
+        else if (t1pkey && j.p == Predicate.Op.EQUALS)
+            semi = Math.min(card1, card2);
+        else
+            semi = (int) Math.ceil(card1 * SEMI_JOIN_SELECTIVITY);
+        return j.type == LogicalSubplanJoinNode.JoinType.SEMI ? semi : card1 - semi;
+    }
+
     /**
      * Estimate the join cardinality of two tables.
      * */
@@ -230,6 +614,10 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        if (joins.isEmpty())
+            return joins;
+        planCost = 0;
+        planCard = 0;
         Set<LogicalJoinNode> join = null;
         PlanCache planCache = new PlanCache();
         for (int i = 0; i <= joins.size(); ++i)
@@ -254,9 +642,29 @@ public class JoinOptimizer {
                     planCache.addPlan(j, plan.cost, plan.card, plan.plan);
             }
         }
+        if (planCache.getOrder(join) != null) {
+            planCost = planCache.getCost(join);
+            planCard = planCache.getCard(join);
+        }
         return planCache.getOrder(join);
     }
 
+    /**
+     * @return the estimated cost of the join order the last call to
+     *         {@link #orderJoins} returned
+     */
+    public double getPlanCost() {
+        return planCost;
+    }
+
+    /**
+     * @return the estimated number of tuples of the join order the last call
+     *         to {@link #orderJoins} returned
+     */
+    public int getPlanCardinality() {
+        return planCard;
+    }
+
     // ===================== Private Methods =================================
 
     /**
@@ -302,12 +710,15 @@ public class JoinOptimizer {
 
         if (this.p.getTableId(j.t1Alias) == null)
             throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
+        // the right-hand side of a join with a subquery is the subplan
+        LogicalSubplanJoinNode sj = j instanceof LogicalSubplanJoinNode
+                ? (LogicalSubplanJoinNode) j : null;
+        if (sj == null && this.p.getTableId(j.t2Alias) == null)
             throw new ParsingException("Unknown table " + j.t2Alias);
 
         String table1Name = Database.getCatalog().getTableName(
                 this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
+        String table2Name = sj != null ? null : Database.getCatalog().getTableName(
                 this.p.getTableId(j.t2Alias));
         String table1Alias = j.t1Alias;
         String table2Alias = j.t2Alias;
@@ -327,9 +738,9 @@ public class JoinOptimizer {
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
+            t2cost = sj != null ? sj.subplanCost : stats.get(table2Name)
                     .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
+            t2card = sj != null ? sj.subplanCard : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias == null ? false : isPkey(table2Alias,
@@ -355,9 +766,9 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
+                t2cost = sj != null ? sj.subplanCost : stats.get(table2Name)
                         .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
+                t2card = sj != null ? sj.subplanCard : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
@@ -382,14 +793,31 @@ public class JoinOptimizer {
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // case where prevbest is left; only a base table can be probed
+        // through an index, so an earlier join result is never the inner
+        // side of an index join
+        boolean t1IsBase = news.isEmpty() || !doesJoin(prevBest, table1Alias);
+        boolean t2IsBase = news.isEmpty() || doesJoin(prevBest, table1Alias);
+        // interesting orders: base tables stored in a B+ tree on the join
+        // field, or an earlier merge join on it, need no sort for a merge join
+        boolean t1Sorted = t1IsBase ? isBaseSortedOn(table1Alias, j.f1PureName)
+                : isPlanSortedOn(prevBest, table1Alias, j.f1PureName);
+        boolean t2Sorted = t2IsBase ? isBaseSortedOn(table2Alias, j.f2PureName)
+                : isPlanSortedOn(prevBest, table2Alias, j.f2PureName);
+        JoinAlgorithm algorithm1 = chooseJoinAlgorithm(j, t1card, t2card, t1cost, t2cost,
+                t2IsBase, t1Sorted, t2Sorted);
+        double cost1 = estimateJoinCost(algorithm1, j, t1card, t2card, t1cost, t2cost,
+                t1Sorted, t2Sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        JoinAlgorithm algorithm2 = chooseJoinAlgorithm(j2, t2card, t1card, t2cost, t1cost,
+                t1IsBase, t2Sorted, t1Sorted);
+        double cost2 = estimateJoinCost(algorithm2, j2, t2card, t1card, t2cost, t1cost,
+                t2Sorted, t1Sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            algorithm1 = algorithm2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
@@ -404,6 +832,8 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
+        if (!(j instanceof LogicalSubplanJoinNode))
+            j = j.withAlgorithm(algorithm1);
         cc.plan.addElement(j); // prevbest is left -- add new join to end
         return cc;
     }
@@ -2,6 +2,8 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -12,9 +14,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * All the aggregates of a query are computed by one Aggregate
+ * operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,15 +31,64 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
+    private int offset = 0;
     private String query;
+    private double estimatedCost;
+    private int estimatedCard;
 //    private Query owner;
 
+    private static int scanWorkers = 1;
+
+    /**
+     * Sets the number of worker threads table scans are planned with. With
+     * more than one worker, scans of HeapFiles, together with the filters on
+     * them and, for single-table queries without aggregates or ordering, the
+     * projection, run as a {@link ParallelSeqScan}, and aggregates are
+     * computed by a {@link ParallelAggregate}. The default is one worker,
+     * i.e. sequential plans.
+     */
+    public static void setScanWorkers(int workers) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        scanWorkers = workers;
+    }
+
+    /**
+     * @return the number of worker threads table scans are planned with
+     */
+    public static int getScanWorkers() {
+        return scanWorkers;
+    }
+
+    private static boolean asyncBuffers = false;
+
+    /**
+     * Enables or disables {@link AsyncBuffer}s in plans. While they are
+     * enabled the inputs of pipeline breakers (the build side of a hash join
+     * or semi-join, and the input of an aggregate or a sort) are read ahead on
+     * a worker thread, so their I/O overlaps with the operator's work. They
+     * are disabled by default.
+     */
+    public static void setAsyncBuffers(boolean enabled) {
+        asyncBuffers = enabled;
+    }
+
+    /**
+     * @return true if plans read the inputs of pipeline breakers ahead on
+     *         worker threads
+     */
+    public static boolean isAsyncBuffers() {
+        return asyncBuffers;
+    }
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -156,6 +207,44 @@ public class LogicalPlan {
         joins.addElement(lj);
     }
 
+    /** Add a semi-join or an anti-join between a field and a subquery, as
+     *  for {@link #addJoin(String, DbIterator, Predicate.Op)}: the query
+     *  keeps the tuples whose field matches some tuple of the subquery, or
+     *  for an anti-join none.
+     *  @param subplanCost the estimated cost of the subquery (see {@link #getEstimatedCost})
+     *  @param subplanCard the estimated number of tuples of the subquery
+     *  @throws ParsingException if the field is ambiguous or unknown
+     */
+    public void addJoin(String joinField1, DbIterator subplan, Predicate.Op pred,
+            LogicalSubplanJoinNode.JoinType type, double subplanCost, int subplanCard)
+            throws ParsingException {
+        joinField1 = disambiguateName(joinField1);
+
+        String table1 = joinField1.split("[.]")[0];
+        String pureField = joinField1.split("[.]")[1];
+
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1, pureField, subplan, pred,
+                type, subplanCost, subplanCard);
+        System.out.println("Added " + type.toString().toLowerCase() + " subplan join on " + joinField1);
+        joins.addElement(lj);
+    }
+
+    /**
+     * @return the estimated cost of the plan {@link #physicalPlan} last
+     *         returned, of the scans and joins in it
+     */
+    public double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    /**
+     * @return the estimated number of tuples of the plan
+     *         {@link #physicalPlan} last returned
+     */
+    public int getEstimatedCardinality() {
+        return estimatedCard;
+    }
+
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
         accessed by the plan.
         @param table the id of the table accessed by the plan (can be resolved to a DbFile using {@link Catalog#getDatabaseFile}
@@ -186,36 +275,81 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All the aggregates
+        of a query are computed in one pass, grouped by the fields added
+        via {@link #addGroupBy}; adding the same aggregate twice has no effect.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
         hasAgg = true;
+        if (aggIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query; adding the same field twice has
+        no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** @return the position of the aggregate among those added via
+        {@link #addAggregate}, or -1 if it has not been added */
+    private int aggIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equals(op) && aggFields.get(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        more than once sorts on several fields; ties on the fields added first are broken by
+        the ones added later.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: skip the first offset result tuples and return at most limit
+        of the ones after them.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip
+    */
+    public void addLimit(int limit, int offset) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -258,6 +392,60 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * @return true if it is a plain SeqScan of a HeapFile, which can evaluate
+     *         predicates and projections itself
+     */
+    private static boolean isHeapScan(DbIterator it) {
+        return it instanceof SeqScan && ((SeqScan) it).getPredicates().isEmpty()
+                && ((SeqScan) it).getColumns() == null
+                && Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId()) instanceof HeapFile;
+    }
+
+    /**
+     * Returns the qualified names of the fields read above the scans: by the
+     * select list, aggregates, groupings, orderings, joins and the given
+     * filters. Returns null if the select list includes all the fields.
+     */
+    private HashSet<String> referencedFields(Collection<LogicalFilterNode> filters) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith("*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.addAll(aggFields);
+        names.addAll(groupByFields);
+        names.addAll(oByFields);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        return names;
+    }
+
+    /**
+     * @return the indexes of the fields of td in referenced, in order, or
+     *         null if that is all of them or none of them
+     */
+    private static int[] requiredColumns(TupleDesc td, HashSet<String> referenced) {
+        if (referenced == null)
+            return null;
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (referenced.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty() || columns.size() == td.numFields())
+            return null;
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -306,6 +494,11 @@ public class LogicalPlan {
 
         }
 
+        // build the predicate for every filter, and find the filter (if any) on each
+        // table that a B+ tree index scan answers more cheaply than a full scan
+        HashMap<LogicalFilterNode,Predicate> filterPreds = new HashMap<LogicalFilterNode,Predicate>();
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,Double> accessCosts = new HashMap<String,Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,19 +527,90 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            filterPreds.put(lf, p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            if (!accessCosts.containsKey(lf.tableAlias))
+                accessCosts.put(lf.tableAlias, s.estimateScanCost());
+            double indexCost = s.estimateIndexScanCost(p.getField(), lf.p, f);
+            if (indexCost < accessCosts.get(lf.tableAlias)) {
+                accessCosts.put(lf.tableAlias, indexCost);
+                indexFilters.put(lf.tableAlias, lf);
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (Map.Entry<String,LogicalFilterNode> e : indexFilters.entrySet()) {
+            LogicalFilterNode lf = e.getValue();
+            Predicate p = filterPreds.get(lf);
+            IndexPredicate ipred = new IndexPredicate(lf.p, p.getOperand());
+            subplanMap.put(e.getKey(), new BTreeScan(t, getTableId(e.getKey()), e.getKey(), ipred));
+            if (explain)
+                System.out.println("Using index on " + lf.fieldQuantifiedName + " for " + e.getKey()
+                        + " (estimated cost " + accessCosts.get(e.getKey()) + ")");
+        }
+
+        // the index scan returns exactly the tuples matching its predicate, so
+        // only the remaining filters need to be applied. Scans of HeapFiles
+        // evaluate them on their pages; the others get a Filter on top
+        HashMap<String,ArrayList<Predicate>> pushed = new HashMap<String,ArrayList<Predicate>>();
+        ArrayList<LogicalFilterNode> unpushed = new ArrayList<LogicalFilterNode>();
+        filterIt = filters.iterator();
+        while (filterIt.hasNext()) {
+            LogicalFilterNode lf = filterIt.next();
+            if (indexFilters.get(lf.tableAlias) == lf)
+                continue;
+            if (isHeapScan(subplanMap.get(lf.tableAlias))) {
+                if (!pushed.containsKey(lf.tableAlias))
+                    pushed.put(lf.tableAlias, new ArrayList<Predicate>());
+                pushed.get(lf.tableAlias).add(filterPreds.get(lf));
+            } else {
+                unpushed.add(lf);
+                subplanMap.put(lf.tableAlias, new Filter(filterPreds.get(lf), subplanMap.get(lf.tableAlias)));
+            }
+        }
+
+        // and only return the fields the rest of the plan reads
+        HashSet<String> referenced = referencedFields(unpushed);
+        for (LogicalScanNode table : tables) {
+            DbIterator subplan = subplanMap.get(table.alias);
+            if (!isHeapScan(subplan))
+                continue;
+            ArrayList<Predicate> preds = pushed.get(table.alias);
+            int[] columns = requiredColumns(subplan.getTupleDesc(), referenced);
+            if (preds == null && columns == null)
+                continue;
+            subplanMap.put(table.alias, new SeqScan(t, ((SeqScan) subplan).getTableId(), table.alias,
+                    preds == null ? new ArrayList<Predicate>() : preds, columns));
+        }
         
+        // a single-table query may push its projection into the workers, so
+        // it is parallelized once the rest of the plan is known
+        if (scanWorkers > 1 && subplanMap.size() > 1) {
+            for (Map.Entry<String, DbIterator> e : subplanMap.entrySet())
+                e.setValue(ParallelSeqScan.parallelize(e.getValue(), scanWorkers));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joins.isEmpty()) {
+            estimatedCost = jo.getPlanCost();
+            estimatedCard = jo.getPlanCardinality();
+        } else if (tables.size() == 1 && statsMap.get(Database.getCatalog().getTableName(
+                getTableId(tables.firstElement().alias))) != null) {
+            String alias = tables.firstElement().alias;
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+            estimatedCost = accessCosts.containsKey(alias) ? accessCosts.get(alias) : s.estimateScanCost();
+            estimatedCard = s.estimateTableCardinality(filterSelectivities.get(alias));
+        }
+        if (hasAgg && groupByFields.isEmpty())
+            estimatedCard = 1;
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -407,6 +671,10 @@ public class LogicalPlan {
         }
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        boolean parallelProject = scanWorkers > 1 && tables.size() == 1
+                && !hasAgg && !hasOrderBy && limit < 0;
+        if (scanWorkers > 1 && tables.size() == 1 && !parallelProject)
+            node = ParallelSeqScan.parallelize(node, scanWorkers);
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -414,7 +682,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the aggregates follow the group by fields in the Aggregate's output
+                int agg = aggIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +699,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int group = groupByFields.indexOf(si.fname);
+                    if (group < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(group);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +734,21 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                if (scanWorkers > 1)
+                    aggNode = new ParallelAggregate(node, afields, aops, gfields, scanWorkers);
+                else
+                    aggNode = new Aggregate(AsyncBuffer.wrap(node), afields, aops, gfields);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,10 +758,34 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] oByAsc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                try {
+                    oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.get(i) + " in ORDER BY");
+                }
+                oByAsc[i] = oByAscs.get(i);
+            }
+            // a B+ tree scan or merge join may already produce this order
+            if (oByIndexes.length > 1 || !oByAsc[0]
+                    || !SortMergeJoin.isSortedOn(node, oByIndexes[0])) {
+                // with a LIMIT only the first limit + offset tuples of the order are needed
+                int topN = limit < 0 ? OrderBy.NO_LIMIT
+                        : (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+                node = new OrderBy(oByIndexes, oByAsc, AsyncBuffer.wrap(node),
+                        ExternalSort.DEFAULT_MEMORY_PAGES, topN);
+            }
         }
 
-        return new Project(outFields, outTypes, node);
+        if (limit >= 0)
+            node = new Limit(limit, offset, node);
+
+        Project project = new Project(outFields, outTypes, node);
+        if (parallelProject)
+            return ParallelSeqScan.parallelize(project, scanWorkers);
+        return project;
     }
 
     public static void main(String argv[]) {
@@ -5,9 +5,28 @@ package simpledb;
  * {@link LogicalJoinNode}; t2 and f2 should always be null
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
+
+    /** How the tuples of the table are matched with those of the subplan */
+    public enum JoinType {
+        /** a plain join, returning every matching pair: field op (subquery) */
+        INNER,
+        /** the table's tuples that match some tuple: IN and EXISTS */
+        SEMI,
+        /** the table's tuples that match no tuple: NOT IN and NOT EXISTS */
+        ANTI
+    }
     
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
+
+    /** The kind of join */
+    public JoinType type = JoinType.INNER;
+
+    /** The estimated cost of one run of the subplan */
+    public double subplanCost;
+
+    /** The estimated number of tuples the subplan returns */
+    public int subplanCard;
     
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
         t1Alias = table1;
@@ -33,8 +52,19 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
     }
     
+    /** Return a LogicalSubplanJoinNode of the given type, with the
+     * estimated cost and cardinality of the subplan. */
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred,
+            JoinType type, double subplanCost, int subplanCard) {
+        this(table1, joinField1, sp, pred);
+        this.type = type;
+        this.subplanCost = subplanCost;
+        this.subplanCard = subplanCard;
+    }
+
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p,
+                type, subplanCost, subplanCard);
         return j2;
     }
 
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the distinct long keys it is given: the first key seen is group 0,
+ * the next new one group 1, and so on. Keys are found with an open-addressing
+ * hash table with linear probing that is kept at most half full, so looking
+ * up a key allocates nothing. Aggregators use the group numbers to index
+ * arrays of primitive accumulators.
+ */
+final class LongGroupTable {
+
+    /* slots holds group number + 1, 0 marks an empty slot */
+    private int[] slots;
+    private long[] slotKeys;
+    /* the key of each group, by group number */
+    private long[] keys;
+    private int size;
+
+    LongGroupTable() {
+        this(16);
+    }
+
+    /**
+     * @param expected
+     *            the number of groups to make room for up front
+     */
+    LongGroupTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, 2 * expected - 1)) << 1;
+        slots = new int[capacity];
+        slotKeys = new long[capacity];
+        keys = new long[capacity / 2];
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the group number of the key, adding a new group if the key has
+     * not been seen before.
+     */
+    int findOrAdd(long key) {
+        int mask = slots.length - 1;
+        int i = hash(key) & mask;
+        while (slots[i] != 0) {
+            if (slotKeys[i] == key)
+                return slots[i] - 1;
+            i = (i + 1) & mask;
+        }
+        int g = size++;
+        if (g == keys.length)
+            keys = Arrays.copyOf(keys, 2 * keys.length);
+        keys[g] = key;
+        slots[i] = g + 1;
+        slotKeys[i] = key;
+        if (2 * size > slots.length)
+            rehash();
+        return g;
+    }
+
+    /**
+     * @return the group number of the key, or -1 if it has not been seen
+     */
+    int find(long key) {
+        int mask = slots.length - 1;
+        int i = hash(key) & mask;
+        while (slots[i] != 0) {
+            if (slotKeys[i] == key)
+                return slots[i] - 1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the key of group g
+     */
+    long key(int g) {
+        return keys[g];
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[2 * slots.length];
+        long[] newKeys = new long[newSlots.length];
+        int mask = newSlots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int i = hash(keys[g]) & mask;
+            while (newSlots[i] != 0)
+                i = (i + 1) & mask;
+            newSlots[i] = g + 1;
+            newKeys[i] = keys[g];
+        }
+        slots = newSlots;
+        slotKeys = newKeys;
+    }
+}
@@ -3,18 +3,31 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The child's
+ * tuples are sorted with an {@link ExternalSort}, so results larger than the
+ * memory budget are sorted in runs on disk and merged.
+ * <p>
+ * An OrderBy can also be given a limit n, for ORDER BY ... LIMIT n; it then
+ * returns only the first n tuples of the order. If n tuples fit in the memory
+ * budget they are found in a single pass over the child that keeps the best n
+ * seen so far in a heap, instead of sorting everything.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] ascending;
+    private final int memoryPages;
+    private final int limit;
+    private transient ExternalSort sort;
+    private transient DbFileIterator it;
+    private transient ArrayList<Tuple> top;
+    private transient int returned;
+
+    /** Limit of an OrderBy that returns all the tuples. */
+    public static final int NO_LIMIT = -1;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +40,100 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields, using
+     * {@link ExternalSort#DEFAULT_MEMORY_PAGES} as the memory budget.
+     * 
+     * @param orderbyFields
+     *            the fields to sort on; ties on a field are broken by the
+     *            next one
+     * @param asc
+     *            for each field, true if it is sorted in ascending order
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        this(orderbyFields, asc, child, ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     * 
+     * @param memoryPages
+     *            the number of pages worth of tuples to sort in memory before
+     *            spilling a sorted run to disk
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            int memoryPages) {
+        this(orderbyFields, asc, child, memoryPages, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first limit tuples of
+     * the order.
+     * 
+     * @param limit
+     *            the number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            int memoryPages, int limit) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one direction per sort field");
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        if (limit < 0 && limit != NO_LIMIT)
+            throw new IllegalArgumentException("limit must not be negative");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.memoryPages = memoryPages;
+        this.limit = limit;
     }
     
+    /**
+     * @return true if the first sort field is sorted in ascending order
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascending[0];
     }
     
+    /**
+     * @return the first sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(orderByFields[0]);
+    }
+
+    /**
+     * @return all the sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, whether it is sorted in ascending order
+     */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * @return the number of tuples returned, or {@link #NO_LIMIT}
+     */
+    public int getLimit() {
+        return limit;
     }
     
     public TupleDesc getTupleDesc() {
@@ -56,21 +143,71 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        returned = 0;
+        if (limit != NO_LIMIT
+                && limit <= BlockNestedLoopJoin.blockCapacity(td, memoryPages)) {
+            top = selectTop();
+        } else {
+            // sort all the tuples, in runs on disk if they do not fit in memory
+            sort = new ExternalSort(td, orderByFields, ascending, memoryPages);
+            sort.addAll(child);
+            it = sort.iterator();
+            it.open();
+        }
         super.open();
     }
 
+    /**
+     * Returns the first limit tuples of the order in a single pass over the
+     * child. The heap holds the best tuples seen so far with the one that
+     * sorts last on top, so a new tuple only has to beat that one to get in.
+     * Ties are broken by arrival order, which keeps the result stable.
+     */
+    private ArrayList<Tuple> selectTop() throws DbException,
+            TransactionAbortedException {
+        final Comparator<Tuple> order = new ExternalSort.KeyComparator(orderByFields, ascending);
+        Comparator<Object[]> entryOrder = new Comparator<Object[]>() {
+            public int compare(Object[] a, Object[] b) {
+                int c = order.compare((Tuple) a[0], (Tuple) b[0]);
+                return c != 0 ? c : Long.compare((Long) a[1], (Long) b[1]);
+            }
+        };
+        PriorityQueue<Object[]> heap = new PriorityQueue<Object[]>(
+                Math.max(1, limit), Collections.reverseOrder(entryOrder));
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Object[] { t, seq++ });
+            } else if (limit > 0 && order.compare(t, (Tuple) heap.peek()[0]) < 0) {
+                heap.poll();
+                heap.add(new Object[] { t, seq++ });
+            }
+        }
+        ArrayList<Object[]> entries = new ArrayList<Object[]>(heap);
+        Collections.sort(entries, entryOrder);
+        ArrayList<Tuple> result = new ArrayList<Tuple>(entries.size());
+        for (Object[] e : entries)
+            result.add((Tuple) e[0]);
+        return result;
+    }
+
     public void close() {
         super.close();
+        if (it != null)
+            it.close();
         it = null;
+        if (sort != null)
+            sort.close();
+        sort = null;
+        top = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (it != null)
+            it.rewind();
+        returned = 0;
     }
 
     /**
@@ -82,7 +219,12 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (limit != NO_LIMIT && returned >= limit)
+            return null;
+        if (top != null && returned < top.size()) {
+            return top.get(returned++);
+        } else if (it != null && it.hasNext()) {
+            returned++;
             return it.next();
         } else
             return null;
@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelAggregate computes the same aggregates as {@link Aggregate} with
+ * several worker threads, in two phases. It returns the groups in no
+ * particular order.
+ * <p>
+ * In the first phase every worker reads part of the child into a
+ * {@link HashAggregator} of its own, so no state is shared while tuples are
+ * merged. The workers then split the partial aggregates of their groups by
+ * the hash of the group values, all in the same way. In the second phase
+ * the workers of an {@link Exchange} claim one partition at a time and merge
+ * the partial aggregates of that partition from every worker into the
+ * final results; a group is never split between two partitions, so the
+ * final merge needs no coordination either. Partial aggregates keep a sum
+ * and a count, so AVG is combined exactly.
+ * <p>
+ * A child that is a {@link ParallelSeqScan} is read through the scan's own
+ * workers; any other child is shared by the workers, which take turns
+ * reading it a batch of tuples at a time. Each worker gets an equal share of
+ * the memory budget, and spills its groups to disk as HashAggregator does
+ * when they do not fit.
+ */
+public class ParallelAggregate extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] afields, gfields;
+    private final Aggregator.Op[] aops;
+    private final int workers;
+    private final int memoryPages;
+
+    private transient HashAggregator[] partials;
+    /* the partial aggregates of each worker, by partition */
+    private transient DbIterator[][] partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each column in afields
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param workers
+     *            the number of worker threads
+     * @param memoryPages
+     *            the number of pages worth of groups to hold in memory, shared
+     *            between the workers
+     */
+    public ParallelAggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields, int workers, int memoryPages) {
+        super(new DbIterator[] { child });
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        if (workers <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.workers = workers;
+        this.memoryPages = memoryPages;
+        // fail here rather than on a worker for unsupported operators
+        newAggregator();
+    }
+
+    /**
+     * Constructor using {@link HashAggregator#DEFAULT_MEMORY_PAGES} as the
+     * memory budget.
+     */
+    public ParallelAggregate(DbIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields, int workers) {
+        this(child, afields, aops, gfields, workers, HashAggregator.DEFAULT_MEMORY_PAGES);
+    }
+
+    private HashAggregator newAggregator() {
+        return new HashAggregator(getChildren()[0].getTupleDesc(), gfields, afields,
+                aops, Math.max(1, memoryPages / workers));
+    }
+
+    /**
+     * @return the group-by field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the aggregate field indexes in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    public String getName() {
+        String aggs = "";
+        TupleDesc td = getChildren()[0].getTupleDesc();
+        for (int j = 0; j < afields.length; j++)
+            aggs += (j > 0 ? "," : "") + aops[j] + "(" + td.getFieldName(afields[j]) + ")";
+        return "parallel aggregate(" + aggs + "),workers:" + workers;
+    }
+
+    public int numWorkers() {
+        return workers;
+    }
+
+    /**
+     * The group by fields, followed by one INT field per aggregate, as for
+     * {@link Aggregate#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        return HashAggregator.resultTupleDesc(getChildren()[0].getTupleDesc(),
+                gfields, afields, aops);
+    }
+
+    /**
+     * The first phase: every worker aggregates its share of the child.
+     */
+    private void aggregatePartials() throws DbException, TransactionAbortedException {
+        DbIterator child = getChildren()[0];
+        boolean shared = !(child instanceof ParallelSeqScan);
+        if (shared)
+            child.open();
+        final DbIterator[] inputs = fragments(child, workers);
+        partials = new HashAggregator[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            partials[i] = newAggregator();
+        try {
+            ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < inputs.length; i++) {
+                final DbIterator input = inputs[i];
+                final HashAggregator aggregator = partials[i];
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        input.open();
+                        try {
+                            while (input.hasNext())
+                                aggregator.merge(input.next());
+                        } finally {
+                            input.close();
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks);
+        } finally {
+            if (shared)
+                child.close();
+        }
+        partitions = new DbIterator[partials.length][];
+        for (int i = 0; i < partials.length; i++)
+            partitions[i] = partials[i].partialPartitions();
+    }
+
+    /**
+     * Runs the first phase when the operator is opened, and returns the
+     * final merge workers, which share the partitions between them.
+     */
+    protected DbIterator[] workerPlans() throws DbException,
+            TransactionAbortedException {
+        if (partitions == null)
+            aggregatePartials();
+        AtomicInteger next = new AtomicInteger();
+        DbIterator[] merges = new DbIterator[workers];
+        for (int i = 0; i < workers; i++)
+            merges[i] = new FinalMerge(next);
+        return merges;
+    }
+
+    public void close() {
+        super.close();
+        if (partials != null) {
+            for (HashAggregator aggregator : partials)
+                aggregator.close();
+        }
+        partials = null;
+        partitions = null;
+    }
+
+    /**
+     * The number of times workers spilled groups to disk during the first
+     * phase, while the operator is open.
+     */
+    public int numSpills() {
+        int n = 0;
+        if (partials != null) {
+            for (HashAggregator aggregator : partials)
+                n += aggregator.numSpills();
+        }
+        return n;
+    }
+
+    /**
+     * A final merge worker: claims partitions until there are none left, and
+     * returns the results of each.
+     */
+    private class FinalMerge implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger next;
+        private HashAggregator merged;
+        private DbIterator results;
+
+        FinalMerge(AtomicInteger next) {
+            this.next = next;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (results == null || !results.hasNext()) {
+                release();
+                int p = next.getAndIncrement();
+                if (p >= partitions[0].length)
+                    return false;
+                merged = partials[0].partialMerger();
+                for (DbIterator[] worker : partitions) {
+                    DbIterator it = worker[p];
+                    it.open();
+                    while (it.hasNext())
+                        merged.merge(it.next());
+                    it.close();
+                }
+                results = merged.iterator();
+                results.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return results.next();
+        }
+
+        private void release() {
+            if (results != null)
+                results.close();
+            results = null;
+            if (merged != null)
+                merged.close();
+            merged = null;
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("final merges are rewound by their aggregate");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return ParallelAggregate.this.getTupleDesc();
+        }
+
+        public void close() {
+            release();
+        }
+    }
+}
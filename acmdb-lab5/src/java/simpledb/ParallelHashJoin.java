@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelHashJoin is an equality join that builds and probes its hash
+ * tables with several worker threads. It returns the same tuples as
+ * {@link HashEquiJoin}, in no particular order.
+ * <p>
+ * The build side is read by all workers at once, each of which splits the
+ * tuples it reads into partitions by the low bits of the hash of their join
+ * field. Once every worker is done, the partitions are turned into hash
+ * tables in parallel, one partition at a time per worker, so no table is
+ * ever shared while it is built. The probe side is then read by the workers
+ * of an {@link Exchange}; each probe tuple only visits the small table of its
+ * own partition. An input that is a {@link ParallelSeqScan} is read through
+ * the scan's own workers, so the Filters and Projects over it run in
+ * parallel too; any other input is shared by the workers, which take turns
+ * reading it a batch of tuples at a time.
+ * <p>
+ * All the hash tables are held in memory; the planner only chooses this join
+ * when the build side fits in the join memory budget.
+ */
+public class ParallelHashJoin extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of radix bits the build side is partitioned on. */
+    static final int RADIX_BITS = 6;
+    static final int PARTITIONS = 1 << RADIX_BITS;
+
+    private final JoinPredicate joinPredicate;
+    private final int workers;
+
+    private transient HashMap<Field, ArrayList<Tuple>>[] tables;
+    private transient boolean probeOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     * @param workers
+     *            the number of worker threads for inputs that are not
+     *            parallel scans
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int workers) {
+        super(new DbIterator[] { child1, child2 });
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("only equality joins can be hashed");
+        if (workers <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        this.joinPredicate = p;
+        this.workers = workers;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    public String getJoinField1Name() {
+        return getChildren()[0].getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return getChildren()[1].getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public String getName() {
+        return "parallel hash join(" + workers + " workers)";
+    }
+
+    public int numWorkers() {
+        return workers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        DbIterator[] children = getChildren();
+        return TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
+    }
+
+    /**
+     * @return the radix partition of a join value
+     */
+    static int partition(Field f) {
+        int h = f.hashCode() * 0x9e3779b1;
+        return (h ^ (h >>> 16)) & (PARTITIONS - 1);
+    }
+
+    /**
+     * Reads the build side into radix partitions, then turns each partition
+     * into a hash table.
+     */
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException {
+        DbIterator child1 = getChildren()[0];
+        boolean shared = !(child1 instanceof ParallelSeqScan);
+        if (shared)
+            child1.open();
+        final DbIterator[] inputs = fragments(child1, workers);
+        final ArrayList<Tuple>[][] parts = new ArrayList[inputs.length][PARTITIONS];
+        final int field = joinPredicate.getField1();
+        try {
+            ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < inputs.length; i++) {
+                final int w = i;
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        DbIterator input = inputs[w];
+                        ArrayList<Tuple>[] mine = parts[w];
+                        input.open();
+                        try {
+                            while (input.hasNext()) {
+                                Tuple tuple = input.next();
+                                int p = partition(tuple.getField(field));
+                                if (mine[p] == null)
+                                    mine[p] = new ArrayList<Tuple>();
+                                mine[p].add(tuple);
+                            }
+                        } finally {
+                            input.close();
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks);
+        } finally {
+            if (shared)
+                child1.close();
+        }
+
+        final HashMap<Field, ArrayList<Tuple>>[] built = new HashMap[PARTITIONS];
+        final AtomicInteger next = new AtomicInteger();
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < Math.min(workers, PARTITIONS); i++) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    int p;
+                    while ((p = next.getAndIncrement()) < PARTITIONS) {
+                        HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+                        for (ArrayList<Tuple>[] mine : parts) {
+                            if (mine[p] == null)
+                                continue;
+                            for (Tuple tuple : mine[p]) {
+                                Field f = tuple.getField(field);
+                                ArrayList<Tuple> list = table.get(f);
+                                if (list == null) {
+                                    list = new ArrayList<Tuple>();
+                                    table.put(f, list);
+                                }
+                                list.add(tuple);
+                            }
+                            mine[p] = null;
+                        }
+                        built[p] = table;
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        tables = built;
+    }
+
+    /**
+     * Builds the hash tables the first time the join is opened, and returns
+     * one probe worker per fragment of the probe side.
+     */
+    protected DbIterator[] workerPlans() throws DbException,
+            TransactionAbortedException {
+        if (tables == null)
+            build();
+        DbIterator child2 = getChildren()[1];
+        if (!(child2 instanceof ParallelSeqScan)) {
+            if (probeOpen) {
+                child2.rewind();
+            } else {
+                child2.open();
+                probeOpen = true;
+            }
+        }
+        DbIterator[] inputs = fragments(child2, workers);
+        DbIterator[] probes = new DbIterator[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            probes[i] = new Probe(inputs[i]);
+        return probes;
+    }
+
+    public void close() {
+        super.close();
+        tables = null;
+        if (probeOpen)
+            getChildren()[1].close();
+        probeOpen = false;
+    }
+
+    /**
+     * A probe worker: joins the tuples of one fragment of the probe side with
+     * the hash tables.
+     */
+    private class Probe implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DbIterator input;
+        private final TupleDesc td = ParallelHashJoin.this.getTupleDesc();
+        private CompiledJoinPredicate compiled;
+        private Tuple probeTuple;
+        private Iterator<Tuple> matches;
+        private Tuple next;
+
+        Probe(DbIterator input) {
+            this.input = input;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            input.open();
+            compiled = new CompiledJoinPredicate(joinPredicate,
+                    getChildren()[0].getTupleDesc(), input.getTupleDesc());
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null) {
+                if (matches != null && matches.hasNext()) {
+                    Tuple tuple = matches.next();
+                    if (compiled.filter(tuple, probeTuple))
+                        next = Tuple.merge(td, tuple, probeTuple);
+                    continue;
+                }
+                if (!input.hasNext())
+                    return false;
+                probeTuple = input.next();
+                Field f = probeTuple.getField(joinPredicate.getField2());
+                ArrayList<Tuple> list = tables[partition(f)].get(f);
+                matches = list == null ? null : list.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("probe workers are rewound by their join");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            input.close();
+            if (compiled != null)
+                compiled.flushStatistics();
+            probeTuple = null;
+            matches = null;
+            next = null;
+        }
+    }
+}
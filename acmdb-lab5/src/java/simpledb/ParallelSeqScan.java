@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan scans a HeapFile with several worker threads. The pages of
+ * the file are handed out in morsels of a few consecutive pages; a worker that
+ * finishes its morsel claims the next unclaimed one, so workers that run into
+ * slow pages or locks do not hold the others up. Each worker can evaluate its
+ * own copy of the Filters and Projects above the scan (see
+ * {@link #parallelize}), and their results are merged by {@link Exchange}.
+ * <p>
+ * Workers read pages through the BufferPool as part of the scan's
+ * transaction, so they take the same locks a SeqScan would.
+ */
+public class ParallelSeqScan extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of consecutive pages a worker claims at a time. */
+    public static final int DEFAULT_MORSEL_PAGES = 4;
+
+    private final Morsels morsels;
+
+    /**
+     * Creates a parallel scan over the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used as in {@link SeqScan}
+     * @param workers
+     *            the number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        this(new Morsels(heapFile(tableid), DEFAULT_MORSEL_PAGES),
+                new SeqScan(tid, tableid, tableAlias), workers);
+    }
+
+    private ParallelSeqScan(Morsels morsels, SeqScan scan, int workers) {
+        this(scans(morsels, scan, workers), morsels);
+    }
+
+    private ParallelSeqScan(DbIterator[] children, Morsels morsels) {
+        super(children);
+        this.morsels = morsels;
+    }
+
+    private static HeapFile heapFile(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("parallel scans need a HeapFile");
+        return (HeapFile) f;
+    }
+
+    /**
+     * @return the workers' scans, which evaluate the predicates and keep the
+     *         columns of the given scan
+     */
+    private static DbIterator[] scans(Morsels morsels, SeqScan scan, int workers) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        DbIterator[] scans = new DbIterator[workers];
+        for (int i = 0; i < workers; i++)
+            scans[i] = new MorselScan(morsels, scan);
+        return scans;
+    }
+
+    /**
+     * Returns a plan that evaluates the given plan with up to the given number
+     * of workers. The plan must be a chain of Filters and Projects over a
+     * SeqScan of a HeapFile; every worker gets its own copy of the chain. Any
+     * other plan, or a table too small to split between two workers, is
+     * returned unchanged.
+     *
+     * @param plan
+     *            the plan to evaluate in parallel
+     * @param workers
+     *            the largest number of workers to use
+     */
+    public static DbIterator parallelize(DbIterator plan, int workers) {
+        ArrayList<DbIterator> chain = new ArrayList<DbIterator>();
+        DbIterator leaf = plan;
+        while (leaf instanceof Filter || leaf instanceof Project) {
+            chain.add(leaf);
+            leaf = ((Operator) leaf).getChildren()[0];
+        }
+        if (!(leaf instanceof SeqScan) || leaf instanceof MorselScan)
+            return plan;
+        SeqScan scan = (SeqScan) leaf;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(f instanceof HeapFile))
+            return plan;
+        int morselPages = DEFAULT_MORSEL_PAGES;
+        int numMorsels = (((HeapFile) f).numPages() + morselPages - 1) / morselPages;
+        workers = Math.min(workers, numMorsels);
+        if (workers < 2)
+            return plan;
+
+        Morsels morsels = new Morsels((HeapFile) f, morselPages);
+        DbIterator[] children = scans(morsels, scan, workers);
+        for (int i = 0; i < workers; i++) {
+            for (int j = chain.size() - 1; j >= 0; j--)
+                children[i] = copy(chain.get(j), children[i]);
+        }
+        return new ParallelSeqScan(children, morsels);
+    }
+
+    /**
+     * Returns a copy of a Filter or Project reading from a new child.
+     */
+    private static DbIterator copy(DbIterator op, DbIterator child) {
+        if (op instanceof Filter)
+            return new Filter(((Filter) op).getPredicate(), child);
+        Project p = (Project) op;
+        TupleDesc td = p.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        return new Project(p.getOutputFields(), types, child);
+    }
+
+    public String getName() {
+        return "parallel scan(" + numWorkers() + " workers)";
+    }
+
+    /**
+     * Starts handing out the pages of the table from the beginning, and
+     * returns the workers' plans.
+     */
+    protected DbIterator[] workerPlans() throws DbException,
+            TransactionAbortedException {
+        morsels.reset();
+        return super.workerPlans();
+    }
+
+    /**
+     * Hands out the pages of a file to the workers of one scan.
+     */
+    static final class Morsels {
+
+        private final HeapFile file;
+        private final int pages;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile int end;
+
+        Morsels(HeapFile file, int pages) {
+            this.file = file;
+            this.pages = pages;
+        }
+
+        /**
+         * Starts handing out the pages of the file from the beginning.
+         */
+        void reset() {
+            end = file.numPages();
+            next.set(0);
+        }
+
+        /**
+         * @return the first page of an unclaimed morsel, or -1 if all of them
+         *         have been claimed
+         */
+        int claim() {
+            int first = next.getAndAdd(pages);
+            return first < end ? first : -1;
+        }
+
+        int end(int first) {
+            return Math.min(first + pages, end);
+        }
+    }
+
+    /**
+     * The scan run by one worker: it reads morsels until there are none left.
+     * It is a SeqScan so that planning code sees it as a scan of its table.
+     */
+    static class MorselScan extends SeqScan {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Morsels morsels;
+        private DbFileIterator range;
+        private boolean open;
+
+        MorselScan(Morsels morsels, SeqScan scan) {
+            super(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                    scan.getPredicates(), scan.getColumns());
+            this.morsels = morsels;
+        }
+
+        public void open() {
+            range = null;
+            open = true;
+        }
+
+        public boolean hasNext() throws TransactionAbortedException, DbException {
+            if (!open)
+                return false;
+            while (range == null || !range.hasNext()) {
+                if (range != null)
+                    range.close();
+                range = null;
+                int first = morsels.claim();
+                if (first < 0)
+                    return false;
+                range = morsels.file.iterator(getTransactionId(), first, morsels.end(first),
+                        getPredicates(), getColumns());
+                range.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws NoSuchElementException,
+                TransactionAbortedException, DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return range.next();
+        }
+
+        public void close() {
+            if (range != null)
+                range.close();
+            range = null;
+            open = false;
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("morsel scans are rewound by their ParallelSeqScan");
+        }
+    }
+}
@@ -35,6 +35,59 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Zql does not know LIMIT, so a trailing LIMIT n [OFFSET m] clause is
+     * removed from the statement text before it is parsed, and its values are
+     * passed on to the planning of the statement, which must be a SELECT.
+     */
+    private static final java.util.regex.Pattern LIMIT_PATTERN = java.util.regex.Pattern
+            .compile("(?is)^(.*?)\\s+limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?\\s*(;?)\\s*$");
+
+    /**
+     * A statement with its trailing LIMIT clause removed.
+     */
+    static class LimitedStatement {
+        final String sql;
+        /** the number of rows to return, or -1 if there was no LIMIT clause */
+        final int limit;
+        final int offset;
+
+        LimitedStatement(String sql, int limit, int offset) {
+            this.sql = sql;
+            this.limit = limit;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Removes a trailing LIMIT clause from a statement.
+     *
+     * @return the statement without the LIMIT clause, and the clause's values
+     */
+    static LimitedStatement stripLimit(String s) throws simpledb.ParsingException {
+        java.util.regex.Matcher m = LIMIT_PATTERN.matcher(s);
+        if (!m.matches())
+            return new LimitedStatement(s, -1, 0);
+        try {
+            return new LimitedStatement(m.group(1) + m.group(4),
+                    Integer.parseInt(m.group(2)),
+                    m.group(3) == null ? 0 : Integer.parseInt(m.group(3)));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT out of range: " + s);
+        }
+    }
+
+    /**
+     * Throws a ParsingException if a LIMIT clause was removed from a
+     * statement that is not a SELECT.
+     */
+    private static void checkLimit(ZStatement s, int limit)
+            throws simpledb.ParsingException {
+        if (limit >= 0 && !(s instanceof ZQuery))
+            throw new simpledb.ParsingException(
+                    "LIMIT is only supported on SELECT statements");
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException {
         if (wx.getOperator().equals("AND")) {
@@ -50,6 +103,23 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("IN") || wx.getOperator().equals("NOT IN")) {
+            if (!(wx.getOperand(0) instanceof ZConstant)
+                    || ((ZConstant) wx.getOperand(0)).getType() != ZConstant.COLUMNNAME
+                    || !(wx.getOperand(1) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "Only expressions of the form field IN (subquery) are supported.");
+            }
+            addSubqueryJoin(tid, ((ZConstant) wx.getOperand(0)).getValue(),
+                    (ZQuery) wx.getOperand(1), wx.getOperator().equals("IN")
+                            ? LogicalSubplanJoinNode.JoinType.SEMI
+                            : LogicalSubplanJoinNode.JoinType.ANTI, lp);
+        } else if (wx.getOperator().equals("EXISTS")) {
+            processExists(tid, wx, false, lp);
+        } else if (wx.getOperator().equals("NOT") && wx.nbOperands() == 1
+                && wx.getOperand(0) instanceof ZExpression
+                && ((ZExpression) wx.getOperand(0)).getOperator().equals("EXISTS")) {
+            processExists(tid, (ZExpression) wx.getOperand(0), true, lp);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -132,12 +202,143 @@ public class Parser {
 
     }
 
+    /**
+     * Adds a semi-join or anti-join of a field of the query with the first
+     * field of a subquery.
+     */
+    private void addSubqueryJoin(TransactionId tid, String field, ZQuery q,
+            LogicalSubplanJoinNode.JoinType type, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            DbIterator pp = sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+            lp.addJoin(field, pp, Predicate.Op.EQUALS, type,
+                    sublp.getEstimatedCost(), sublp.getEstimatedCardinality());
+        } catch (IOException | Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        }
+    }
+
+    /**
+     * Adds an [NOT] EXISTS subquery as a semi-join (anti-join). The subquery
+     * must be correlated with the query by a single equality between one of
+     * its fields and one of the query's, u.b = t.a; the rest of its WHERE
+     * clause may only refer to its own tables. It is rewritten as
+     * t.a [NOT] IN (SELECT u.b FROM ... WHERE rest).
+     */
+    private void processExists(TransactionId tid, ZExpression wx, boolean anti, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (!(wx.getOperand(0) instanceof ZQuery))
+            throw new simpledb.ParsingException("EXISTS needs a subquery.");
+        ZQuery q = (ZQuery) wx.getOperand(0);
+        if (q.getGroupBy() != null)
+            throw new simpledb.ParsingException("GROUP BY in EXISTS subqueries is not supported.");
+        HashSet<String> inner = new HashSet<String>();
+        @SuppressWarnings("unchecked")
+        Vector<ZFromItem> from = q.getFrom();
+        for (ZFromItem f : from)
+            inner.add(f.getAlias() != null ? f.getAlias() : f.getTable());
+
+        ArrayList<ZExp> conjuncts = new ArrayList<ZExp>();
+        if (q.getWhere() != null)
+            addConjuncts(q.getWhere(), conjuncts);
+        String outerField = null, innerField = null;
+        ZExpression rest = new ZExpression("AND");
+        for (ZExp c : conjuncts) {
+            if (!refersTo(c, inner, lp)) {
+                rest.addOperand(c);
+                continue;
+            }
+            ZExpression x = c instanceof ZExpression ? (ZExpression) c : null;
+            if (outerField == null && x != null && x.getOperator().equals("=")
+                    && x.nbOperands() == 2 && isColumn(x.getOperand(0)) && isColumn(x.getOperand(1))) {
+                boolean firstOuter = refersTo(x.getOperand(0), inner, lp);
+                boolean secondOuter = refersTo(x.getOperand(1), inner, lp);
+                if (firstOuter != secondOuter) {
+                    outerField = ((ZConstant) x.getOperand(firstOuter ? 0 : 1)).getValue();
+                    innerField = ((ZConstant) x.getOperand(firstOuter ? 1 : 0)).getValue();
+                    continue;
+                }
+            }
+            throw new simpledb.ParsingException("Only a single equality with the outer query "
+                    + "is supported in EXISTS subqueries: " + c);
+        }
+        if (outerField == null)
+            throw new simpledb.ParsingException(
+                    "EXISTS subqueries must be correlated by an equality with the outer query.");
+
+        ZQuery sub = new ZQuery();
+        Vector<ZSelectItem> select = new Vector<ZSelectItem>();
+        select.add(new ZSelectItem(innerField));
+        sub.addSelect(select);
+        sub.addFrom(from);
+        if (rest.nbOperands() == 1)
+            sub.addWhere(rest.getOperand(0));
+        else if (rest.nbOperands() > 1)
+            sub.addWhere(rest);
+        addSubqueryJoin(tid, outerField, sub, anti ? LogicalSubplanJoinNode.JoinType.ANTI
+                : LogicalSubplanJoinNode.JoinType.SEMI, lp);
+    }
+
+    private static void addConjuncts(ZExp e, ArrayList<ZExp> conjuncts) {
+        if (e instanceof ZExpression && ((ZExpression) e).getOperator().equals("AND")) {
+            ZExpression x = (ZExpression) e;
+            for (int i = 0; i < x.nbOperands(); i++)
+                addConjuncts(x.getOperand(i), conjuncts);
+        } else {
+            conjuncts.add(e);
+        }
+    }
+
+    private static boolean isColumn(ZExp e) {
+        return e instanceof ZConstant && ((ZConstant) e).getType() == ZConstant.COLUMNNAME;
+    }
+
+    /**
+     * @return true if e refers to a field of a table of the outer query
+     *         that is not one of the inner tables; unqualified fields are
+     *         taken to be inner
+     */
+    private static boolean refersTo(ZExp e, HashSet<String> inner, LogicalPlan outer) {
+        if (isColumn(e)) {
+            String name = ((ZConstant) e).getValue();
+            int dot = name.indexOf('.');
+            if (dot < 0)
+                return false;
+            String table = name.substring(0, dot);
+            return !inner.contains(table) && outer.getTableId(table) != null;
+        }
+        if (e instanceof ZExpression) {
+            ZExpression x = (ZExpression) e;
+            for (int i = 0; i < x.nbOperands(); i++) {
+                if (refersTo(x.getOperand(i), inner, outer))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        return parseQueryLogicalPlan(tid, q, -1, 0);
+    }
+
+    /**
+     * Builds the logical plan of a query that returns at most limit rows
+     * after skipping offset rows.
+     *
+     * @param limit
+     *            the number of rows to return, or -1 for all rows
+     */
+    public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q,
+            int limit, int offset)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        if (limit >= 0)
+            lp.addLimit(limit, offset);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +383,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +404,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +415,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +436,28 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
+        for (int i = 0; i < aggFuns.size(); i++)
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i));
+        for (String groupByField : groupByFields)
+            lp.addGroupBy(groupByField);
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -276,9 +469,15 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1, 0);
+    }
+
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit,
+            int offset) throws TransactionAbortedException, DbException,
+            IOException, simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
-        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        LogicalPlan lp = parseQueryLogicalPlan(tId, s, limit, offset);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +664,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitedStatement ls = stripLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(ls.sql.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
+            checkLimit(stmt, ls.limit);
             if (stmt instanceof ZQuery) {
-                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt,
+                        ls.limit, ls.offset);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -494,17 +696,30 @@ public class Parser {
 
     public void processNextStatement(String s) {
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            LimitedStatement ls = stripLimit(s);
+            processNextStatement(new ByteArrayInputStream(ls.sql.getBytes("UTF-8")),
+                    ls.limit, ls.offset);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
         }
     }
 
     public void processNextStatement(InputStream is) {
+        processNextStatement(is, -1, 0);
+    }
+
+    /**
+     * Runs the next statement of is, which must be a SELECT returning at most
+     * limit rows if limit is not -1.
+     */
+    private void processNextStatement(InputStream is, int limit, int offset) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
+            checkLimit(s, limit);
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,15 +740,22 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit, offset);
                     else {
                         System.out
                                 .println("Can't parse "
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null) {
+                        ExpressionCompiler.resetStatistics();
+                        RuntimeFilter.resetStatistics();
                         query.execute();
+                        if (explain) {
+                            System.out.println(ExpressionCompiler.report());
+                            System.out.println(RuntimeFilter.report());
+                        }
+                    }
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
@@ -585,7 +807,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +817,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-workers n] [-async] [-interpret]";
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
@@ -625,6 +847,21 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-workers")) {
+                    try {
+                        LogicalPlan.setScanWorkers(Integer.parseInt(argv[++i]));
+                    } catch (RuntimeException e) {
+                        System.out.println("Expected a positive number of workers after -workers\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Scanning tables with " + LogicalPlan.getScanWorkers() + " workers.");
+                } else if (argv[i].equals("-async")) {
+                    LogicalPlan.setAsyncBuffers(true);
+                    System.out.println("Reading pipeline breaker inputs asynchronously.");
+                } else if (argv[i].equals("-interpret")) {
+                    ExpressionCompiler.setEnabled(false);
+                    System.out.println("Predicate compilation disabled.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -641,15 +878,18 @@ public class Parser {
                     e.printStackTrace();
                 }
 
+                // read the whole file so that a LIMIT clause is handled as at the prompt
+                String query = new String(java.nio.file.Files.readAllBytes(
+                        new File(queryFile).toPath()), "UTF-8");
                 long startTime = System.currentTimeMillis();
-                processNextStatement(new FileInputStream(new File(queryFile)));
+                processNextStatement(query);
                 long time = System.currentTimeMillis() - startTime;
                 System.out.printf("----------------\n%.2f seconds\n\n",
                         ((double) time / 1000.0));
                 System.out.println("Press Enter to exit");
                 System.in.read();
                 this.shutdown();
-            } catch (FileNotFoundException e) {
+            } catch (java.nio.file.NoSuchFileException e) {
                 System.out.println("Unable to find query file" + queryFile);
                 e.printStackTrace();
             }
@@ -674,7 +914,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -683,8 +922,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
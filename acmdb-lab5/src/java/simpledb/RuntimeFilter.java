@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A RuntimeFilter drops the tuples of a SeqScan whose value of a field is not
+ * in a {@link BloomFilter}. A {@link HashEquiJoin} builds one on the join
+ * values of its build side once it has read it, and pushes it down its probe
+ * side to the SeqScan the probe join field comes from (see
+ * {@link #push(DbIterator, int)}), so the probe tuples that cannot match are
+ * dropped by the scan, on each page before a tuple is built, instead of
+ * being returned to the join; over several joins each scan gets the filters
+ * of all the joins above it.
+ * <p>
+ * A filter that drops fewer than 1 in 10 of the first {@link #SAMPLE} tuples
+ * it tests is not worth testing and stops testing. The counters of
+ * {@link #report()} tell how many tuples the filters tested and dropped.
+ */
+public class RuntimeFilter {
+
+    /** Number of tuples tested before a filter decides if it is useful. */
+    static final int SAMPLE = 4096;
+
+    private static volatile boolean enabled = true;
+
+    private static final AtomicLong filters = new AtomicLong();
+    private static final AtomicLong totalTested = new AtomicLong();
+    private static final AtomicLong totalRemoved = new AtomicLong();
+
+    private final int field;
+    private SeqScan scan;
+    private BloomFilter bloom;
+    private boolean useless;
+    private long tested, removed;
+    private long flushedTested, flushedRemoved;
+
+    /**
+     * Creates a filter on the given field of a table; it passes every tuple
+     * until its Bloom filter is set.
+     */
+    RuntimeFilter(int field) {
+        this.field = field;
+    }
+
+    /**
+     * Enables or disables runtime filters; while they are disabled joins do
+     * not push any.
+     */
+    public static void setEnabled(boolean enabled) {
+        RuntimeFilter.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Attaches a filter on field of the tuples of it to the SeqScan the field
+     * comes from. Filters, Projects and the inputs of joins are looked
+     * through, since the tuples they return hold the values of the field the
+     * scan returns; the search stops at any other operator.
+     *
+     * @return the filter, with no Bloom filter set yet, or null if filters
+     *         are disabled or the field does not come from a SeqScan
+     */
+    public static RuntimeFilter push(DbIterator it, int field) {
+        if (!enabled)
+            return null;
+        while (true) {
+            if (it instanceof SeqScan) {
+                SeqScan scan = (SeqScan) it;
+                RuntimeFilter f = new RuntimeFilter(scan.tableField(field));
+                f.scan = scan;
+                scan.addRuntimeFilter(f);
+                return f;
+            } else if (it instanceof Filter) {
+                it = ((Filter) it).getChildren()[0];
+            } else if (it instanceof Project) {
+                field = ((Project) it).getOutputFields().get(field);
+                it = ((Project) it).getChildren()[0];
+            } else if (it instanceof Join || it instanceof HashEquiJoin
+                    || it instanceof BlockNestedLoopJoin || it instanceof SortMergeJoin
+                    || it instanceof HashSemiJoin) {
+                DbIterator[] children = ((Operator) it).getChildren();
+                int n = children[0].getTupleDesc().numFields();
+                it = field < n ? children[0] : children[1];
+                field = field < n ? field : field - n;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the field of the table the filter tests
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Sets the Bloom filter the values of the field are tested against.
+     */
+    public void setBloomFilter(BloomFilter bloom) {
+        this.bloom = bloom;
+        filters.incrementAndGet();
+    }
+
+    /**
+     * @return true while the filter tests tuples
+     */
+    public boolean isActive() {
+        return bloom != null && !useless;
+    }
+
+    /**
+     * @return the number of tuples the filter tested
+     */
+    public long numTested() {
+        return tested;
+    }
+
+    /**
+     * @return the number of tuples the filter dropped
+     */
+    public long numRemoved() {
+        return removed;
+    }
+
+    private void count(long tested, long removed) {
+        this.tested += tested;
+        this.removed += removed;
+        if (this.tested >= SAMPLE && this.removed * 10 < this.tested && !useless)
+            useless = true;
+    }
+
+    /**
+     * @return true if the tuple's value of the field may be in the Bloom
+     *         filter
+     */
+    public boolean filter(Tuple t) {
+        if (!isActive())
+            return true;
+        boolean pass = bloom.mightContain(t.getField(field));
+        count(1, pass ? 0 : 1);
+        return pass;
+    }
+
+    /**
+     * Keeps the slots among the first n of slots whose value of the INT field
+     * in values may be in the Bloom filter, in order.
+     *
+     * @return the number of slots kept
+     */
+    public int select(int[] values, int[] slots, int n) {
+        if (!isActive())
+            return n;
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (bloom.mightContain(values[slots[i]]))
+                slots[k++] = slots[i];
+        }
+        count(n, n - k);
+        return k;
+    }
+
+    /**
+     * Keeps the slots among the first n of slots whose tuple's value of the
+     * field may be in the Bloom filter, in order.
+     *
+     * @return the number of slots kept
+     */
+    public int select(Tuple[] tuples, int[] slots, int n) {
+        if (!isActive())
+            return n;
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (bloom.mightContain(tuples[slots[i]].getField(field)))
+                slots[k++] = slots[i];
+        }
+        count(n, n - k);
+        return k;
+    }
+
+    /**
+     * Removes the filter from its scan and adds its counts to those of
+     * {@link #report()}.
+     */
+    public void detach() {
+        if (scan != null)
+            scan.removeRuntimeFilter(this);
+        scan = null;
+        totalTested.addAndGet(tested - flushedTested);
+        totalRemoved.addAndGet(removed - flushedRemoved);
+        flushedTested = tested;
+        flushedRemoved = removed;
+    }
+
+    /**
+     * @return a summary of the counters since the last reset
+     */
+    public static String report() {
+        return String.format("%d runtime filters; %d tuples tested, %d dropped",
+                filters.get(), totalTested.get(), totalRemoved.get());
+    }
+
+    public static long numFilters() {
+        return filters.get();
+    }
+
+    public static long numTestedTotal() {
+        return totalTested.get();
+    }
+
+    public static long numRemovedTotal() {
+        return totalRemoved.get();
+    }
+
+    /**
+     * Resets the counters of {@link #report()}.
+     */
+    public static void resetStatistics() {
+        filters.set(0);
+        totalTested.set(0);
+        totalRemoved.set(0);
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SecondaryIndex is a B+ tree over one column of a HeapFile. Unlike a
+ * BTreeFile table, which stores whole tuples, the tree stores one
+ * (key, page, slot) entry per heap tuple, where page and slot are the
+ * RecordId of the tuple in the heap. Entries are ordered by (key, page, slot)
+ * (the tree has tuple keys), so the entry of a heap tuple is found directly
+ * even when many tuples share its key. A table may have any number of
+ * secondary indexes; they are registered with the Catalog and kept up to
+ * date by BufferPool.insertTuple and BufferPool.deleteTuple.
+ * <p>
+ * Lookups read matching entries from the tree in batches, sort each batch by
+ * RecordId and then fetch the heap pages in page order, so every heap page
+ * is read at most once per batch no matter how the keys are scattered.
+ */
+public class SecondaryIndex {
+
+    /** Default number of RecordIds sorted and fetched together by a lookup. */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final HeapFile table;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Constructor.
+     *
+     * @param f
+     *            the file that stores the index entries
+     * @param table
+     *            the heap file being indexed
+     * @param field
+     *            the index of the indexed field in table's TupleDesc
+     */
+    public SecondaryIndex(File f, HeapFile table, int field) {
+        TupleDesc td = table.getTupleDesc();
+        if (field < 0 || field >= td.numFields())
+            throw new IllegalArgumentException("no field " + field + " in " + td);
+        this.table = table;
+        this.field = field;
+        TupleDesc entryTd = new TupleDesc(new Type[] { td.getFieldType(field),
+                Type.INT_TYPE, Type.INT_TYPE }, new String[] {
+                td.getFieldName(field), "page", "slot" });
+        this.file = new BTreeFile(f, 0, entryTd, true);
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return table.getId();
+    }
+
+    /**
+     * @return the index of the indexed field
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the B+ tree holding the (key, page, slot) entries; its id is
+     *         the id the Catalog knows the index by
+     */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the index entry for a tuple stored in the indexed table.
+     */
+    private Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /**
+     * Adds the entry for t, which must already have been inserted into the
+     * indexed table.
+     *
+     * @return the index pages that were dirtied
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, entry(t));
+    }
+
+    /**
+     * Removes the entry for t, which must still carry the RecordId it has in
+     * the indexed table.
+     *
+     * @return the index pages that were dirtied
+     * @throws DbException
+     *             if the index has no entry for t
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple found = file.findTuple(tid, entry(t));
+        if (found == null)
+            throw new DbException("tuple " + t.getRecordId() + " is not in the index");
+        return file.deleteTuple(tid, found);
+    }
+
+    /**
+     * Fills the index from the tuples already in the table with a bulk load.
+     * The index must be registered with the Catalog and should be empty. The
+     * entries are installed when tid commits.
+     */
+    public void build(TransactionId tid) throws DbException, IOException,
+            TransactionAbortedException {
+        if (table.numPages() == 0)
+            return;
+        file.bulkLoad(tid, new EntryScan(new SeqScan(tid, table.getId())), 1.0, false);
+    }
+
+    /**
+     * Returns the tuples of the indexed table whose indexed field satisfies
+     * ipred, using the default batch size. Tuples are returned in RecordId
+     * order within each batch, not in key order.
+     *
+     * @param ipred
+     *            the predicate to match, or null to return every indexed
+     *            tuple
+     */
+    public DbFileIterator lookup(TransactionId tid, IndexPredicate ipred) {
+        return lookup(tid, ipred, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Like {@link #lookup(TransactionId, IndexPredicate)}, sorting at most
+     * batchSize RecordIds at a time.
+     */
+    public DbFileIterator lookup(TransactionId tid, IndexPredicate ipred,
+            int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive");
+        return new LookupIterator(tid, ipred, batchSize);
+    }
+
+    /**
+     * Turns the tuples of a scan over the indexed table into index entries.
+     */
+    private class EntryScan extends Operator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator child;
+
+        EntryScan(DbIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return file.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            child.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? entry(child.next()) : null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    /**
+     * Reads a batch of entries, sorts their RecordIds (packed as page << 32 |
+     * slot) and fetches the heap tuples page by page.
+     */
+    private class LookupIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private final long[] batch;
+        private DbFileIterator entries;
+        private int size, pos;
+        private HeapPage page;
+
+        LookupIterator(TransactionId tid, IndexPredicate ipred, int batchSize) {
+            this.tid = tid;
+            this.ipred = ipred;
+            this.batch = new long[batchSize];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+            entries.open();
+            size = pos = 0;
+            page = null;
+        }
+
+        private boolean fill() throws DbException, TransactionAbortedException {
+            size = pos = 0;
+            while (size < batch.length && entries.hasNext()) {
+                Tuple e = entries.next();
+                long pgNo = e.getInt(1);
+                int slot = e.getInt(2);
+                batch[size++] = pgNo << 32 | slot;
+            }
+            Arrays.sort(batch, 0, size);
+            return size > 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (entries == null)
+                return null;
+            while (true) {
+                if (pos == size && !fill())
+                    return null;
+                long rid = batch[pos++];
+                int pgNo = (int) (rid >>> 32);
+                if (page == null || page.getId().pageNumber() != pgNo)
+                    page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+                Tuple t = page.getTuple((int) rid);
+                if (t != null)
+                    return t;
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (entries != null)
+                entries.close();
+            entries = null;
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan is an operator which reads the tuples of a heap table
+ * that match a predicate on an indexed field, by way of the table's
+ * SecondaryIndex on that field. Tuples are not returned in key order.
+ */
+public class SecondaryIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private TransactionId tid;
+    private int tableid;
+    private String alias;
+    private SecondaryIndex index;
+    private IndexPredicate ipred;
+    private TupleDesc myTd;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan over the tuples of the specified table whose field
+     * matches ipred.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser); the returned
+     *            tupleDesc should have fields with name tableAlias.fieldName
+     * @param field
+     *            the indexed field ipred applies to
+     * @param ipred
+     *            The index predicate to match. If null, the scan returns every
+     *            tuple in the index.
+     * @throws IllegalArgumentException
+     *             if the field has no secondary index
+     */
+    public SecondaryIndexScan(TransactionId tid, int tableid, String tableAlias,
+            int field, IndexPredicate ipred) {
+        this.index = Database.getCatalog().getIndex(tableid, field);
+        if (index == null)
+            throw new IllegalArgumentException("field " + field + " of table "
+                    + tableid + " has no secondary index");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        this.it = index.lookup(tid, ipred);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(types, names);
+    }
+
+    public SecondaryIndexScan(TransactionId tid, int tableid, int field,
+            IndexPredicate ipred) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), field, ipred);
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index this operator reads
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the index predicate this scan matches, or null if it returns
+     *         all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with the
+     *         tableAlias string from the constructor
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
@@ -13,6 +14,10 @@ public class SeqScan implements DbIterator {
     private TransactionId transactionId;
     private int tableid;
     private String tableAlias;
+    private List<Predicate> predicates;
+    private int[] columns;
+    /* the filters pushed down by the joins above the scan */
+    private final List<RuntimeFilter> runtimeFilters = new CopyOnWriteArrayList<RuntimeFilter>();
     private DbFileIterator iter;
 
     /**
@@ -33,10 +38,87 @@ public class SeqScan implements DbIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, Collections.<Predicate>emptyList(), null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of the table
+     * that pass all of the given predicates, holding only the given columns.
+     * Over a HeapFile the predicates are evaluated on each page before any
+     * tuple is built; tuples of other files are filtered and projected as
+     * they are read.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param predicates
+     *            predicates on the fields of the table, by their index in the
+     *            table
+     * @param columns
+     *            the indexes of the table's fields to return, in order, or
+     *            null for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> predicates, int[] columns) {
         transactionId = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        iter = Database.getCatalog().getDatabaseFile(tableid).iterator(transactionId);
+        this.predicates = Collections.unmodifiableList(new ArrayList<Predicate>(predicates));
+        this.columns = columns == null ? null : columns.clone();
+        iter = fileIterator();
+    }
+
+    private DbFileIterator fileIterator() {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (f instanceof HeapFile)
+            return ((HeapFile) f).iterator(transactionId, predicates, columns, runtimeFilters);
+        return new PushdownIterator(f.iterator(transactionId), predicates, columns,
+                f.getTupleDesc(), runtimeFilters);
+    }
+
+    /**
+     * Adds a filter the tuples of the scan must also pass; it applies to the
+     * tuples read after it was added.
+     */
+    void addRuntimeFilter(RuntimeFilter f) {
+        runtimeFilters.add(f);
+    }
+
+    void removeRuntimeFilter(RuntimeFilter f) {
+        runtimeFilters.remove(f);
+    }
+
+    /**
+     * @return the runtime filters pushed down to the scan
+     */
+    public List<RuntimeFilter> getRuntimeFilters() {
+        return Collections.unmodifiableList(runtimeFilters);
+    }
+
+    /**
+     * @return the predicates the scan evaluates, on the fields of the table
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @return the indexes of the table's fields the scan returns, or null if
+     *         it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the index in the table of field i of the returned tuples
+     */
+    public int tableField(int i) {
+        return columns == null ? i : columns[i];
     }
 
     /**
@@ -45,7 +127,21 @@ public class SeqScan implements DbIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return transactionId;
     }
 
     /**
@@ -72,7 +168,7 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        iter = Database.getCatalog().getDatabaseFile(tableid).iterator(transactionId);
+        iter = fileIterator();
         // some code goes here
     }
 
@@ -104,7 +200,8 @@ public class SeqScan implements DbIterator {
             type[i] = tmp.getFieldType(i);
             s[i] = tableAlias + "." + tmp.getFieldName(i);
         }
-        return new TupleDesc(type, s);
+        TupleDesc td = new TupleDesc(type, s);
+        return columns == null ? td : td.project(columns);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -128,4 +225,65 @@ public class SeqScan implements DbIterator {
         // some code goes here
         iter.rewind();
     }
+
+    /**
+     * Filters and projects the tuples of a file other than a HeapFile as they
+     * are read.
+     */
+    private static class PushdownIterator extends AbstractDbFileIterator {
+
+        private final DbFileIterator child;
+        private final CompiledPredicate test;
+        private final List<RuntimeFilter> runtimeFilters;
+        private final int[] columns;
+        private final TupleDesc projected;
+
+        PushdownIterator(DbFileIterator child, List<Predicate> predicates,
+                int[] columns, TupleDesc td, List<RuntimeFilter> runtimeFilters) {
+            this.child = child;
+            this.test = new CompiledPredicate(predicates, td);
+            this.runtimeFilters = runtimeFilters;
+            this.columns = columns;
+            this.projected = columns == null ? null : td.project(columns);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (!test.filter(t) || !passes(t))
+                    continue;
+                if (columns == null)
+                    return t;
+                Tuple result = new Tuple(projected);
+                for (int i = 0; i < columns.length; i++)
+                    result.setField(i, t.getField(columns[i]));
+                result.setRecordId(t.getRecordId());
+                return result;
+            }
+            return null;
+        }
+
+        private boolean passes(Tuple t) {
+            for (RuntimeFilter f : runtimeFilters) {
+                if (!f.filter(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            test.flushStatistics();
+        }
+    }
 }
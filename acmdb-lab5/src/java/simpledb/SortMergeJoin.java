@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order on
+ * their join fields, reading each of them once.
+ * <p>
+ * For an equality join the children are advanced in step; when a join value
+ * occurs more than once on the right, that run of right tuples is buffered
+ * and joined with every left tuple carrying the same value, so memory is
+ * bounded by the longest run of duplicates. For the range predicates one
+ * side drives the merge and the tuples of the other side that compare below
+ * its current value are buffered: with &gt; or &gt;= every left tuple joins the
+ * prefix of the right input read so far, and with &lt; or &lt;= every right tuple
+ * joins the prefix of the left input. Other predicates are not supported.
+ * <p>
+ * Use {@link #isSortedOn} to find out whether an input already has the order
+ * this operator needs.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate joinPredicate;
+    private DbIterator child1, child2;
+
+    /*
+     * The driving child is read one tuple at a time; tuples of the buffered
+     * child are kept in run. For EQUALS the left child drives and run holds
+     * the right tuples with key runKey; otherwise run holds the prefix of
+     * the buffered child that matches the current driving tuple.
+     */
+    private final boolean leftDrives;
+    private transient TupleDesc td;
+    private transient ArrayList<Tuple> run;
+    private transient Field runKey;
+    private transient Tuple pending;
+    private transient Tuple driver;
+    private transient int runPos;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation, sorted ascending on the
+     *            field p.getField1()
+     * @param child2
+     *            Iterator for the right relation, sorted ascending on the
+     *            field p.getField2()
+     * @throws IllegalArgumentException
+     *             if the predicate cannot be evaluated by merging
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canMerge(p.getOperator()))
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.leftDrives = p.getOperator() != Predicate.Op.LESS_THAN
+                && p.getOperator() != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if a join with the given operator can be evaluated by
+     *         merging inputs sorted on the join fields
+     */
+    public static boolean canMerge(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Returns true if the tuples the iterator produces are known to be sorted
+     * in ascending order on the given field: scans of a B+ tree on its key
+     * field, an ascending OrderBy on the field, and operators that keep such
+     * an order (Filter, the outer side of nested-loops and index joins, and
+     * the join fields of a SortMergeJoin).
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof SeqScan || it instanceof BTreeScan) {
+            int tableid = it instanceof SeqScan ? ((SeqScan) it).getTableId()
+                    : ((BTreeScan) it).getTableId();
+            if (it instanceof SeqScan)
+                field = ((SeqScan) it).tableField(field);
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof Join || it instanceof IndexNestedLoopJoin) {
+            DbIterator outer = ((Operator) it).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isSortedOn(outer, field);
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            JoinPredicate p = j.getJoinPredicate();
+            int right = j.child1.getTupleDesc().numFields() + p.getField2();
+            if (p.getOperator() == Predicate.Op.EQUALS)
+                return field == p.getField1() || field == right;
+            return j.leftDrives ? field == p.getField1() : field == right;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    private void reset() {
+        run = new ArrayList<Tuple>();
+        runKey = null;
+        pending = null;
+        driver = null;
+        runPos = 0;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        run = null;
+        pending = null;
+        driver = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(joinPredicate.getField1());
+    }
+
+    private Field key2(Tuple t) {
+        return t.getField(joinPredicate.getField2());
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Equality and &gt; joins return their results grouped by
+     * left tuple, in the order of the left input; &lt; joins return them
+     * grouped by right tuple.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (joinPredicate.getOperator() == Predicate.Op.EQUALS)
+            return fetchEquals();
+        return fetchRange();
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (driver != null && runPos < run.size())
+                return Tuple.merge(td, driver, run.get(runPos++));
+            if (!child1.hasNext())
+                return null;
+            driver = child1.next();
+            runPos = 0;
+            Field key = key1(driver);
+            if (runKey != null && runKey.compare(Predicate.Op.EQUALS, key))
+                continue; // another left tuple for the buffered run
+            // skip right tuples below the key, then buffer the run equal to it
+            run.clear();
+            runKey = key;
+            while (pending != null || child2.hasNext()) {
+                Tuple t = pending != null ? pending : child2.next();
+                pending = null;
+                Field k = key2(t);
+                if (k.compare(Predicate.Op.LESS_THAN, key))
+                    continue;
+                if (k.compare(Predicate.Op.EQUALS, key)) {
+                    run.add(t);
+                    continue;
+                }
+                pending = t;
+                break;
+            }
+        }
+    }
+
+    private Tuple fetchRange() throws TransactionAbortedException, DbException {
+        DbIterator driving = leftDrives ? child1 : child2;
+        DbIterator buffered = leftDrives ? child2 : child1;
+        // the buffered tuples matching a driving tuple t are those whose key
+        // compares below t's key (or equal to it, for the inclusive operators)
+        Predicate.Op op = joinPredicate.getOperator();
+        Predicate.Op below = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN
+                ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (driver != null && runPos < run.size()) {
+                Tuple t = run.get(runPos++);
+                return leftDrives ? Tuple.merge(td, driver, t) : Tuple.merge(td, t, driver);
+            }
+            if (!driving.hasNext())
+                return null;
+            driver = driving.next();
+            runPos = 0;
+            Field key = leftDrives ? key1(driver) : key2(driver);
+            while (pending != null || buffered.hasNext()) {
+                Tuple t = pending != null ? pending : buffered.next();
+                pending = null;
+                Field k = leftDrives ? key2(t) : key1(t);
+                if (!k.compare(below, key)) {
+                    pending = t;
+                    break;
+                }
+                run.add(t);
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -105,7 +106,8 @@ public class TableStats {
             max[i] = -2147483647;
             min[i] = 2147483647;
         }
-        DbFileIterator iter = file.iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator iter = file.iterator(tid);
         try {
             iter.open();
             while (iter.hasNext()) {
@@ -135,6 +137,14 @@ public class TableStats {
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // B+ tree scans lock pages READ_WRITE; release them for the queries
+            iter.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
     }
@@ -159,6 +169,43 @@ public class TableStats {
             return ((BTreeFile)file).numPages() * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of answering the predicate <tt>field op constant</tt>
+     * with a scan of the table's B+ tree index: one page per level to find the
+     * first matching leaf, then the matching fraction of the leaf pages, which
+     * are read in key order. Only tables stored in a BTreeFile can be scanned
+     * this way, and only on their key field with an equality or range predicate.
+     * 
+     * @param field
+     *            The field over which the predicate ranges
+     * @param op
+     *            The logical operation in the predicate
+     * @param constant
+     *            The value against which the field is compared
+     * @return The estimated cost of the index scan, or
+     *         Double.POSITIVE_INFINITY if the predicate cannot use the index
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!(file instanceof BTreeFile) || ((BTreeFile) file).keyField() != field)
+            return Double.POSITIVE_INFINITY;
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return Double.POSITIVE_INFINITY;
+        int pages = Math.max(1, ((BTreeFile) file).numPages());
+        double leaves = Math.max(1, Math.ceil(estimateSelectivity(field, op, constant) * pages));
+        return (estimateIndexHeight((BTreeFile) file) + leaves) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the number of internal levels of a B+ tree from its size and
+     * the number of keys that fit on an internal page.
+     */
+    public static int estimateIndexHeight(BTreeFile f) {
+        int pages = Math.max(1, f.numPages());
+        int fanout = BufferPool.getPageSize()
+                / (f.getTupleDesc().getFieldType(f.keyField()).getLen() + Type.INT_TYPE.getLen());
+        return (int) Math.ceil(Math.log(pages) / Math.log(Math.max(2, fanout)));
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
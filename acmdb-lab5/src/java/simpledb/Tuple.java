@@ -4,22 +4,36 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values of INT fields are kept in one int[], so that a tuple of INT
+ * fields is two small objects rather than a list of IntFields;
+ * {@link #getInt(int)} and {@link #setInt(int, int)} read and write them
+ * without boxing. Only the values of other types are kept as Field
+ * references. {@link #getField(int)} returns an IntField made from the int
+ * value for INT fields.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
+
+    /* marks a field set to null in refs */
+    private static final Field NULL = new IntField(0);
+
     private TupleDesc tupleDesc;
     private RecordId r = null;
-    private ArrayList<Field> allfield = new ArrayList<>();
+    /* the values of the fields held as ints */
+    private int[] ints;
+    /* the other fields, by index, or null if there are none */
+    private Field[] refs;
 
     /**
-     * Create a new tuple with the specified schema (type).
+     * Create a new tuple with the specified schema (type). Every field is
+     * initially an INT 0.
      *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
@@ -27,8 +41,7 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         tupleDesc = td;
-        for (int i = 0; i < td.numFields(); i++)
-            allfield.add(new IntField(0));
+        ints = new int[td.numFields()];
         // some code goes here
     }
 
@@ -69,19 +82,76 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        allfield.set(i, f);
         // some code goes here
+        if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+            return;
+        }
+        if (i < 0 || i >= ints.length)
+            throw new IndexOutOfBoundsException("no field " + i);
+        if (refs == null)
+            refs = new Field[ints.length];
+        refs[i] = f == null ? NULL : f;
     }
 
     /**
-     * @return the value of the ith field, or null if it has not been set.
+     * Sets the ith field of this tuple to an INT value.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     */
+    public void setInt(int i, int value) {
+        ints[i] = value;
+        if (refs != null)
+            refs[i] = null;
+    }
+
+    /**
+     * @return the value of the ith field, or null if it has been set to null.
      *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
         // some code goes here
-        return allfield.get(i);
+        if (refs != null && refs[i] != null)
+            return refs[i] == NULL ? null : refs[i];
+        return new IntField(ints[i]);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT value.
+     * @throws ClassCastException
+     *             if the field holds a value of another type
+     */
+    public int getInt(int i) {
+        if (refs != null && refs[i] != null)
+            return ((IntField) refs[i]).getValue();
+        return ints[i];
+    }
+
+    /**
+     * Returns a new tuple holding the fields of t1 followed by the fields of
+     * t2, without a RecordId.
+     *
+     * @param td
+     *            the schema of the new tuple, which must have as many fields
+     *            as t1 and t2 together
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.tupleDesc.numFields();
+        int n2 = t2.tupleDesc.numFields();
+        System.arraycopy(t1.ints, 0, t.ints, 0, n1);
+        System.arraycopy(t2.ints, 0, t.ints, n1, n2);
+        if (t1.refs != null || t2.refs != null) {
+            t.refs = new Field[t.ints.length];
+            if (t1.refs != null)
+                System.arraycopy(t1.refs, 0, t.refs, 0, n1);
+            if (t2.refs != null)
+                System.arraycopy(t2.refs, 0, t.refs, n1, n2);
+        }
+        return t;
     }
 
     /**
@@ -94,11 +164,13 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-        String s = "";
-        for (int i = 0; i < tupleDesc.numFields() - 1; i++)
-            s += allfield.get(i).toString() + "\t";
-        s += allfield.get(tupleDesc.numFields() - 1);
-        return s;
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            if (i > 0)
+                s.append('\t');
+            s.append(getField(i));
+        }
+        return s.toString();
     }
 
     /**
@@ -107,7 +179,10 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields() {
         // some code goes here
-        return allfield.iterator();
+        ArrayList<Field> fields = new ArrayList<Field>(tupleDesc.numFields());
+        for (int i = 0; i < tupleDesc.numFields(); i++)
+            fields.add(getField(i));
+        return fields.iterator();
     }
 
     /**
@@ -115,27 +190,26 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td) {
         tupleDesc = td;
-        for (int i = 0; i < td.numFields(); i++)
-            allfield.add(new IntField(0));
+        if (td.numFields() > ints.length) {
+            ints = Arrays.copyOf(ints, td.numFields());
+            if (refs != null)
+                refs = Arrays.copyOf(refs, td.numFields());
+        }
         // some code goes here
     }
 
     public boolean equals(Object o) {
         // some code goes here
-        Tuple td;
-        try {
-            td = (Tuple) o;
-        }
-        catch (Exception e) {
-            return  false;
-        }
-        if (td == null)
+        if (!(o instanceof Tuple))
             return false;
+        Tuple td = (Tuple) o;
         if (!td.tupleDesc.equals(this.tupleDesc))
             return false;
-        for (int i = 0; i < this.allfield.size(); ++i)
-            if (!this.getField(i).equals(td.getField(i)))
+        for (int i = 0; i < tupleDesc.numFields(); ++i) {
+            Field f = this.getField(i);
+            if (f == null ? td.getField(i) != null : !f.equals(td.getField(i)))
                 return false;
+        }
         return true;
     }
 }
@@ -0,0 +1,308 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of the same schema, stored
+ * by column: an INT column is a primitive int[], any other column an array
+ * of Fields. Rows are added at the end and numbered from 0; batch operators
+ * read and write the column arrays directly.
+ * <p>
+ * A selection vector marks which of the rows are part of the batch, so that
+ * a filter drops rows without moving any column values: the batch holds the
+ * {@link #numRows()} rows row(0), row(1), ... in increasing order. A batch
+ * with no selection vector holds all of its rows.
+ * <p>
+ * A view made by {@link #project(int[], TupleDesc)} shares the columns and
+ * the selection of the batch it was made from.
+ */
+public class TupleBatch {
+
+    /** Default number of rows per batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /* by column: ints for INT columns, fields for the others */
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final RecordId[] rids;
+
+    private int size;
+    /* the selected rows, or null if every row is selected */
+    private int[] sel;
+    private int selected;
+    private int[] selBuffer;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows
+     * @param capacity
+     *            the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+        rids = new RecordId[capacity];
+    }
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    private TupleBatch(TupleDesc td, TupleBatch source, int[] columns) {
+        this.td = td;
+        this.capacity = source.capacity;
+        ints = new int[columns.length][];
+        fields = new Field[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = source.ints[columns[i]];
+            fields[i] = source.fields[columns[i]];
+        }
+        rids = source.rids;
+        size = source.size;
+        sel = source.sel;
+        selected = source.selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows of this batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows added, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numRows() {
+        return sel == null ? size : selected;
+    }
+
+    /**
+     * @return the number of the i-th selected row
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Returns the numbers of the selected rows in increasing order, in the
+     * first {@link #numRows()} entries of the array. The array belongs to the
+     * batch; a filter may overwrite it with a subset of its entries and pass
+     * it to {@link #select(int[], int)}.
+     */
+    public int[] selection() {
+        if (sel == null) {
+            if (selBuffer == null)
+                selBuffer = new int[capacity];
+            for (int i = 0; i < size; i++)
+                selBuffer[i] = i;
+            return selBuffer;
+        }
+        return sel;
+    }
+
+    /**
+     * Keeps only rows[0..n) selected; they must be a subset of the selected
+     * rows, in increasing order.
+     */
+    public void select(int[] rows, int n) {
+        sel = rows;
+        selected = n;
+    }
+
+    /**
+     * Removes all the rows and the selection vector.
+     */
+    public void clear() {
+        size = 0;
+        sel = null;
+        selected = 0;
+    }
+
+    /**
+     * @return the values of INT column i, by row number
+     * @throws IllegalArgumentException
+     *             if the column is not an INT column
+     */
+    public int[] intColumn(int i) {
+        if (ints[i] == null)
+            throw new IllegalArgumentException("column " + i + " is not an INT column");
+        return ints[i];
+    }
+
+    /**
+     * @return the values of column i, by row number, if it is not an INT
+     *         column, or null for an INT column
+     */
+    public Field[] fieldColumn(int i) {
+        return fields[i];
+    }
+
+    public int getInt(int col, int row) {
+        return intColumn(col)[row];
+    }
+
+    /**
+     * @return the value of a column of a row as a Field; INT values are boxed
+     *         into a new IntField
+     */
+    public Field getField(int col, int row) {
+        return ints[col] != null ? new IntField(ints[col][row]) : fields[col][row];
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * Adds a row with all its values set to 0 or null and returns its number.
+     * The new row is selected.
+     */
+    public int addRow() {
+        return addRows(1);
+    }
+
+    /**
+     * Adds n rows, as {@link #addRow()} does, and returns the number of the
+     * first one.
+     */
+    public int addRows(int n) {
+        if (size + n > capacity)
+            throw new IllegalStateException("batch is full");
+        int first = size;
+        size += n;
+        for (int row = first; row < size; row++) {
+            if (sel != null)
+                sel[selected++] = row;
+            rids[row] = null;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null)
+                Arrays.fill(fields[i], first, size, null);
+        }
+        return first;
+    }
+
+    public void setInt(int col, int row, int value) {
+        intColumn(col)[row] = value;
+    }
+
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            fields[col][row] = f;
+    }
+
+    /**
+     * @return the RecordIds of the rows, by row number
+     */
+    public RecordId[] recordIdColumn() {
+        return rids;
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /**
+     * Adds the values and the RecordId of a tuple as a new row.
+     *
+     * @return the number of the new row
+     */
+    public int addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][row] = t.getInt(i);
+            else
+                fields[i][row] = t.getField(i);
+        }
+        rids[row] = t.getRecordId();
+        return row;
+    }
+
+    /**
+     * Copies the values of a row of another batch into the columns from
+     * column offset onwards of row of this batch.
+     */
+    public void copyRow(TupleBatch src, int srcRow, int row, int offset) {
+        for (int i = 0; i < src.ints.length; i++) {
+            if (src.ints[i] != null)
+                ints[offset + i][row] = src.ints[i][srcRow];
+            else
+                fields[offset + i][row] = src.fields[i][srcRow];
+        }
+    }
+
+    /**
+     * @return a new Tuple with the values and the RecordId of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                t.setInt(i, ints[i][row]);
+            else
+                t.setField(i, fields[i][row]);
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Returns a view of the given columns of this batch, which shares their
+     * values and the selection of this batch until either is changed.
+     *
+     * @param columns
+     *            the columns of this batch in the order of the view
+     * @param td
+     *            the schema of the view
+     */
+    public TupleBatch project(int[] columns, TupleDesc td) {
+        return new TupleBatch(td, this, columns);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numRows(); i++)
+            sb.append(getTuple(row(i))).append('\n');
+        return sb.toString();
+    }
+}
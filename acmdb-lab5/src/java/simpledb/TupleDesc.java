@@ -1,6 +1,5 @@
 package simpledb;
 
-import com.sun.xml.internal.bind.v2.model.core.ID;
 
 import java.io.Serializable;
 import java.util.*;
@@ -189,6 +188,23 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(tmptype,tmpname);
     }
 
+    /**
+     * Returns the TupleDesc of some of the fields of this one.
+     *
+     * @param fields
+     *            the indexes of the fields of the new TupleDesc, in order
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = getFieldType(fields[i]);
+            names[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import simpledb.Predicate.Op;
+
+/**
+ * The key of a B+ tree with tuple keys: all fields of a tuple, the key field
+ * first and then the others in order. Tuple keys are ordered field by field, so
+ * tuples with the same key field are ordered by their remaining fields, and the
+ * internal pages of such a tree store whole tuples as their keys.
+ * <p>
+ * Compared with any other Field, a TupleKey compares its key field only, so
+ * searching a tree with tuple keys for a plain key field value behaves like
+ * searching a tree keyed on that field alone.
+ *
+ * @see BTreeFile#hasTupleKeys()
+ */
+class TupleKey implements Field {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Field[] fields;
+	private final int keyField;
+
+	private TupleKey(Field[] fields, int keyField) {
+		this.fields = fields;
+		this.keyField = keyField;
+	}
+
+	/**
+	 * Build the key of a tuple.
+	 *
+	 * @param t - the tuple
+	 * @param keyField - the index of the key field of t
+	 */
+	public static TupleKey of(Tuple t, int keyField) {
+		Field[] fields = new Field[t.getTupleDesc().numFields()];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = t.getField(fieldAt(i, keyField));
+		}
+		return new TupleKey(fields, keyField);
+	}
+
+	/**
+	 * Read a key written by {@link #serialize(DataOutputStream)}.
+	 *
+	 * @param dis - the stream to read from
+	 * @param td - the tuple descriptor of the tree
+	 * @param keyField - the index of the key field of the tree
+	 */
+	public static TupleKey parse(DataInputStream dis, TupleDesc td, int keyField) throws ParseException {
+		Field[] fields = new Field[td.numFields()];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = td.getFieldType(fieldAt(i, keyField)).parse(dis);
+		}
+		return new TupleKey(fields, keyField);
+	}
+
+	/**
+	 * @return the index in the tuple of the i-th field of a key
+	 */
+	private static int fieldAt(int i, int keyField) {
+		if(i == 0) {
+			return keyField;
+		}
+		return i <= keyField ? i - 1 : i;
+	}
+
+	/**
+	 * Compare the key fields of two tuples, in key order.
+	 *
+	 * @return a negative number, zero or a positive number if t1 is less than,
+	 *         equal to or greater than t2
+	 */
+	public static int compare(Tuple t1, Tuple t2, int keyField) {
+		int n = t1.getTupleDesc().numFields();
+		for(int i = 0; i < n; i++) {
+			int f = fieldAt(i, keyField);
+			int cmp = compareFields(t1.getField(f), t2.getField(f));
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Compare a tuple with this key.
+	 *
+	 * @return a negative number, zero or a positive number if the key of t is
+	 *         less than, equal to or greater than this key
+	 */
+	public int compareTuple(Tuple t) {
+		for(int i = 0; i < fields.length; i++) {
+			int cmp = compareFields(t.getField(fieldAt(i, keyField)), fields[i]);
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return 0;
+	}
+
+	private static int compareFields(Field a, Field b) {
+		if(a.compare(Op.EQUALS, b)) {
+			return 0;
+		}
+		return a.compare(Op.LESS_THAN, b) ? -1 : 1;
+	}
+
+	/**
+	 * @return whether op holds between two values whose comparison returned cmp
+	 */
+	public static boolean holds(Op op, int cmp) {
+		switch(op) {
+		case EQUALS:
+			return cmp == 0;
+		case NOT_EQUALS:
+			return cmp != 0;
+		case GREATER_THAN:
+			return cmp > 0;
+		case GREATER_THAN_OR_EQ:
+			return cmp >= 0;
+		case LESS_THAN:
+			return cmp < 0;
+		case LESS_THAN_OR_EQ:
+			return cmp <= 0;
+		default:
+			throw new UnsupportedOperationException("cannot compare tuple keys with " + op);
+		}
+	}
+
+	public void serialize(DataOutputStream dos) throws IOException {
+		for(Field f : fields) {
+			f.serialize(dos);
+		}
+	}
+
+	public boolean compare(Op op, Field value) {
+		if(!(value instanceof TupleKey)) {
+			return fields[0].compare(op, value);
+		}
+		Field[] other = ((TupleKey) value).fields;
+		for(int i = 0; i < fields.length; i++) {
+			int cmp = compareFields(fields[i], other[i]);
+			if(cmp != 0) {
+				return holds(op, cmp);
+			}
+		}
+		return holds(op, 0);
+	}
+
+	/**
+	 * @return the type of the key field
+	 */
+	public Type getType() {
+		return fields[0].getType();
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(fields);
+	}
+
+	public boolean equals(Object o) {
+		if(!(o instanceof TupleKey)) {
+			return false;
+		}
+		return Arrays.equals(fields, ((TupleKey) o).fields);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("(");
+		for(int i = 0; i < fields.length; i++) {
+			if(i > 0) {
+				sb.append(", ");
+			}
+			sb.append(fields[i]);
+		}
+		return sb.append(")").toString();
+	}
+}
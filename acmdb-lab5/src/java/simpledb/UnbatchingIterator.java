@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * UnbatchingIterator returns the selected rows of the batches of a
+ * BatchIterator one Tuple at a time, so that batch operators can feed any
+ * operator and be the root of a plan.
+ */
+public class UnbatchingIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int next;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the batch iterator to read
+     */
+    public UnbatchingIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch iterator this one reads
+     */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || next == batch.numRows()) {
+            batch = child.nextBatch();
+            next = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(next++));
+    }
+
+    /**
+     * The batch operators below this one are not DbIterators, except for the
+     * input of a {@link BatchingIterator} child.
+     */
+    public DbIterator[] getChildren() {
+        if (child instanceof BatchingIterator)
+            return new DbIterator[] { ((BatchingIterator) child).getChild() };
+        return new DbIterator[0];
+    }
+
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the child of an unbatch is a batch operator");
+    }
+}
@@ -176,6 +176,155 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Several aggregates over the same pass, grouped by one column
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                              Aggregator.Op.AVG, Aggregator.Op.COUNT },
+        new int[] { 0 });
+    assertEquals(Utility.getTupleDesc(6), op.getTupleDesc());
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(6,
+        new int[] { 1, 12, 2, 6, 4, 3,
+                    3, 12, 2, 6, 4, 3,
+                    5, 7, 7, 7, 7, 1 }), op);
+  }
+
+  /**
+   * Grouping on two INT columns, and on a STRING and an INT column
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, -1, 5,
+                    1, 2, 6,
+                    1, -1, 7,
+                    -2, 2, 8 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }, new int[] { 0, 1 });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, -1, 12, 2,
+                    1, 2, 6, 1,
+                    -2, 2, 8, 1 }), op);
+    int count = 0;
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3, count);
+
+    scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 5,
+                       "a", 2, 6,
+                       "a", 1, 7,
+                       "b", 1, 8 });
+    op = new Aggregate(scan, new int[] { 2 },
+        new Aggregator.Op[] { Aggregator.Op.MAX }, new int[] { 1, 0 });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { 1, "a", 7,
+                       2, "a", 6,
+                       1, "b", 8 }), op);
+  }
+
+  /**
+   * Collects the result tuples of an operator as strings
+   */
+  private static java.util.HashSet<String> results(DbIterator op) throws Exception {
+    java.util.HashSet<String> set = new java.util.HashSet<String>();
+    op.open();
+    while (op.hasNext())
+      assertTrue(set.add(op.next().toString()));
+    op.close();
+    return set;
+  }
+
+  /**
+   * With a small memory budget groups are spilled to disk, and merging the
+   * partial aggregates gives the same results as aggregating in memory
+   */
+  @Test public void spillingAggregate() throws Exception {
+    int rows = 6000;
+    Object[] data = new Object[4 * rows];
+    java.util.Random rand = new java.util.Random(11);
+    for (int i = 0; i < rows; i++) {
+      int g = rand.nextInt(1500);
+      data[4 * i] = g - 700;
+      data[4 * i + 1] = g % 7;
+      data[4 * i + 2] = "s" + (g % 900);
+      data[4 * i + 3] = rand.nextInt(2000) - 1000;
+    }
+    int[] afields = { 3, 3, 3, 3, 3, 2 };
+    Aggregator.Op[] aops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                             Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.COUNT };
+    int[][] groupings = { { 0 }, { 1, 0 }, { 2 }, { 2, 1 } };
+    for (int[] gfields : groupings) {
+      java.util.HashSet<String> expected = results(new Aggregate(
+          TestUtil.createTupleList(4, data), afields, aops, gfields));
+      Aggregate op = new Aggregate(TestUtil.createTupleList(4, data), afields, aops, gfields, 2);
+      op.open();
+      assertTrue(op.numSpills() > 0);
+      op.close();
+      assertEquals(expected, results(op));
+
+      // results can be read again after a rewind
+      op.open();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      op.rewind();
+      while (op.hasNext()) {
+        op.next();
+        count--;
+      }
+      assertEquals(0, count);
+      op.close();
+    }
+  }
+
+  /**
+   * The parser hands every aggregate and GROUP BY field of a query to one
+   * Aggregate
+   */
+  @Test public void parseMultipleAggregates() throws Exception {
+    java.io.File file = java.io.File.createTempFile("agg", ".dat");
+    file.deleteOnExit();
+    Utility.createEmptyHeapFile(file.getAbsolutePath(), 3);
+    HeapFile f = new HeapFile(file, Utility.getTupleDesc(3, "field"));
+    Database.getCatalog().addTable(f, "agg_t");
+    TransactionId tid = new TransactionId();
+    int[][] rows = { { 1, 1, 5 }, { 1, 2, 6 }, { 1, 1, 7 }, { 2, 1, 8 } };
+    for (int[] row : rows) {
+      Tuple t = new Tuple(f.getTupleDesc());
+      for (int i = 0; i < row.length; i++)
+        t.setField(i, new IntField(row[i]));
+      Database.getBufferPool().insertTuple(tid, f.getId(), t);
+    }
+    java.util.HashMap<String, TableStats> stats = new java.util.HashMap<String, TableStats>();
+    stats.put("agg_t", new TableStats(f.getId(), 1000));
+
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.field2, sum(t.field2), t.field0, count(t.field1), sum(t.field2) "
+        + "FROM agg_t t GROUP BY t.field0, t.field2;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+    assertEquals(2, agg.aggregateOps().length);
+    assertEquals(2, agg.groupFields().length);
+    plan.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(5,
+        new int[] { 5, 5, 1, 1, 5,
+                    6, 6, 1, 1, 6,
+                    7, 7, 1, 1, 7,
+                    8, 8, 2, 1, 8 }), plan);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
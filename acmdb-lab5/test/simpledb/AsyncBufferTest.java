@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AsyncBufferTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(1);
+
+    /**
+     * Returns the ints below n, counting the tuples it produced, and throws a
+     * DbException instead of returning the tuple failAt
+     */
+    private static class Counter extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger produced = new AtomicInteger();
+        private final int n, failAt;
+        private int next;
+
+        Counter(int n, int failAt) {
+            this.n = n;
+            this.failAt = failAt;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return TD;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            next = 0;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            if (next == failAt)
+                throw new DbException("failed at " + next);
+            if (next == n)
+                return null;
+            produced.incrementAndGet();
+            return Utility.getHeapTuple(next++);
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+
+    @After public void disable() {
+        LogicalPlan.setAsyncBuffers(false);
+    }
+
+    /**
+     * The child's tuples are returned in order, also after a rewind
+     */
+    @Test public void order() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+        ArrayList<String> expected = TestUtil.tupleStrings(new SeqScan(tid, f.getId(), "t"));
+        AsyncBuffer buffer = new AsyncBuffer(new SeqScan(tid, f.getId(), "t"), 2);
+        assertEquals("async", buffer.getName());
+        assertEquals(expected, TestUtil.tupleStrings(buffer));
+
+        buffer.open();
+        for (int i = 0; i < 500; i++)
+            buffer.next();
+        buffer.rewind();
+        ArrayList<String> rewound = new ArrayList<String>();
+        while (buffer.hasNext())
+            rewound.add(buffer.next().toString());
+        buffer.close();
+        assertEquals(expected, rewound);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The worker reads ahead of the reader until the queue is full, and by
+     * at most a full queue and the batch it is waiting to add
+     */
+    @Test public void backpressure() throws Exception {
+        Counter child = new Counter(100000, -1);
+        AsyncBuffer buffer = new AsyncBuffer(child, 2);
+        buffer.open();
+        assertEquals(0, ((IntField) buffer.next().getField(0)).getValue());
+        // wait for the worker to fill the queue behind the batch the reader took
+        int ahead = -1;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            int produced = child.produced.get();
+            if (produced >= 3 * Exchange.BATCH_SIZE && produced == ahead)
+                break;
+            ahead = produced;
+            Thread.sleep(20);
+        }
+        assertTrue(ahead >= 3 * Exchange.BATCH_SIZE);
+        assertTrue(ahead <= 4 * Exchange.BATCH_SIZE);
+        int n = 1;
+        while (buffer.hasNext()) {
+            buffer.next();
+            n++;
+        }
+        assertEquals(100000, n);
+        // closing before the end stops the worker
+        buffer.rewind();
+        buffer.next();
+        buffer.close();
+    }
+
+    /**
+     * An exception of the child is thrown to the reader
+     */
+    @Test public void error() throws Exception {
+        AsyncBuffer buffer = new AsyncBuffer(new Counter(1000, 300));
+        buffer.open();
+        try {
+            while (buffer.hasNext())
+                buffer.next();
+            fail("expected the child's DbException");
+        } catch (DbException e) {
+            assertEquals("failed at 300", e.getMessage());
+        }
+        buffer.close();
+    }
+
+    private static void collect(DbIterator it, List<DbIterator> nodes) {
+        nodes.add(it);
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren())
+                collect(child, nodes);
+        }
+    }
+
+    /**
+     * When enabled, the planner reads the build sides of hash joins and the
+     * inputs of aggregates through AsyncBuffers, without changing results
+     */
+    @Test public void planned() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f1, "ab_a");
+        Database.getCatalog().addTable(f2, "ab_b");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ab_a", new TableStats(f1.getId(), 1000));
+        stats.put("ab_b", new TableStats(f2.getId(), 1000));
+        String[] queries = {
+                "SELECT a.c0, COUNT(a.c1) FROM ab_a a WHERE a.c1 > 100 GROUP BY a.c0;",
+                "SELECT a.c0, b.c1 FROM ab_a a, ab_b b WHERE a.c0 = b.c1 AND a.c1 < 50;" };
+
+        TransactionId tid = new TransactionId();
+        for (String query : queries) {
+            DbIterator plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+            ArrayList<DbIterator> nodes = new ArrayList<DbIterator>();
+            collect(plan, nodes);
+            for (DbIterator node : nodes)
+                assertFalse(node instanceof AsyncBuffer);
+            ArrayList<String> expected = TestUtil.tupleStrings(plan);
+            Collections.sort(expected);
+
+            LogicalPlan.setAsyncBuffers(true);
+            plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+            nodes.clear();
+            collect(plan, nodes);
+            int buffers = 0;
+            for (DbIterator node : nodes) {
+                if (node instanceof Aggregate || node instanceof HashEquiJoin)
+                    assertTrue(((Operator) node).getChildren()[0] instanceof AsyncBuffer);
+                if (node instanceof AsyncBuffer)
+                    buffers++;
+            }
+            assertEquals(1, buffers);
+            ArrayList<String> actual = TestUtil.tupleStrings(plan);
+            Collections.sort(actual);
+            assertEquals(query, expected, actual);
+            LogicalPlan.setAsyncBuffers(false);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AsyncBufferTest.class);
+    }
+}
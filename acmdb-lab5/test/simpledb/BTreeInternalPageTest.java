@@ -166,6 +166,36 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChildId()
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+
+		// the left child of each key is the right child of the key before it
+		assertEquals(1, page.findChildId(null).pageNumber());
+		assertEquals(1, page.findChildId(new IntField(0)).pageNumber());
+		assertEquals(1, page.findChildId(new IntField(1468)).pageNumber());
+		assertEquals(5, page.findChildId(new IntField(17197)).pageNumber());
+		assertEquals(7, page.findChildId(new IntField(17198)).pageNumber());
+		assertEquals(21, page.findChildId(new IntField(62779)).pageNumber());
+		assertEquals(BTreePageId.LEAF, page.findChildId(new IntField(0)).pgcateg());
+
+		// an empty page has no children
+		BTreeInternalPage empty = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		assertEquals(null, empty.findChildId(new IntField(0)));
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findPosition()
+	 */
+	@Test public void findPosition() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(1, page.findPosition(new IntField(1468), Predicate.Op.LESS_THAN));
+		assertEquals(2, page.findPosition(new IntField(1468), Predicate.Op.LESS_THAN_OR_EQ));
+		assertEquals(21, page.findPosition(new IntField(62778), Predicate.Op.LESS_THAN_OR_EQ));
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
@@ -185,6 +185,26 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.findPosition() and iterator(int)
+	 */
+	@Test public void findPosition() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+
+		// keys on the page in sorted order start with 1468, 3596, 6350, 9086, 17197, 17876
+		assertEquals(0, page.findPosition(new IntField(0), Predicate.Op.LESS_THAN));
+		assertEquals(0, page.findPosition(new IntField(1468), Predicate.Op.LESS_THAN));
+		assertEquals(1, page.findPosition(new IntField(1468), Predicate.Op.LESS_THAN_OR_EQ));
+		assertEquals(4, page.findPosition(new IntField(17197), Predicate.Op.LESS_THAN));
+		assertEquals(5, page.findPosition(new IntField(17198), Predicate.Op.LESS_THAN));
+		assertEquals(20, page.findPosition(new IntField(62779), Predicate.Op.LESS_THAN));
+
+		Iterator<Tuple> it = page.iterator(page.findPosition(new IntField(17197), Predicate.Op.LESS_THAN));
+		assertEquals(new IntField(17197), it.next().getField(0));
+		assertEquals(new IntField(17876), it.next().getField(0));
+		assertFalse(page.iterator(20).hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getNumEmptySlots()
 	 */
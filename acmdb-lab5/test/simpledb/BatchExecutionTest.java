@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] ALL_OPS = new Aggregator.Op[] {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    /**
+     * Filters narrow the selection vector, projections share the columns
+     */
+    @Test public void selection() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 4);
+        for (int i = 0; i < 4; i++)
+            batch.addTuple(Utility.getHeapTuple(new int[] { i, 10 * i }));
+        assertTrue(batch.isFull());
+        assertEquals(4, batch.numRows());
+
+        int[] sel = batch.selection();
+        sel[0] = 1;
+        sel[1] = 3;
+        batch.select(sel, 2);
+        assertEquals(2, batch.numRows());
+        assertEquals(4, batch.size());
+        assertEquals(3, batch.row(1));
+        assertEquals(30, batch.getInt(1, batch.row(1)));
+
+        TupleBatch view = batch.project(new int[] { 1 }, Utility.getTupleDesc(1));
+        assertEquals(2, view.numRows());
+        assertSame(batch.intColumn(1), view.intColumn(0));
+        assertEquals(Utility.getHeapTuple(new int[] { 10 }), view.getTuple(view.row(0)));
+
+        batch.clear();
+        assertEquals(0, batch.numRows());
+        batch.addTuple(Utility.getHeapTuple(new int[] { 5, 6 }));
+        assertEquals(1, batch.numRows());
+        assertEquals(new IntField(6), batch.getField(1, 0));
+    }
+
+    /**
+     * A batch scan, filter and projection return the tuples of the tuple
+     * operators, for every comparison operator and after a rewind
+     */
+    @Test public void scanFilterProject() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ }) {
+            Predicate p = new Predicate(1, op, new IntField(40));
+            HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new Project(fields, types,
+                    new Filter(p, new SeqScan(tid, f.getId(), "t"))));
+
+            BatchProject project = new BatchProject(fields, new BatchFilter(p,
+                    new BatchSeqScan(tid, f.getId(), "t", 100)));
+            UnbatchingIterator it = new UnbatchingIterator(project);
+            assertEquals(new Project(fields, types, new SeqScan(tid, f.getId(), "t"))
+                    .getTupleDesc(), it.getTupleDesc());
+            it.open();
+            assertEquals(expected, TestUtil.countTuples(it));
+            it.rewind();
+            assertEquals(expected, TestUtil.countTuples(it));
+            it.close();
+        }
+
+        // a predicate nothing passes
+        UnbatchingIterator it = new UnbatchingIterator(new BatchFilter(new Predicate(0,
+                Predicate.Op.LESS_THAN, new IntField(-1)), new BatchSeqScan(tid, f.getId(), "t")));
+        it.open();
+        assertTrue(TestUtil.checkExhausted(it));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static String location(RecordId rid) {
+        return rid.getPageId().pageNumber() + ":" + rid.tupleno();
+    }
+
+    /**
+     * Scanned rows keep their RecordIds, so tuple operators that need them
+     * can sit over batch operators
+     */
+    @Test public void recordIds() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 600, 50, null,
+                new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        HashSet<String> expected = new HashSet<String>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext())
+            expected.add(location(scan.next().getRecordId()));
+        scan.close();
+
+        HashSet<String> actual = new HashSet<String>();
+        UnbatchingIterator it = new UnbatchingIterator(new BatchSeqScan(tid, f.getId(), "t", 64));
+        it.open();
+        while (it.hasNext())
+            actual.add(location(it.next().getRecordId()));
+        it.close();
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The batch join returns the tuples of HashEquiJoin, on INT and STRING
+     * join fields, with output batches smaller than the matches of a row
+     */
+    @Test public void hashJoin() throws Exception {
+        int[] data1 = TestUtil.randomInts(2 * 3000, 0, 300, 1);
+        int[] data2 = TestUtil.randomInts(3 * 2000, 0, 300, 2);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new HashEquiJoin(p,
+                TestUtil.createTupleList(2, data1), TestUtil.createTupleList(3, data2)));
+        BatchHashEquiJoin join = new BatchHashEquiJoin(p,
+                new BatchingIterator(TestUtil.createTupleList(2, data1), 100),
+                new BatchingIterator(TestUtil.createTupleList(3, data2), 70), 7);
+        UnbatchingIterator it = new UnbatchingIterator(join);
+        assertEquals(Utility.getTupleDesc(5), it.getTupleDesc());
+        it.open();
+        assertEquals(expected, TestUtil.countTuples(it));
+        it.rewind();
+        assertEquals(expected, TestUtil.countTuples(it));
+        it.close();
+
+        Object[] strings1 = new Object[2 * 500];
+        Object[] strings2 = new Object[2 * 500];
+        Random rand = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            strings1[2 * i] = "k" + rand.nextInt(60);
+            strings1[2 * i + 1] = i;
+            strings2[2 * i] = i;
+            strings2[2 * i + 1] = "k" + rand.nextInt(60);
+        }
+        p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        expected = TestUtil.openAndCountTuples(new HashEquiJoin(p,
+                TestUtil.createTupleList(2, strings1), TestUtil.createTupleList(2, strings2)));
+        assertEquals(expected, TestUtil.openAndCountTuples(new UnbatchingIterator(
+                new BatchHashEquiJoin(p, new BatchingIterator(TestUtil.createTupleList(2, strings1)),
+                        new BatchingIterator(TestUtil.createTupleList(2, strings2))))));
+
+        // an empty build side joins nothing
+        it = new UnbatchingIterator(new BatchHashEquiJoin(p,
+                new BatchingIterator(TestUtil.createTupleList(2, new int[0])),
+                new BatchingIterator(TestUtil.createTupleList(2, data1))));
+        it.open();
+        assertTrue(TestUtil.checkExhausted(it));
+        it.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeJoin() {
+        new BatchHashEquiJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new BatchingIterator(TestUtil.createTupleList(1, new int[0])),
+                new BatchingIterator(TestUtil.createTupleList(1, new int[0])));
+    }
+
+    /**
+     * The batch aggregate returns the results of Aggregate, with and without
+     * grouping, and when its groups are spilled
+     */
+    @Test public void aggregate() throws Exception {
+        int[] data = TestUtil.randomInts(3 * 4000, 0, 500, 4);
+        int[] afields = new int[] { 1, 1, 2, 2, 2 };
+        for (int[] gfields : new int[][] { {}, { 0 }, { 0, 2 }, { 0, 1, 2 } }) {
+            HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new Aggregate(
+                    TestUtil.createTupleList(3, data), afields, ALL_OPS, gfields));
+            UnbatchingIterator it = new UnbatchingIterator(new BatchAggregate(
+                    new BatchingIterator(TestUtil.createTupleList(3, data), 256),
+                    afields, ALL_OPS, gfields));
+            it.open();
+            assertEquals(expected, TestUtil.countTuples(it));
+            it.rewind();
+            assertEquals(expected, TestUtil.countTuples(it));
+            it.close();
+        }
+
+        int[] gfields = new int[] { 0 };
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new Aggregate(
+                TestUtil.createTupleList(3, data), afields, ALL_OPS, gfields));
+        assertEquals(expected, TestUtil.openAndCountTuples(new UnbatchingIterator(new BatchAggregate(
+                new BatchingIterator(TestUtil.createTupleList(3, data)),
+                afields, ALL_OPS, gfields, 1))));
+    }
+
+    /**
+     * Batch and tuple operators mix through the adapters
+     */
+    @Test public void mixedPlan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 50, null,
+                new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        int[] afields = new int[] { 1 };
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM };
+        int[] gfields = new int[] { 0 };
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(20));
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new Aggregate(
+                new Filter(p, new SeqScan(tid, f.getId(), "t")), afields, aops, gfields));
+
+        // tuple filter between a batch scan and a batch aggregate
+        BatchIterator plan = new BatchAggregate(new BatchingIterator(new Filter(p,
+                new UnbatchingIterator(new BatchSeqScan(tid, f.getId(), "t")))),
+                afields, aops, gfields);
+        assertEquals(expected, TestUtil.openAndCountTuples(new UnbatchingIterator(plan)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
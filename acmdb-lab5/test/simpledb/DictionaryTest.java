@@ -0,0 +1,273 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DictionaryTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final int ROWS = 3000;
+
+    private File dir;
+    private HeapFile plain;
+    private HeapFile encoded;
+
+    /**
+     * Writes a table of (id, name) rows with 50 distinct names, as a plain
+     * HeapFile and as a table with name encoded loaded through the catalog
+     */
+    @Before public void createTables() throws Exception {
+        dir = File.createTempFile("dict", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File text = new File(dir, "t.txt");
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        Random rand = new Random(5);
+        for (int i = 0; i < ROWS; i++)
+            out.println(i + ",name" + rand.nextInt(50));
+        out.close();
+        File plainFile = new File(dir, "plain.dat");
+        HeapFileEncoder.convert(text, plainFile, BufferPool.getPageSize(), 2, TYPES);
+        HeapFileEncoder.convert(text, new File(dir, "t.dat"), BufferPool.getPageSize(), 2, TYPES);
+        File catalog = new File(dir, "catalog.txt");
+        out = new PrintWriter(new FileWriter(catalog));
+        out.println("t (id int, name string dict)");
+        out.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        encoded = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("t"));
+        plain = new HeapFile(plainFile, new TupleDesc(TYPES, new String[] { "id", "name" }));
+        Database.getCatalog().addTable(plain, "plain");
+    }
+
+    /**
+     * Loading the table encodes its file: it holds the same tuples,
+     * with the names as DictionaryFields, on fewer pages
+     */
+    @Test public void encodeFile() throws Exception {
+        Dictionary dict = encoded.getDictionary();
+        assertNotNull(dict);
+        assertTrue(dict.isEncoded(1));
+        assertFalse(dict.isEncoded(0));
+        assertEquals(50, dict.size(1));
+        assertTrue(new File(dir, "t.dict").exists());
+        assertTrue(encoded.numPages() < plain.numPages());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(TestUtil.sortedTupleStrings(new SeqScan(tid, plain.getId(), "")),
+                TestUtil.sortedTupleStrings(new SeqScan(tid, encoded.getId(), "")));
+        DbFileIterator it = encoded.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        DictionaryField name = (DictionaryField) t.getField(1);
+        assertEquals(name.getValue(), dict.decode(1, name.getCode()));
+        assertEquals(new StringField(name.getValue(), Type.STRING_LEN), name);
+        assertEquals(new StringField(name.getValue(), Type.STRING_LEN).hashCode(), name.hashCode());
+    }
+
+    /**
+     * Equalities on an encoded field are pushed down to the codes, including
+     * values the dictionary does not hold
+     */
+    @Test public void pushdown() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (String value : new String[] { "name7", "missing" }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                    Predicate.Op.LESS_THAN, Predicate.Op.LIKE }) {
+                Predicate p = new Predicate(1, op, new StringField(value, Type.STRING_LEN));
+                ArrayList<String> expected = TestUtil.sortedTupleStrings(
+                        new Filter(p, new SeqScan(tid, plain.getId(), "")));
+                assertEquals(expected, TestUtil.sortedTupleStrings(new SeqScan(tid, encoded.getId(), "",
+                        Arrays.asList(p), null)));
+            }
+        }
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("missing", Type.STRING_LEN));
+        assertEquals(0, TestUtil.sortedTupleStrings(
+                new SeqScan(tid, encoded.getId(), "", Arrays.asList(p), null)).size());
+    }
+
+    /**
+     * Joins and grouping on an encoded field give the results they give on
+     * the plain strings
+     */
+    @Test public void joinAndGroup() throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate eq = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(200));
+        assertEquals(
+                TestUtil.sortedTupleStrings(new HashEquiJoin(eq,
+                        new Filter(small, new SeqScan(tid, plain.getId(), "a")),
+                        new SeqScan(tid, plain.getId(), "b"))),
+                TestUtil.sortedTupleStrings(new HashEquiJoin(eq,
+                        new Filter(small, new SeqScan(tid, encoded.getId(), "a")),
+                        new SeqScan(tid, encoded.getId(), "b"))));
+        assertEquals(
+                TestUtil.sortedTupleStrings(new Aggregate(new SeqScan(tid, plain.getId(), ""),
+                        0, 1, Aggregator.Op.COUNT)),
+                TestUtil.sortedTupleStrings(new Aggregate(new SeqScan(tid, encoded.getId(), ""),
+                        0, 1, Aggregator.Op.COUNT)));
+    }
+
+    /**
+     * Inserting a new value gives it the next code, which is logged so that
+     * the dictionary reopened from its file gives the same codes
+     */
+    @Test public void insert() throws Exception {
+        Dictionary dict = encoded.getDictionary();
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(encoded.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new StringField("newname", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, encoded.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(51, dict.size(1));
+        assertEquals(50, dict.lookup(1, "newname"));
+
+        tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("newname", Type.STRING_LEN));
+        ArrayList<String> found = TestUtil.sortedTupleStrings(
+                new SeqScan(tid, encoded.getId(), "", Arrays.asList(p), null));
+        assertEquals(1, found.size());
+        assertTrue(found.get(0).contains("newname"));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Dictionary reopened = new Dictionary(dict.getFile(), encoded.getTupleDesc(), new int[] { 1 });
+        assertEquals(51, reopened.size(1));
+        for (int code = 0; code < 51; code++)
+            assertEquals(dict.decode(1, code), reopened.decode(1, code));
+        try {
+            new Dictionary(dict.getFile(), encoded.getTupleDesc(), new int[] { 0 });
+            fail("an INT field cannot be encoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A partly written last entry, cut short or with a malformed value, is
+     * truncated when the dictionary is opened, and new values are logged
+     * after the last complete entry
+     */
+    @Test public void partialEntry() throws Exception {
+        TupleDesc td = encoded.getTupleDesc();
+        File f = new File(dir, "partial.dict");
+        long complete = encoded.getDictionary().getFile().length();
+        byte[][] tails = new byte[][] {
+                { 0, 0, 0, 1, 0, 10, 'n', 'a' },
+                { 0, 0, 0 },
+                { 0, 0, 0, 1, 0, 2, (byte) 0xc0, 0 } };
+        for (byte[] tail : tails) {
+            Files.copy(encoded.getDictionary().getFile().toPath(), f.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            FileOutputStream out = new FileOutputStream(f, true);
+            out.write(tail);
+            out.close();
+            Dictionary dict = new Dictionary(f, td, new int[] { 1 });
+            assertEquals(50, dict.size(1));
+            assertEquals(complete, f.length());
+            assertEquals(50, dict.encode(1, "newname"));
+            dict.close();
+            Dictionary reopened = new Dictionary(f, td, new int[] { 1 });
+            assertEquals(51, reopened.size(1));
+            assertEquals("newname", reopened.decode(1, 50));
+        }
+    }
+
+    /**
+     * Adding dict to an indexed table encodes it, which moves its tuples, so
+     * its index is rebuilt and lookups still find the right tuples
+     */
+    @Test public void encodeIndexedTable() throws Exception {
+        Files.copy(plain.getFile().toPath(), new File(dir, "u.dat").toPath());
+        File catalog = new File(dir, "u.txt");
+        PrintWriter out = new PrintWriter(new FileWriter(catalog));
+        out.println("u (id int idx, name string)");
+        out.close();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertTrue(new File(dir, "u.id.idx").length() > 0);
+
+        HashMap<Integer, String> rows = new HashMap<Integer, String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = plain.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.put(((IntField) t.getField(0)).getValue(), t.toString());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.reset();
+        out = new PrintWriter(new FileWriter(catalog));
+        out.println("u (id int idx, name string dict)");
+        out.close();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("u");
+        HeapFile u = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        assertNotNull(u.getDictionary());
+        assertTrue(u.numPages() < plain.numPages());
+
+        SecondaryIndex index = Database.getCatalog().getIndex(tableId, 0);
+        tid = new TransactionId();
+        for (int id = 0; id < ROWS; id += 97) {
+            it = index.lookup(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(id)));
+            it.open();
+            assertTrue(it.hasNext());
+            assertEquals(rows.get(id), it.next().toString());
+            assertFalse(it.hasNext());
+            it.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An encoding interrupted before its dictionary is installed is redone
+     * from the unencoded file; one interrupted after it is finished from the
+     * encoded pages it left
+     */
+    @Test public void recoverEncode() throws Exception {
+        File plainFile = plain.getFile();
+        File encodedFile = new File(dir, "t.dat");
+        File encodedDict = new File(dir, "t.dict");
+        int[] fields = new int[] { 1 };
+
+        File redone = new File(dir, "redone.dat");
+        Files.copy(plainFile.toPath(), redone.toPath());
+        new FileOutputStream(redone.getPath() + ".tmp").close();
+        new FileOutputStream(dir + "/redone.dict.tmp").close();
+        Dictionary dict = HeapFile.openDictionary(redone, plain.getTupleDesc(), new File(dir, "redone.dict"), fields);
+        assertEquals(50, dict.size(1));
+        assertArrayEquals(Files.readAllBytes(encodedFile.toPath()), Files.readAllBytes(redone.toPath()));
+        assertFalse(new File(redone.getPath() + ".tmp").exists());
+        assertFalse(new File(dir, "redone.dict.tmp").exists());
+
+        File finished = new File(dir, "finished.dat");
+        Files.copy(plainFile.toPath(), finished.toPath());
+        Files.copy(encodedFile.toPath(), new File(finished.getPath() + ".tmp").toPath());
+        Files.copy(encodedDict.toPath(), new File(dir, "finished.dict").toPath());
+        dict = HeapFile.openDictionary(finished, plain.getTupleDesc(), new File(dir, "finished.dict"), fields);
+        assertEquals(50, dict.size(1));
+        assertArrayEquals(Files.readAllBytes(encodedFile.toPath()), Files.readAllBytes(finished.toPath()));
+        assertFalse(new File(finished.getPath() + ".tmp").exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExpressionCompilerTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private static Tuple tuple(int a, String b, int c) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    private static ArrayList<Tuple> tuples() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random rand = new Random(9);
+        for (int i = 0; i < 200; i++)
+            tuples.add(tuple(rand.nextInt(20) - 10, "s" + rand.nextInt(30), rand.nextInt(20) - 10));
+        return tuples;
+    }
+
+    @After public void enable() {
+        ExpressionCompiler.setEnabled(true);
+    }
+
+    /**
+     * Compiled predicates agree with Predicate.filter for every operator, on
+     * INT and STRING fields
+     */
+    @Test public void predicates() {
+        ArrayList<Tuple> tuples = tuples();
+        Field[] operands = new Field[] { new IntField(0), new StringField("s1", Type.STRING_LEN),
+                new IntField(-3) };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int f = 0; f < 3; f++) {
+                Predicate p = new Predicate(f, op, operands[f]);
+                CompiledPredicate c = new CompiledPredicate(p, TD);
+                assertTrue(c.isCompiled());
+                for (Tuple t : tuples)
+                    assertEquals(p.filter(t), c.filter(t));
+            }
+        }
+    }
+
+    /**
+     * A conjunction holds when all of its predicates hold
+     */
+    @Test public void conjunction() {
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-2));
+        Predicate p2 = new Predicate(1, Predicate.Op.LIKE, new StringField("1", Type.STRING_LEN));
+        Predicate p3 = new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(4));
+        CompiledPredicate c = new CompiledPredicate(Arrays.asList(p1, p2, p3), TD);
+        assertTrue(c.isCompiled());
+        int passed = 0;
+        for (Tuple t : tuples()) {
+            boolean expected = p1.filter(t) && p2.filter(t) && p3.filter(t);
+            assertEquals(expected, c.filter(t));
+            if (expected)
+                passed++;
+        }
+        assertTrue(passed > 0);
+
+        // the empty conjunction holds for every tuple
+        c = new CompiledPredicate(new ArrayList<Predicate>(), TD);
+        assertTrue(c.filter(tuple(0, "", 0)));
+    }
+
+    /**
+     * Compiled join predicates agree with JoinPredicate.filter
+     */
+    @Test public void joinPredicates() {
+        ArrayList<Tuple> tuples = tuples();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int[] fields : new int[][] { { 0, 2 }, { 1, 1 } }) {
+                JoinPredicate p = new JoinPredicate(fields[0], op, fields[1]);
+                CompiledJoinPredicate c = new CompiledJoinPredicate(p, TD, TD);
+                assertTrue(c.isCompiled());
+                for (int i = 1; i < tuples.size(); i++)
+                    assertEquals(p.filter(tuples.get(i - 1), tuples.get(i)),
+                            c.filter(tuples.get(i - 1), tuples.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Predicates that cannot be compiled, or any while compilation is
+     * disabled, are interpreted and counted as such
+     */
+    @Test public void fallback() {
+        ExpressionCompiler.resetStatistics();
+        Predicate mismatch = new Predicate(1, Predicate.Op.EQUALS, new IntField(3));
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3));
+        assertFalse(new CompiledPredicate(Arrays.asList(p, mismatch), TD).isCompiled());
+        assertFalse(new CompiledJoinPredicate(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                TD, TD).isCompiled());
+        assertEquals(2, ExpressionCompiler.numInterpreted());
+
+        ExpressionCompiler.setEnabled(false);
+        CompiledPredicate c = new CompiledPredicate(p, TD);
+        assertFalse(c.isCompiled());
+        assertTrue(c.filter(tuple(1, "a", 1)));
+        assertFalse(c.filter(tuple(5, "a", 1)));
+        assertEquals(3, ExpressionCompiler.numInterpreted());
+        assertEquals(0, ExpressionCompiler.numCompiled());
+    }
+
+    /**
+     * Evaluations of compiled predicates are counted when operators close
+     */
+    @Test public void statistics() throws Exception {
+        ExpressionCompiler.resetStatistics();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3)),
+                TestUtil.createTupleList(2, new int[] { 1, 1, 4, 2, 7, 3 }));
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        assertEquals(2, n);
+        assertEquals(1, ExpressionCompiler.numCompiled());
+        assertEquals(3, ExpressionCompiler.numEvaluations());
+        assertTrue(ExpressionCompiler.report().startsWith("1 predicates compiled"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExpressionCompilerTest.class);
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+    private int checkSorted(ExternalSort sort, int field) throws Exception {
+        DbFileIterator it = sort.iterator();
+        it.open();
+        int count = 0;
+        int prev = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(field)).getValue();
+            assertTrue(v >= prev);
+            prev = v;
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private void addRandom(ExternalSort sort, int n) throws Exception {
+        Random rand = new Random(7);
+        for (int i = 0; i < n; i++)
+            sort.add(Utility.getHeapTuple(new int[] { rand.nextInt(10000), i }));
+    }
+
+    /**
+     * Input that fits in the memory budget never touches disk
+     */
+    @Test public void inMemory() throws Exception {
+        ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2),
+                new TupleComparator(0, true));
+        addRandom(sort, 1000);
+        assertEquals(0, sort.numRuns());
+        assertEquals(1000, checkSorted(sort, 0));
+        sort.close();
+    }
+
+    /**
+     * A one page budget holds 512 two-field tuples, so 5000 tuples spill 9 runs
+     * and the rest is merged from memory
+     */
+    @Test public void spillsRuns() throws Exception {
+        ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2),
+                new TupleComparator(0, true), 1);
+        addRandom(sort, 5000);
+        assertEquals(9, sort.numRuns());
+        assertEquals(5000, checkSorted(sort, 0));
+
+        // the merge can be read more than once
+        DbFileIterator it = sort.iterator();
+        it.open();
+        it.next();
+        it.rewind();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(5000, count);
+        sort.close();
+    }
+
+    /**
+     * Sorts on the first field descending and breaks ties on the second field
+     * ascending, both in memory and when merging spilled runs
+     */
+    @Test public void multipleKeys() throws Exception {
+        for (int pages : new int[] { ExternalSort.DEFAULT_MEMORY_PAGES, 1 }) {
+            ExternalSort sort = new ExternalSort(Utility.getTupleDesc(2),
+                    new int[] { 0, 1 }, new boolean[] { false, true }, pages);
+            Random rand = new Random(3);
+            for (int i = 0; i < 3000; i++)
+                sort.add(Utility.getHeapTuple(new int[] { rand.nextInt(50), rand.nextInt(1000) }));
+            assertEquals(pages == 1, sort.numRuns() > 0);
+
+            DbFileIterator it = sort.iterator();
+            it.open();
+            int count = 0;
+            Tuple prev = null;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (prev != null) {
+                    int a0 = ((IntField) prev.getField(0)).getValue();
+                    int b0 = ((IntField) t.getField(0)).getValue();
+                    assertTrue(a0 >= b0);
+                    if (a0 == b0)
+                        assertTrue(((IntField) prev.getField(1)).getValue()
+                                <= ((IntField) t.getField(1)).getValue());
+                }
+                prev = t;
+                count++;
+            }
+            it.close();
+            sort.close();
+            assertEquals(3000, count);
+        }
+    }
+
+    /**
+     * String keys survive the compact run format, and equal keys keep the
+     * order they were added in
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        ExternalSort sort = new ExternalSort(td, new int[] { 0 }, new boolean[] { true }, 1);
+        Random rand = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + rand.nextInt(40), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            sort.add(t);
+        }
+        assertTrue(sort.numRuns() > 1);
+
+        DbFileIterator it = sort.iterator();
+        it.open();
+        int count = 0;
+        Tuple prev = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (prev != null) {
+                int c = ((StringField) prev.getField(0)).getValue().compareTo(
+                        ((StringField) t.getField(0)).getValue());
+                assertTrue(c <= 0);
+                if (c == 0)
+                    assertTrue(((IntField) prev.getField(1)).getValue()
+                            < ((IntField) t.getField(1)).getValue());
+            }
+            prev = t;
+            count++;
+        }
+        it.close();
+        sort.close();
+        assertEquals(500, count);
+    }
+
+    /**
+     * OrderBy sorts on several fields through an external sort and can be
+     * rewound
+     */
+    @Test public void orderByMultipleKeys() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2,
+            new int[] { 2, 1,
+                        1, 5,
+                        2, 3,
+                        1, 7,
+                        3, 0 });
+        DbIterator expected = TestUtil.createTupleList(2,
+            new int[] { 3, 0,
+                        2, 3,
+                        2, 1,
+                        1, 7,
+                        1, 5 });
+        OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, false }, child, 1);
+        op.open();
+        expected.open();
+        TestUtil.matchAllTuples(expected, op);
+        op.rewind();
+        expected.rewind();
+        while (expected.hasNext())
+            assertTrue(TestUtil.compareTuples(expected.next(), op.next()));
+        assertFalse(op.hasNext());
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
@@ -5,11 +5,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import java.util.ArrayList;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Random;
 
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -45,6 +47,10 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
 
   }
 
+  @After public void resetPageSize() {
+    BufferPool.resetPageSize();
+  }
+
   /**
    * Unit test for Join.getTupleDesc()
    */
@@ -130,6 +136,77 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /**
+   * Creates a tuple list of n two-int tuples whose first field is drawn from
+   * [0, keys)
+   */
+  private static TupleIterator randomTuples(Random rand, int n, int keys) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = rand.nextInt(keys);
+      values[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  private static HashMap<String, Integer> results(DbIterator op) throws Exception {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    while (op.hasNext()) {
+      String t = op.next().toString();
+      Integer c = counts.get(t);
+      counts.put(t, c == null ? 1 : c + 1);
+    }
+    return counts;
+  }
+
+  /**
+   * With a build side many times larger than the memory budget, partitions
+   * are spilled and joined recursively, and the join still produces what
+   * the nested loops join does, also after a rewind
+   */
+  @Test public void spillingJoin() throws Exception {
+    BufferPool.setPageSize(64); // 8 two-int tuples per page
+    Random rand = new Random(4);
+    TupleIterator left = randomTuples(rand, 2000, 300);
+    TupleIterator right = randomTuples(rand, 1500, 300);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    Join expected = new Join(pred, left, right);
+    expected.open();
+    HashMap<String, Integer> expectedResults = results(expected);
+    expected.close();
+
+    HashEquiJoin op = new HashEquiJoin(pred, left, right, 4);
+    op.open();
+    assertTrue(op.numSpilledPartitions() > 0);
+    assertEquals(expectedResults, results(op));
+    op.rewind();
+    assertEquals(expectedResults, results(op));
+    op.close();
+  }
+
+  /**
+   * A single join value with more build tuples than fit in memory cannot be
+   * split by repartitioning; the join falls back to block nested loops
+   */
+  @Test public void spillingSkewedJoin() throws Exception {
+    BufferPool.setPageSize(64);
+    Random rand = new Random(5);
+    TupleIterator left = randomTuples(rand, 500, 1);
+    TupleIterator right = randomTuples(rand, 20, 1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    HashEquiJoin op = new HashEquiJoin(pred, left, right, 2);
+    op.open();
+    int cnt = 0;
+    while (op.hasNext()) {
+      op.next();
+      cnt++;
+    }
+    op.close();
+    assertEquals(500 * 20, cnt);
+  }
+
   /**
    * JUnit suite target
    */
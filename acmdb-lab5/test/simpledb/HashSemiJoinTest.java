@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashSemiJoinTest extends SimpleDbTestBase {
+
+    private DbIterator outer;
+    private DbIterator inner;
+
+    @Before public void createTupleLists() throws Exception {
+        outer = TestUtil.createTupleList(2, new int[] { 1, 10, 2, 20, 3, 30, 2, 21, 5, 50 });
+        inner = TestUtil.createTupleList(1, new int[] { 2, 3, 3, 3, 7 });
+    }
+
+    @After public void resetStats() {
+        TableStats.getStatsMap().remove("sj_a");
+        TableStats.getStatsMap().remove("sj_b");
+    }
+
+    private static ArrayList<String> tuples(int width, int[] values) throws Exception {
+        return TestUtil.sortedTupleStrings(TestUtil.createTupleList(width, values));
+    }
+
+    /**
+     * A semi-join returns each matching outer tuple once, however many inner
+     * tuples it matches, and an anti-join the others; both keep the outer
+     * TupleDesc
+     */
+    @Test public void semiAndAnti() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashSemiJoin semi = new HashSemiJoin(p, outer, inner, false);
+        assertEquals(outer.getTupleDesc(), semi.getTupleDesc());
+        assertEquals(tuples(2, new int[] { 2, 20, 3, 30, 2, 21 }), TestUtil.sortedTupleStrings(semi));
+        assertEquals(tuples(2, new int[] { 1, 10, 5, 50 }),
+                TestUtil.sortedTupleStrings(new HashSemiJoin(p, outer, inner, true)));
+
+        // a rewind reuses the inner values
+        semi.open();
+        int n = 0;
+        while (semi.hasNext()) {
+            semi.next();
+            n++;
+        }
+        semi.rewind();
+        while (semi.hasNext()) {
+            semi.next();
+            n++;
+        }
+        semi.close();
+        assertEquals(6, n);
+    }
+
+    /**
+     * Predicates other than equality stop at the first inner match too
+     */
+    @Test public void rangePredicate() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        assertEquals(tuples(2, new int[] { 3, 30, 5, 50 }),
+                TestUtil.sortedTupleStrings(new HashSemiJoin(p, outer, inner, false)));
+        assertEquals(tuples(2, new int[] { 1, 10, 2, 20, 2, 21 }),
+                TestUtil.sortedTupleStrings(new HashSemiJoin(p, outer, inner, true)));
+    }
+
+    /**
+     * The parser plans IN, NOT IN, EXISTS and NOT EXISTS subqueries as
+     * semi-joins and anti-joins
+     */
+    @Test public void parsedSubqueries() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f1, "sj_a");
+        Database.getCatalog().addTable(f2, "sj_b");
+        // subqueries are planned with the global statistics
+        TableStats.setTableStats("sj_a", new TableStats(f1.getId(), 1000));
+        TableStats.setTableStats("sj_b", new TableStats(f2.getId(), 1000));
+        Map<String, TableStats> stats = TableStats.getStatsMap();
+
+        // the rows of a whose c0 is some c1 of the rows of b with c0 < 30
+        TransactionId tid = new TransactionId();
+        HashSet<Integer> keys = new HashSet<Integer>();
+        DbFileIterator it = f2.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getInt(0) < 30)
+                keys.add(t.getInt(1));
+        }
+        it.close();
+        ArrayList<String> in = new ArrayList<String>(), notIn = new ArrayList<String>();
+        it = f1.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            (keys.contains(t.getInt(0)) ? in : notIn).add(t.toString());
+        }
+        it.close();
+        Collections.sort(in);
+        Collections.sort(notIn);
+        assertFalse(in.isEmpty());
+        assertFalse(notIn.isEmpty());
+
+        String[][] queries = {
+                { "SELECT * FROM sj_a a WHERE a.c0 IN (SELECT b.c1 FROM sj_b b WHERE b.c0 < 30);", "semi" },
+                { "SELECT * FROM sj_a a WHERE a.c0 NOT IN (SELECT b.c1 FROM sj_b b WHERE b.c0 < 30);", "anti" },
+                { "SELECT * FROM sj_a a WHERE EXISTS (SELECT b.c0 FROM sj_b b WHERE b.c1 = a.c0 AND b.c0 < 30);", "semi" },
+                { "SELECT * FROM sj_a a WHERE NOT EXISTS (SELECT * FROM sj_b b WHERE b.c0 < 30 AND a.c0 = b.c1);", "anti" } };
+        for (String[] q : queries) {
+            DbIterator plan = new Parser().generateLogicalPlan(tid, q[0]).physicalPlan(tid, stats, false);
+            HashSemiJoin join = (HashSemiJoin) ((Operator) plan).getChildren()[0];
+            assertEquals(q[1].equals("anti"), join.isAnti());
+            assertEquals(q[0], q[1].equals("anti") ? notIn : in, TestUtil.sortedTupleStrings(plan));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            new Parser().generateLogicalPlan(tid,
+                    "SELECT * FROM sj_a a WHERE EXISTS (SELECT * FROM sj_b b WHERE b.c0 < a.c1);");
+            fail("only equalities correlate EXISTS subqueries");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Semi-joins and anti-joins are costed as one pass over each side, and
+     * return at most the tuples of their left-hand side
+     */
+    @Test public void estimates() {
+        LogicalSubplanJoinNode semi = new LogicalSubplanJoinNode("t", "t.a", null,
+                Predicate.Op.EQUALS, LogicalSubplanJoinNode.JoinType.SEMI, 50, 10);
+        LogicalSubplanJoinNode anti = new LogicalSubplanJoinNode("t", "t.a", null,
+                Predicate.Op.EQUALS, LogicalSubplanJoinNode.JoinType.ANTI, 50, 10);
+        LogicalSubplanJoinNode inner = new LogicalSubplanJoinNode("t", "t.a", null,
+                Predicate.Op.EQUALS, LogicalSubplanJoinNode.JoinType.INNER, 50, 10);
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+        double semiCost = jo.estimateJoinCost(semi, 1000, 10, 100, 50);
+        assertTrue(semiCost < 1000 + 100 + 50 + 100);
+        assertTrue(semiCost < jo.estimateJoinCost(inner, 1000, 10, 100, 50) / 10);
+
+        assertEquals(10, JoinOptimizer.estimateSubplanJoinCardinality(semi, 1000, 10, true));
+        assertEquals(990, JoinOptimizer.estimateSubplanJoinCardinality(anti, 1000, 10, true));
+        assertEquals(500, JoinOptimizer.estimateSubplanJoinCardinality(semi, 1000, 10, false));
+        assertEquals(0, JoinOptimizer.estimateSubplanJoinCardinality(semi, 1000, 0, false));
+        assertEquals(1000, JoinOptimizer.estimateSubplanJoinCardinality(anti, 1000, 0, false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashSemiJoinTest.class);
+    }
+}
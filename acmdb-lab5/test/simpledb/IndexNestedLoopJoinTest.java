@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    TransactionId tid;
+    BTreeFile inner;
+    DbIterator scan1;
+    DbIterator eqJoin;
+    DbIterator gtJoin;
+
+    /**
+     * Initialize each unit test; the inner relation is a B+ tree keyed on its
+     * first field
+     */
+    @Before public void createTables() throws Exception {
+        tid = new TransactionId();
+        this.scan1 = TestUtil.createTupleList(width1,
+            new int[] { 1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8 });
+        int[][] innerData = new int[][] { { 4, 5, 6 }, { 1, 2, 3 }, { 5, 6, 7 },
+                                          { 3, 4, 5 }, { 2, 3, 4 } };
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : innerData)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(row[0], row[1], row[2])));
+        File hFile = File.createTempFile("inlj", ".dat");
+        hFile.deleteOnExit();
+        File bFile = File.createTempFile("inlj_index", ".dat");
+        bFile.deleteOnExit();
+        inner = BTreeFileEncoder.convert(tuples, hFile, bFile, BufferPool.getPageSize(),
+                width2, Utility.getTypes(width2), ',', 0);
+
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+            new int[] { 1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7 });
+        this.gtJoin = TestUtil.createTupleList(width1 + width2,
+            new int[] {
+                        3, 4, 1, 2, 3, // 1, 2 < 3
+                        3, 4, 2, 3, 4,
+                        5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                        5, 6, 2, 3, 4,
+                        5, 6, 3, 4, 5,
+                        5, 6, 4, 5, 6,
+                        7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                        7, 8, 2, 3, 4,
+                        7, 8, 3, 4, 5,
+                        7, 8, 4, 5, 6,
+                        7, 8, 5, 6, 7 });
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void checkJoin(DbIterator expected, IndexNestedLoopJoin op) throws Exception {
+        int count = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        expected.open();
+        int expectedCount = 0;
+        while (expected.hasNext()) {
+            expected.next();
+            expectedCount++;
+        }
+        assertEquals(expectedCount, count);
+        expected.rewind();
+        TestUtil.matchAllTuples(expected, op);
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1,
+                new SeqScan(tid, inner.getId(), "t"));
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(width1 + width2, actual.numFields());
+        assertEquals(new SeqScan(tid, inner.getId(), "t").getTupleDesc().getFieldName(0),
+                actual.getFieldName(width1));
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.getNext() using an = predicate
+     */
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        checkJoin(eqJoin, new IndexNestedLoopJoin(pred, scan1,
+                new BTreeScan(tid, inner.getId(), "t", null)));
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.getNext() using a &gt; predicate
+     */
+    @Test public void gtJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        checkJoin(gtJoin, new IndexNestedLoopJoin(pred, scan1,
+                new SeqScan(tid, inner.getId(), "t")));
+    }
+
+    /**
+     * Filters on the inner child are applied to the probed tuples
+     */
+    @Test public void filteredInner() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator filtered = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN,
+                new IntField(4)), new BTreeScan(tid, inner.getId(), "t",
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(5))));
+        DbIterator expected = TestUtil.createTupleList(width1 + width2,
+            new int[] { 3, 4, 3, 4, 5 });
+        checkJoin(expected, new IndexNestedLoopJoin(pred, scan1, filtered));
+    }
+
+    /**
+     * Only scans of a B+ tree keyed on the join field can be probed
+     */
+    @Test public void canProbe() throws Exception {
+        DbIterator scan = new SeqScan(tid, inner.getId(), "t");
+        assertTrue(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0), scan));
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1), scan));
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan));
+        assertFalse(IndexNestedLoopJoin.canProbe(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -178,6 +178,66 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Many groups, including negative and zero group values, force the hash
+   * table to grow; every group keeps its own sum, min and count
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 5000;
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    IntegerAggregator min = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MIN);
+    IntegerAggregator cnt = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    IntegerAggregator all = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.AVG);
+    for (int round = 0; round < 3; round++) {
+      for (int g = 0; g < groups; g++) {
+        Tuple t = Utility.getHeapTuple(new int[] { (g - groups / 2) * 65536, g + round });
+        sum.mergeTupleIntoGroup(t);
+        min.mergeTupleIntoGroup(t);
+        cnt.mergeTupleIntoGroup(t);
+        all.mergeTupleIntoGroup(t);
+      }
+    }
+    DbIterator[] its = { sum.iterator(), min.iterator(), cnt.iterator() };
+    for (DbIterator it : its)
+      it.open();
+    for (int g = 0; g < groups; g++) {
+      Tuple s = its[0].next();
+      assertEquals(new IntField((g - groups / 2) * 65536), s.getField(0));
+      assertEquals(new IntField(3 * g + 3), s.getField(1));
+      assertEquals(new IntField(g), its[1].next().getField(1));
+      assertEquals(new IntField(3), its[2].next().getField(1));
+    }
+    DbIterator it = all.iterator();
+    it.open();
+    assertEquals(new IntField((groups - 1) / 2 + 1), it.next().getField(0));
+  }
+
+  /**
+   * Group values of other types than INT
+   */
+  @Test public void stringGroups() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.MAX);
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    String[] names = { "a", "b", "a", "c", "b" };
+    for (int i = 0; i < names.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(names[i], Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      agg.mergeTupleIntoGroup(t);
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      String name = ((StringField) t.getField(0)).getValue();
+      int expected = name.equals("a") ? 2 : name.equals("b") ? 4 : 3;
+      assertEquals(new IntField(expected), t.getField(1));
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
   /**
    * JUnit suite target
    */
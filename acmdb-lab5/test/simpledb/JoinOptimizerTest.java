@@ -621,4 +621,75 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Equality joins are hashed, building on the smaller input, other joins
+     * are evaluated a block at a time, and the operator instantiated for a
+     * join is the one the optimizer costed
+     */
+    @Test
+    public void chooseJoinAlgorithmTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("t1", 1.0);
+        filterSelectivities.put("t2", 1.0);
+
+        // TB (10000 tuples) join TA (1000 tuples): hash on TA
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("t2", "t1", "c2", "c1", Predicate.Op.EQUALS));
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"), nodes);
+        Vector<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        LogicalJoinNode lj = result.get(0);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.HASH, lj.algorithm);
+        Assert.assertEquals("t1", lj.t1Alias);
+        DbIterator op = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(op instanceof HashEquiJoin);
+
+        // hashing is linear in the input sizes, and spilling adds to it when
+        // the left-hand side does not fit in the join memory budget
+        double spilled = jo.estimateJoinCost(lj, 1000000, 1000000, 10000, 10000);
+        int pages = JoinOptimizer.getJoinMemoryPages();
+        JoinOptimizer.setJoinMemoryPages(1 << 16);
+        double hash = jo.estimateJoinCost(lj, 1000000, 1000000, 10000, 10000);
+        JoinOptimizer.setJoinMemoryPages(pages);
+        Assert.assertTrue(hash < 4 * 1000000 + 2 * 10000);
+        Assert.assertTrue(spilled > hash);
+        Assert.assertTrue(spilled < 8 * 1000000 + 2 * 10000);
+
+        // inequalities cannot be hashed; sorting both heap files for a merge
+        // join is cheaper than comparing every pair
+        nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.LESS_THAN));
+        jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 < t2.c2;"), nodes);
+        lj = jo.orderJoins(stats, filterSelectivities, false).get(0);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE, lj.algorithm);
+        op = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(op instanceof SortMergeJoin);
+        for (DbIterator child : ((Operator) op).getChildren())
+            Assert.assertTrue(child instanceof OrderBy);
+
+        // a join the merge join cannot evaluate falls back to nested loops
+        nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.NOT_EQUALS));
+        jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 <> t2.c2;"), nodes);
+        lj = jo.orderJoins(stats, filterSelectivities, false).get(0);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP, lj.algorithm);
+        op = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(op instanceof BlockNestedLoopJoin);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, jo.estimateJoinCost(
+                JoinOptimizer.JoinAlgorithm.HASH, lj, 10, 10, 1, 1), 0);
+    }
 }
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    private static ArrayList<Integer> firstFields(DbIterator op) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (op.hasNext())
+            values.add(((IntField) op.next().getField(0)).getValue());
+        return values;
+    }
+
+    /**
+     * Skips the offset, returns the limit and reads no further from the child
+     */
+    @Test public void limitOffset() throws Exception {
+        TestUtil.MockScan scan = new TestUtil.MockScan(0, 100, 1);
+        Limit op = new Limit(3, 2, scan);
+        op.open();
+        assertEquals(Arrays.asList(2, 3, 4), firstFields(op));
+        // the child is positioned right after the last tuple returned
+        assertEquals(5, ((IntField) scan.next().getField(0)).getValue());
+        op.rewind();
+        assertEquals(Arrays.asList(2, 3, 4), firstFields(op));
+        op.close();
+
+        op = new Limit(10, 95, new TestUtil.MockScan(0, 100, 1));
+        op.open();
+        assertEquals(Arrays.asList(95, 96, 97, 98, 99), firstFields(op));
+        op.close();
+
+        op = new Limit(0, new TestUtil.MockScan(0, 100, 1));
+        op.open();
+        assertTrue(TestUtil.checkExhausted(op));
+        op.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimit() {
+        new Limit(-1, new TestUtil.MockScan(0, 1, 1));
+    }
+
+    /**
+     * A Top-N OrderBy returns the same tuples as a full sort cut off after n,
+     * ties included, whether the n tuples fit in its heap or not
+     */
+    @Test public void topN() throws Exception {
+        int[] data = new int[2 * 2000];
+        Random rand = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            data[2 * i] = rand.nextInt(50);
+            data[2 * i + 1] = i;
+        }
+        int[] fields = new int[] { 0 };
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy full = new OrderBy(fields, new boolean[] { asc },
+                    TestUtil.createTupleList(2, data));
+            full.open();
+            for (int n : new int[] { 0, 1, 37, 600, 2000, 2500 }) {
+                for (int pages : new int[] { ExternalSort.DEFAULT_MEMORY_PAGES, 1 }) {
+                    OrderBy top = new OrderBy(fields, new boolean[] { asc },
+                            TestUtil.createTupleList(2, data), pages, n);
+                    top.open();
+                    full.rewind();
+                    for (int i = 0; i < n && full.hasNext(); i++)
+                        assertTrue(TestUtil.compareTuples(full.next(), top.next()));
+                    assertTrue(TestUtil.checkExhausted(top));
+                    top.rewind();
+                    assertEquals(Math.min(n, 2000), firstFields(top).size());
+                    top.close();
+                }
+            }
+            full.close();
+        }
+    }
+
+    /**
+     * The parser reads LIMIT and OFFSET, and the planner fuses the limit into
+     * the sort
+     */
+    @Test public void parseLimit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "lim_t");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("lim_t", new TableStats(f.getId(), 1000));
+        ArrayList<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            sorted.add(t.get(0));
+        Collections.sort(sorted);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT t.c0 FROM lim_t t ORDER BY t.c0 LIMIT 10 OFFSET 5;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator limit = ((Operator) plan).getChildren()[0];
+        assertTrue(limit instanceof Limit);
+        DbIterator sort = ((Operator) limit).getChildren()[0];
+        assertEquals(15, ((OrderBy) sort).getLimit());
+        plan.open();
+        assertEquals(sorted.subList(5, 15), firstFields(plan));
+        plan.close();
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM lim_t t limit 7;");
+        plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(7, firstFields(plan).size());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * LIMIT is rejected on statements other than SELECT instead of being
+     * dropped, and applies to the outer query rather than to a subquery
+     */
+    @Test public void limitOnlyOnSelect() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "lim_d");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("lim_d", new TableStats(f.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        try {
+            new Parser().generateLogicalPlan(tid, "DELETE FROM lim_d WHERE lim_d.c0 >= 0 LIMIT 1;");
+            fail("expected ParsingException for LIMIT on DELETE");
+        } catch (ParsingException e) {
+            // expected
+        }
+        new Parser().processNextStatement("DELETE FROM lim_d WHERE lim_d.c1 IN "
+                + "(SELECT b.c1 FROM lim_d b) LIMIT 1;");
+        DbIterator scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        assertEquals(100, firstFields(scan).size());
+        scan.close();
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM lim_d a "
+                + "WHERE a.c0 IN (SELECT b.c0 FROM lim_d b) LIMIT 3;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(3, firstFields(plan).size());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
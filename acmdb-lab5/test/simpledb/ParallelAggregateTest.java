@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] ALL_OPS = new Aggregator.Op[] {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private static HashMap<String, Integer> aggregate(DbIterator child, int[] afields,
+            Aggregator.Op[] aops, int[] gfields) throws Exception {
+        Aggregate agg = new Aggregate(child, afields, aops, gfields);
+        agg.open();
+        HashMap<String, Integer> counts = TestUtil.countTuples(agg);
+        agg.close();
+        return counts;
+    }
+
+    /**
+     * Every operator gives the results of the sequential aggregate, with and
+     * without grouping, also after a rewind
+     */
+    @Test public void allOps() throws Exception {
+        int[] data = TestUtil.randomInts(3 * 5000, -100, 300, 11);
+        int[] afields = new int[] { 1, 1, 2, 2, 2 };
+        for (int[] gfields : new int[][] { {}, { 0 }, { 0, 2 } }) {
+            HashMap<String, Integer> expected = aggregate(TestUtil.createTupleList(3, data),
+                    afields, ALL_OPS, gfields);
+            ParallelAggregate agg = new ParallelAggregate(TestUtil.createTupleList(3, data),
+                    afields, ALL_OPS, gfields, 4);
+            assertEquals(new Aggregate(TestUtil.createTupleList(3, data), afields, ALL_OPS,
+                    gfields).getTupleDesc(), agg.getTupleDesc());
+            agg.open();
+            assertEquals(expected, TestUtil.countTuples(agg));
+            agg.rewind();
+            assertEquals(expected, TestUtil.countTuples(agg));
+            agg.close();
+        }
+    }
+
+    /**
+     * String group values and counts of string fields
+     */
+    @Test public void stringAggregates() throws Exception {
+        Object[] data = new Object[3 * 3000];
+        Random rand = new Random(5);
+        for (int i = 0; i < 3000; i++) {
+            data[3 * i] = "g" + rand.nextInt(150);
+            data[3 * i + 1] = "s" + rand.nextInt(10);
+            data[3 * i + 2] = rand.nextInt(1000);
+        }
+        int[] afields = new int[] { 1, 2, 2 };
+        Aggregator.Op[] aops = new Aggregator.Op[] {
+                Aggregator.Op.COUNT, Aggregator.Op.AVG, Aggregator.Op.MAX };
+        int[] gfields = new int[] { 0 };
+        HashMap<String, Integer> expected = aggregate(TestUtil.createTupleList(3, data),
+                afields, aops, gfields);
+        ParallelAggregate agg = new ParallelAggregate(TestUtil.createTupleList(3, data),
+                afields, aops, gfields, 3);
+        agg.open();
+        assertEquals(expected, TestUtil.countTuples(agg));
+        agg.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sumOfStrings() {
+        new ParallelAggregate(TestUtil.createTupleList(1, new Object[] { "a" }),
+                new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM }, new int[0], 2);
+    }
+
+    /**
+     * Workers spill their groups when their share of the memory budget is
+     * exceeded, and the final merge reads the spilled partitions
+     */
+    @Test public void spillingWorkers() throws Exception {
+        int[] data = TestUtil.randomInts(2 * 20000, -2000, 6000, 3);
+        int[] afields = new int[] { 1, 1 };
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN };
+        int[] gfields = new int[] { 0 };
+        HashMap<String, Integer> expected = aggregate(TestUtil.createTupleList(2, data),
+                afields, aops, gfields);
+        ParallelAggregate agg = new ParallelAggregate(TestUtil.createTupleList(2, data),
+                afields, aops, gfields, 4, 4);
+        agg.open();
+        assertTrue(agg.numSpills() > 0);
+        assertEquals(expected, TestUtil.countTuples(agg));
+        agg.close();
+    }
+
+    /**
+     * The planner aggregates in parallel over a parallel scan when asked to
+     */
+    @Test public void plannedParallelAggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 6000, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f, "pa_t");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pa_t", new TableStats(f.getId(), 1000));
+        String query = "SELECT t.c0, COUNT(t.c1), AVG(t.c2) FROM pa_t t WHERE t.c1 > 10 GROUP BY t.c0;";
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        plan.open();
+        HashMap<String, Integer> expected = TestUtil.countTuples(plan);
+        plan.close();
+
+        LogicalPlan.setScanWorkers(4);
+        try {
+            plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+            DbIterator agg = ((Operator) plan).getChildren()[0];
+            assertTrue(agg instanceof ParallelAggregate);
+            assertTrue(((Operator) agg).getChildren()[0] instanceof ParallelSeqScan);
+            plan.open();
+            assertEquals(expected, TestUtil.countTuples(plan));
+            plan.close();
+        } finally {
+            LogicalPlan.setScanWorkers(1);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
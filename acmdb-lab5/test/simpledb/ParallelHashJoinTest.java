@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+    private static HashMap<String, Integer> hashJoin(JoinPredicate p,
+            DbIterator child1, DbIterator child2) throws Exception {
+        HashEquiJoin join = new HashEquiJoin(p, child1, child2);
+        join.open();
+        HashMap<String, Integer> counts = TestUtil.countTuples(join);
+        join.close();
+        return counts;
+    }
+
+    /**
+     * Inputs that are not parallel scans are shared by the workers
+     */
+    @Test public void sharedInputs() throws Exception {
+        int[] data1 = new int[2 * 3000];
+        int[] data2 = new int[3 * 5000];
+        Random rand = new Random(7);
+        for (int i = 0; i < data1.length; i++)
+            data1[i] = rand.nextInt(500);
+        for (int i = 0; i < data2.length; i++)
+            data2[i] = rand.nextInt(500);
+        JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+        HashMap<String, Integer> expected = hashJoin(pred,
+                TestUtil.createTupleList(2, data1), TestUtil.createTupleList(3, data2));
+
+        ParallelHashJoin join = new ParallelHashJoin(pred, TestUtil.createTupleList(2, data1),
+                TestUtil.createTupleList(3, data2), 4);
+        assertEquals(Utility.getTupleDesc(5), join.getTupleDesc());
+        join.open();
+        assertEquals(expected, TestUtil.countTuples(join));
+        join.rewind();
+        assertEquals(expected, TestUtil.countTuples(join));
+        join.close();
+
+        // an empty build side joins nothing
+        join = new ParallelHashJoin(pred, TestUtil.createTupleList(2, new int[0]),
+                TestUtil.createTupleList(3, data2), 3);
+        join.open();
+        assertTrue(TestUtil.checkExhausted(join));
+        join.close();
+    }
+
+    /**
+     * Parallel scans are read through their own workers
+     */
+    @Test public void parallelScanInputs() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 4000, 800, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 6000, 800, null,
+                new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashMap<String, Integer> expected = hashJoin(pred,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+
+        ParallelHashJoin join = new ParallelHashJoin(pred,
+                new ParallelSeqScan(tid, f1.getId(), "a", 3),
+                new ParallelSeqScan(tid, f2.getId(), "b", 4), 2);
+        join.open();
+        assertEquals(expected, TestUtil.countTuples(join));
+        join.rewind();
+        assertEquals(expected, TestUtil.countTuples(join));
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeJoin() {
+        new ParallelHashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                TestUtil.createTupleList(1, new int[0]), TestUtil.createTupleList(1, new int[0]), 2);
+    }
+
+    /**
+     * The optimizer picks the parallel join when scans have several workers
+     * and the build side fits in memory
+     */
+    @Test public void plannedParallelJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples1, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples2, "c");
+        Database.getCatalog().addTable(f1, "pj_a");
+        Database.getCatalog().addTable(f2, "pj_b");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pj_a", new TableStats(f1.getId(), 1000));
+        stats.put("pj_b", new TableStats(f2.getId(), 1000));
+        int expected = 0;
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t1.get(0).equals(t2.get(1)))
+                    expected++;
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan.setScanWorkers(4);
+        try {
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                    "SELECT * FROM pj_a a, pj_b b WHERE a.c0 = b.c1;");
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            DbIterator join = ((Operator) plan).getChildren()[0];
+            assertTrue(join instanceof ParallelHashJoin);
+            for (DbIterator child : ((Operator) join).getChildren())
+                assertTrue(child instanceof ParallelSeqScan);
+            plan.open();
+            int n = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                n++;
+            }
+            plan.close();
+            assertEquals(expected, n);
+        } finally {
+            LogicalPlan.setScanWorkers(1);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
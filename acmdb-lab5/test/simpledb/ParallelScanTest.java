@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 6000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "par_t");
+        tid = new TransactionId();
+    }
+
+    /**
+     * Every tuple is returned exactly once, also after a rewind, and the
+     * workers lock the pages on behalf of the scan's transaction
+     */
+    @Test public void parallelScan() throws Exception {
+        assertTrue(f.numPages() > 2 * ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4);
+        assertEquals(4, scan.numWorkers());
+        SystemTestUtil.matchTuples(scan, tuples);
+
+        scan.open();
+        for (int i = 0; i < 100; i++)
+            scan.next();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        scan.close();
+
+        for (int p = 0; p < f.numPages(); p++)
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), p)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Filters and projections over the scan are copied into the workers
+     */
+    @Test public void parallelizeFilterProject() throws Exception {
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        DbIterator plan = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(pred, new SeqScan(tid, f.getId(), "t")));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 300)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+        }
+
+        DbIterator parallel = ParallelSeqScan.parallelize(plan, 3);
+        assertTrue(parallel instanceof ParallelSeqScan);
+        assertEquals(plan.getTupleDesc(), parallel.getTupleDesc());
+        DbIterator worker = ((Operator) parallel).getChildren()[0];
+        assertTrue(worker instanceof Project);
+        assertTrue(((Operator) worker).getChildren()[0] instanceof Filter);
+        SystemTestUtil.matchTuples(parallel, expected);
+
+        // a single worker, or anything but a chain of filters and projections
+        // over a scan, is left alone
+        assertSame(plan, ParallelSeqScan.parallelize(plan, 1));
+        DbIterator sort = new OrderBy(new int[] { 0 }, new boolean[] { true }, plan);
+        assertSame(sort, ParallelSeqScan.parallelize(sort, 4));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An exception thrown by a worker is rethrown to the consumer
+     */
+    @Test(expected = DbException.class)
+    public void workerFailure() throws Exception {
+        DbIterator failing = new TestUtil.MockScan(0, 1000, 1) {
+            private static final long serialVersionUID = 1L;
+            private int n;
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (++n == 500)
+                    throw new DbException("worker failed");
+                return super.next();
+            }
+        };
+        Exchange exchange = new Exchange(new DbIterator[] {
+                new TestUtil.MockScan(0, 1000, 1), failing });
+        exchange.open();
+        try {
+            while (exchange.hasNext())
+                exchange.next();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The planner runs scans in parallel when asked to
+     */
+    @Test public void plannedParallelScan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("par_t", new TableStats(f.getId(), 1000));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) > 500)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(1))));
+        }
+
+        LogicalPlan.setScanWorkers(4);
+        try {
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                    "SELECT t.c1 FROM par_t t WHERE t.c1 > 500;");
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            assertTrue(plan instanceof ParallelSeqScan);
+            SystemTestUtil.matchTuples(plan, expected);
+
+            lp = new Parser().generateLogicalPlan(tid,
+                    "SELECT COUNT(t.c0) FROM par_t t WHERE t.c1 > 500;");
+            plan = lp.physicalPlan(tid, stats, false);
+            plan.open();
+            assertEquals(expected.size(), ((IntField) plan.next().getField(0)).getValue());
+            plan.close();
+        } finally {
+            LogicalPlan.setScanWorkers(1);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
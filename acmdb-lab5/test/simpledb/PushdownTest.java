@@ -0,0 +1,141 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PushdownTest extends SimpleDbTestBase {
+
+    /**
+     * A scan with pushed predicates and columns returns the tuples of a
+     * Filter and Project over a plain scan, also after a rewind
+     */
+    @Test public void scan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 5000, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        TransactionId tid = new TransactionId();
+        Predicate p1 = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(30));
+        Predicate p2 = new Predicate(3, Predicate.Op.LESS_THAN_OR_EQ, new IntField(70));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 3));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(new Project(fields, types,
+                new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId(), "t")))));
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", Arrays.asList(p1, p2), new int[] { 0, 3 });
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c0", td.getFieldName(0));
+        assertEquals("t.c3", td.getFieldName(1));
+        scan.open();
+        assertEquals(expected, TestUtil.countTuples(scan));
+        scan.rewind();
+        assertEquals(expected, TestUtil.countTuples(scan));
+        scan.close();
+
+        // predicates alone keep every column
+        expected = TestUtil.openAndCountTuples(new Filter(p1, new SeqScan(tid, f.getId(), "t")));
+        assertEquals(expected, TestUtil.openAndCountTuples(new SeqScan(tid, f.getId(), "t",
+                Arrays.asList(p1), null)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Predicates on string fields are evaluated on the page tuples
+     */
+    @Test public void stringPredicate() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        HeapFile f = Utility.createEmptyHeapFile(
+                java.io.File.createTempFile("pushdown", ".dat").getAbsolutePath(), 2);
+        f = new HeapFile(f.getFile(), td);
+        Database.getCatalog().addTable(f, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN));
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(
+                new Filter(p, new SeqScan(tid, f.getId(), "t")));
+        assertEquals(43, expected.size());
+        assertEquals(expected, TestUtil.openAndCountTuples(
+                new SeqScan(tid, f.getId(), "t", Arrays.asList(p), null)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badColumn() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null,
+                new ArrayList<ArrayList<Integer>>());
+        new SeqScan(new TransactionId(), f.getId(), "t", new ArrayList<Predicate>(),
+                new int[] { 2 }).open();
+    }
+
+    /**
+     * The planner pushes the filters and the fields it reads into the scans,
+     * sequential or parallel
+     */
+    @Test public void plannedPushdown() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(4, 3000, 200, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 2000, 200, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f1, "pd_a");
+        Database.getCatalog().addTable(f2, "pd_b");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pd_a", new TableStats(f1.getId(), 1000));
+        stats.put("pd_b", new TableStats(f2.getId(), 1000));
+        String query = "SELECT a.c0, b.c2 FROM pd_a a, pd_b b "
+                + "WHERE a.c1 = b.c1 AND a.c3 < 50 AND b.c0 > 20;";
+
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, f1.getId(), "a");
+        SeqScan b = new SeqScan(tid, f2.getId(), "b");
+        DbIterator join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new Filter(new Predicate(3, Predicate.Op.LESS_THAN, new IntField(50)), a),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20)), b));
+        HashMap<String, Integer> expected = TestUtil.openAndCountTuples(
+                new Project(new ArrayList<Integer>(Arrays.asList(0, 6)),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, join));
+
+        DbIterator plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+        DbIterator planJoin = ((Operator) plan).getChildren()[0];
+        for (DbIterator child : ((Operator) planJoin).getChildren()) {
+            assertTrue(child instanceof SeqScan);
+            assertEquals(1, ((SeqScan) child).getPredicates().size());
+            assertEquals(2, child.getTupleDesc().numFields());
+        }
+        assertEquals(expected, TestUtil.openAndCountTuples(plan));
+
+        LogicalPlan.setScanWorkers(3);
+        try {
+            plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+            assertEquals(expected, TestUtil.openAndCountTuples(plan));
+        } finally {
+            LogicalPlan.setScanWorkers(1);
+        }
+
+        // SELECT * keeps every field
+        plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM pd_b b WHERE b.c0 > 20;")
+                .physicalPlan(tid, stats, false);
+        DbIterator scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof SeqScan);
+        assertEquals(3, scan.getTupleDesc().numFields());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PushdownTest.class);
+    }
+}
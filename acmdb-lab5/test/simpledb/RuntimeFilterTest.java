@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+
+    private HeapFile a, b, c;
+
+    @Before public void createTables() throws Exception {
+        a = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "a");
+        b = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "b");
+        c = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        RuntimeFilter.resetStatistics();
+    }
+
+    @After public void enable() {
+        RuntimeFilter.setEnabled(true);
+    }
+
+    /** the rows of a with a0 below 20 */
+    private DbIterator smallA(TransactionId tid) {
+        return new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)),
+                new SeqScan(tid, a.getId(), "a"));
+    }
+
+    /**
+     * A Bloom filter holds every value added to it and few others
+     */
+    @Test public void bloomFilter() {
+        BloomFilter bloom = new BloomFilter(1000);
+        for (int i = 0; i < 1000; i++)
+            bloom.add(new IntField(i * 7));
+        int passed = 0;
+        for (int i = 0; i < 7000; i++) {
+            if (i % 7 == 0)
+                assertTrue(bloom.mightContain(new IntField(i)));
+            else if (bloom.mightContain(i))
+                passed++;
+        }
+        assertTrue(passed < 6000 / 20);
+        BloomFilter strings = new BloomFilter(10);
+        strings.add(new StringField("x", Type.STRING_LEN));
+        assertTrue(strings.mightContain(new StringField("x", Type.STRING_LEN)));
+    }
+
+    /**
+     * A hash join with a filtered build side pushes a filter to its probe
+     * scan that drops most of the probe tuples, without changing the result;
+     * the filter is removed from the scan when the join closes
+     */
+    @Test public void pushToProbeScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        RuntimeFilter.setEnabled(false);
+        ArrayList<String> expected = TestUtil.sortedTupleStrings(
+                new HashEquiJoin(p, smallA(tid), new SeqScan(tid, b.getId(), "b")));
+        assertEquals(0, RuntimeFilter.numFilters());
+
+        RuntimeFilter.setEnabled(true);
+        SeqScan probe = new SeqScan(tid, b.getId(), "b");
+        HashEquiJoin join = new HashEquiJoin(p, smallA(tid), probe);
+        join.open();
+        RuntimeFilter f = join.getRuntimeFilter();
+        assertNotNull(f);
+        assertEquals(1, f.getField());
+        assertEquals(Arrays.asList(f), probe.getRuntimeFilters());
+        ArrayList<String> actual = new ArrayList<String>();
+        while (join.hasNext())
+            actual.add(join.next().toString());
+        join.rewind();
+        assertTrue(join.hasNext());
+        join.close();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        assertTrue(probe.getRuntimeFilters().isEmpty());
+
+        assertEquals(1, RuntimeFilter.numFilters());
+        assertTrue(RuntimeFilter.numTestedTotal() >= 5000);
+        // 20 of 1000 values are in the filter
+        assertTrue(RuntimeFilter.numRemovedTotal() > 0.9 * 5000);
+        assertEquals(f.numRemoved(), RuntimeFilter.numRemovedTotal());
+    }
+
+    /**
+     * A build side that spills holds more values than the filter was sized
+     * for; the filter passes more probe tuples but keeps the result
+     */
+    @Test public void spilledBuild() throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        RuntimeFilter.setEnabled(false);
+        ArrayList<String> expected = TestUtil.sortedTupleStrings(new HashEquiJoin(p,
+                new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"), 1));
+
+        RuntimeFilter.setEnabled(true);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, a.getId(), "a"),
+                new SeqScan(tid, b.getId(), "b"), 1);
+        join.open();
+        assertTrue(join.numSpilledPartitions() > 0);
+        assertNotNull(join.getRuntimeFilter());
+        join.close();
+        assertEquals(expected, TestUtil.sortedTupleStrings(join));
+    }
+
+    /**
+     * Filters are pushed through Filters, Projects and the joins of the
+     * probe side, to the scan the probe field comes from
+     */
+    @Test public void pushThroughJoins() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(1, 2));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        JoinPredicate lower = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        // a.a0 = c.c0, through b join c and a projection onto (b.b1, c.c0)
+        JoinPredicate upper = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        RuntimeFilter.setEnabled(false);
+        ArrayList<String> expected = TestUtil.sortedTupleStrings(new HashEquiJoin(upper, smallA(tid),
+                new Project(fields, types, new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                        new SeqScan(tid, b.getId(), "b"), new SeqScan(tid, c.getId(), "c")))));
+
+        RuntimeFilter.setEnabled(true);
+        SeqScan scanB = new SeqScan(tid, b.getId(), "b");
+        SeqScan scanC = new SeqScan(tid, c.getId(), "c");
+        HashEquiJoin join = new HashEquiJoin(upper, smallA(tid),
+                new Project(fields, types, new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                        scanB, scanC)));
+        join.open();
+        assertTrue(scanB.getRuntimeFilters().isEmpty());
+        assertEquals(1, scanC.getRuntimeFilters().size());
+        assertEquals(0, scanC.getRuntimeFilters().get(0).getField());
+        join.close();
+        assertEquals(expected, TestUtil.sortedTupleStrings(join));
+        assertTrue(RuntimeFilter.numRemovedTotal() > 0);
+
+        // joins at both levels filter their probe scans
+        RuntimeFilter.resetStatistics();
+        HashEquiJoin two = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), smallA(tid),
+                new HashEquiJoin(lower, new SeqScan(tid, b.getId(), "b"), new SeqScan(tid, c.getId(), "c")));
+        RuntimeFilter.setEnabled(false);
+        ArrayList<String> plain = TestUtil.sortedTupleStrings(two);
+        RuntimeFilter.setEnabled(true);
+        assertEquals(plain, TestUtil.sortedTupleStrings(two));
+        assertEquals(2, RuntimeFilter.numFilters());
+    }
+
+    /**
+     * A filter that drops few tuples stops testing after its sample
+     */
+    @Test public void uselessFilter() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan probe = new SeqScan(tid, c.getId(), "c");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, b.getId(), "b"), probe);
+        join.open();
+        while (join.hasNext())
+            join.next();
+        RuntimeFilter f = join.getRuntimeFilter();
+        assertFalse(f.isActive());
+        assertTrue(f.numTested() < 5000);
+        join.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    TransactionId tid;
+    DbIterator scan1;
+    DbIterator scan2;
+
+    /**
+     * Initialize each unit test; both inputs are sorted on their first field
+     * and contain runs of duplicate join values
+     */
+    @Before public void createTupleLists() throws Exception {
+        tid = new TransactionId();
+        this.scan1 = TestUtil.createTupleList(width1,
+            new int[] { 1, 1,
+                        3, 2,
+                        3, 3,
+                        5, 4,
+                        7, 5,
+                        7, 6 });
+        this.scan2 = TestUtil.createTupleList(width2,
+            new int[] { 0, 1, 1,
+                        3, 2, 2,
+                        3, 3, 3,
+                        3, 4, 4,
+                        4, 5, 5,
+                        7, 6, 6,
+                        8, 7, 7 });
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Counts the results of each distinct tuple an iterator returns
+     */
+    private static HashMap<String, Integer> results(DbIterator op) throws Exception {
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        op.open();
+        while (op.hasNext()) {
+            String t = op.next().toString();
+            Integer c = counts.get(t);
+            counts.put(t, c == null ? 1 : c + 1);
+        }
+        op.close();
+        return counts;
+    }
+
+    /**
+     * The merge join returns the same tuples as a nested loops join
+     */
+    private void checkJoin(Predicate.Op op) throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, op, 0);
+        HashMap<String, Integer> expected = results(new Join(pred, scan1, scan2));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, results(new SortMergeJoin(pred, scan1, scan2)));
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    }
+
+    /**
+     * Equality join with runs of duplicates on both sides: 3 x 3 and 2 x 1
+     */
+    @Test public void eqJoin() throws Exception {
+        checkJoin(Predicate.Op.EQUALS);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(2 * 3 + 2 * 1, count);
+    }
+
+    @Test public void ltJoin() throws Exception {
+        checkJoin(Predicate.Op.LESS_THAN);
+        checkJoin(Predicate.Op.LESS_THAN_OR_EQ);
+    }
+
+    @Test public void gtJoin() throws Exception {
+        checkJoin(Predicate.Op.GREATER_THAN);
+        checkJoin(Predicate.Op.GREATER_THAN_OR_EQ);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        Tuple first = op.next();
+        while (op.hasNext())
+            assertNotNull(op.next());
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+        assertTrue(TestUtil.compareTuples(first, op.next()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEqualsUnsupported() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+    }
+
+    private BTreeFile createBTree(int[][] rows, int keyField) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : rows) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int v : row)
+                t.add(v);
+            tuples.add(t);
+        }
+        File hFile = File.createTempFile("smj", ".dat");
+        hFile.deleteOnExit();
+        File bFile = File.createTempFile("smj_index", ".dat");
+        bFile.deleteOnExit();
+        BTreeFileEncoder.convert(tuples, hFile, bFile, BufferPool.getPageSize(),
+                rows[0].length, Utility.getTypes(rows[0].length), ',', keyField);
+        // reopen the tree with named fields (c0, c1, ...) for the parser
+        BTreeFile bf = new BTreeFile(bFile, keyField, Utility.getTupleDesc(rows[0].length, "c"));
+        Database.getCatalog().addTable(bf);
+        return bf;
+    }
+
+    /**
+     * Scans of a B+ tree are sorted on its key field, and OrderBy and Filter
+     * produce or keep an order
+     */
+    @Test public void isSortedOn() throws Exception {
+        BTreeFile bf = createBTree(new int[][] { { 4, 1 }, { 2, 2 }, { 3, 3 } }, 0);
+        DbIterator scan = new SeqScan(tid, bf.getId(), "t");
+        assertTrue(SortMergeJoin.isSortedOn(scan, 0));
+        assertFalse(SortMergeJoin.isSortedOn(scan, 1));
+        assertTrue(SortMergeJoin.isSortedOn(new BTreeScan(tid, bf.getId(), "t", null), 0));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(new Predicate(1,
+                Predicate.Op.GREATER_THAN, new IntField(1)), scan), 0));
+        assertFalse(SortMergeJoin.isSortedOn(scan1, 0));
+        assertTrue(SortMergeJoin.isSortedOn(new OrderBy(1, true, scan1), 1));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, false, scan1), 1));
+
+        SortMergeJoin eq = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan, new SeqScan(tid, bf.getId(), "u"));
+        assertTrue(SortMergeJoin.isSortedOn(eq, 0));
+        assertTrue(SortMergeJoin.isSortedOn(eq, 2));
+        assertFalse(SortMergeJoin.isSortedOn(eq, 1));
+    }
+
+    /**
+     * The optimizer picks a merge join for two B+ trees keyed on the join
+     * field, without sorting either input, and the ORDER BY on the join field
+     * needs no sort either
+     */
+    @Test public void plannerUsesInterestingOrders() throws Exception {
+        int[][] rows1 = new int[300][];
+        int[][] rows2 = new int[400][];
+        for (int i = 0; i < rows1.length; i++)
+            rows1[i] = new int[] { (i * 7) % rows1.length, i };
+        for (int i = 0; i < rows2.length; i++)
+            rows2[i] = new int[] { (i * 13) % rows2.length, i };
+        BTreeFile bf1 = createBTree(rows1, 0);
+        BTreeFile bf2 = createBTree(rows2, 0);
+        Database.getCatalog().addTable(bf1, "smj_a", "");
+        Database.getCatalog().addTable(bf2, "smj_b", "");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("smj_a", new TableStats(bf1.getId(), 1000));
+        stats.put("smj_b", new TableStats(bf2.getId(), 1000));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM smj_a a, smj_b b WHERE a.c0 = b.c0 ORDER BY a.c0;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator node = ((Operator) plan).getChildren()[0];
+        assertTrue(node instanceof SortMergeJoin);
+        for (DbIterator child : ((Operator) node).getChildren())
+            assertFalse(child instanceof OrderBy);
+
+        plan.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(key >= last);
+            assertEquals(key, ((IntField) t.getField(2)).getValue());
+            last = key;
+            count++;
+        }
+        plan.close();
+        assertEquals(rows1.length, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
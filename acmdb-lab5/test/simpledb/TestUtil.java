@@ -149,6 +149,70 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the number of times each remaining tuple of an open DbIterator
+     *   occurs, by the string form of the tuple, so that iterators returning
+     *   the same tuples in different orders give equal counts.
+     */
+    public static HashMap<String, Integer> countTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        while (it.hasNext()) {
+            String t = it.next().toString();
+            Integer n = counts.get(t);
+            counts.put(t, n == null ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Opens the DbIterator, counts its tuples as countTuples does and closes it.
+     */
+    public static HashMap<String, Integer> openAndCountTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        HashMap<String, Integer> counts = countTuples(it);
+        it.close();
+        return counts;
+    }
+
+    /**
+     * Opens the DbIterator, drains it and closes it.
+     * @return the string forms of its tuples, in the order it returned them
+     */
+    public static ArrayList<String> tupleStrings(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> tuples = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next().toString());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Like tupleStrings, but sorted, so that iterators returning the same
+     *   tuples in different orders give equal lists.
+     */
+    public static ArrayList<String> sortedTupleStrings(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> tuples = tupleStrings(it);
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    /**
+     * @return n ints drawn uniformly from [low, high) by a Random with the
+     *   given seed
+     */
+    public static int[] randomInts(int n, int low, int high, long seed) {
+        int[] data = new int[n];
+        Random rand = new Random(seed);
+        for (int i = 0; i < n; i++)
+            data[i] = low + rand.nextInt(high - low);
+        return data;
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +30,54 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.setInt(), and for fields of other
+     * types next to INT fields
+     */
+    @Test public void primitiveFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertEquals(new IntField(0), tup.getField(1));
+
+        tup.setInt(0, 42);
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        tup.setField(2, new IntField(-7));
+        assertEquals(42, tup.getInt(0));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+        assertEquals(-7, tup.getInt(2));
+        assertEquals("42\tabc\t-7", tup.toString());
+
+        tup.setField(1, null);
+        assertNull(tup.getField(1));
+        tup.setInt(1, 5);
+        assertEquals(new IntField(5), tup.getField(1));
+    }
+
+    /**
+     * Unit test for Tuple.merge()
+     */
+    @Test public void merge() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple t1 = new Tuple(td1);
+        t1.setInt(0, 1);
+        t1.setField(1, new StringField("x", Type.STRING_LEN));
+        t1.setRecordId(new RecordId(new HeapPageId(0, 0), 3));
+        Tuple t2 = Utility.getHeapTuple(new int[] { 2, 3 });
+
+        TupleDesc td = TupleDesc.merge(td1, t2.getTupleDesc());
+        Tuple merged = Tuple.merge(td, t1, t2);
+        assertEquals(td, merged.getTupleDesc());
+        assertNull(merged.getRecordId());
+        assertEquals(1, merged.getInt(0));
+        assertEquals(new StringField("x", Type.STRING_LEN), merged.getField(1));
+        assertEquals(2, merged.getInt(2));
+        assertEquals(3, merged.getInt(3));
+
+        merged = Tuple.merge(TupleDesc.merge(t2.getTupleDesc(), t2.getTupleDesc()), t2, t2);
+        assertEquals(Utility.getHeapTuple(new int[] { 2, 3, 2, 3 }), merged);
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -278,6 +278,153 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		
 	}
 
+	private ArrayList<Tuple> bulkTuples(int from, int to) {
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for(int i = from; i < to; ++i) {
+			tuples.add(BTreeUtility.getBTreeTuple(new int[]{i, i * 7}));
+		}
+		return tuples;
+	}
+
+	private int checkSorted(BTreeFile bf) throws Exception {
+		DbFileIterator fit = bf.iterator(tid);
+		int count = 0;
+		Tuple prev = null;
+		fit.open();
+		while(fit.hasNext()) {
+			Tuple tup = fit.next();
+			if(prev != null)
+				assertTrue(tup.getField(0).compare(Op.GREATER_THAN_OR_EQ, prev.getField(0)));
+			prev = tup;
+			count++;
+		}
+		fit.close();
+		return count;
+	}
+
+	@Test public void bulkLoadSorted() throws Exception {
+		// small pages so that the loaded tree has three levels
+		BufferPool.setPageSize(256);
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		TupleDesc td = bf.getTupleDesc();
+
+		bf.bulkLoad(new TupleIterator(td, bulkTuples(0, 3000)), 1.0);
+
+		// 30 tuples per leaf and 31 children per internal page: 100 leaves,
+		// 4 internal pages (the last two share their children evenly) and a root
+		assertEquals(105, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(3000, checkSorted(bf));
+
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(1234)));
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(new IntField(1234 * 7), it.next().getField(1));
+		assertFalse(it.hasNext());
+		it.close();
+
+		// the loaded tree must still accept regular inserts; packed leaves
+		// split on the first insert, so give the buffer pool some room
+		Database.resetBufferPool(500);
+		for(int i = 0; i < 200; ++i) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 13, 2));
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(3200, checkSorted(bf));
+	}
+
+	@Test public void bulkLoadFillFactor() throws Exception {
+		BufferPool.setPageSize(256);
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+
+		// half-full leaves hold 15 tuples, so 3001 tuples need 200 leaves (the
+		// last one absorbs the extra tuple), 12 internal pages and a root
+		bf.bulkLoad(new TupleIterator(bf.getTupleDesc(), bulkTuples(0, 3001)), 0.5);
+		assertEquals(213, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(3001, checkSorted(bf));
+	}
+
+	@Test public void bulkLoadUnsortedIntoExistingTree() throws Exception {
+		BufferPool.setPageSize(256);
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+
+		// some existing contents, interleaved with the keys that will be loaded
+		for(int i = 0; i < 500; ++i) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 4, 2));
+		}
+
+		ArrayList<Tuple> tuples = bulkTuples(0, 2000);
+		Collections.shuffle(tuples, new Random(42));
+		bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), tuples), 0.8, false);
+		// the loaded tree is installed when the transaction commits
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(2500, checkSorted(bf));
+
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(8)));
+		it.open();
+		int count = 0;
+		while(it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(2, count);
+	}
+
+	@Test public void bulkLoadAbortKeepsTree() throws Exception {
+		BufferPool.setPageSize(256);
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		for(int i = 0; i < 100; ++i) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		int pages = bf.numPages();
+
+		TransactionId loader = new TransactionId();
+		bf.bulkLoad(loader, new TupleIterator(bf.getTupleDesc(), bulkTuples(1000, 2000)), 1.0, true);
+		// nothing is installed before the transaction completes
+		assertEquals(pages, bf.numPages());
+		Database.getBufferPool().transactionComplete(loader, false);
+
+		tid = new TransactionId();
+		assertEquals(pages, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(100, checkSorted(bf));
+	}
+
+	@Test public void bulkLoadRejectsUnsortedInput() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+		ArrayList<Tuple> tuples = bulkTuples(0, 10);
+		Collections.reverse(tuples);
+		try {
+			bf.bulkLoad(new TupleIterator(bf.getTupleDesc(), tuples), 1.0);
+			fail("expected DbException for unsorted input");
+		} catch (DbException e) {
+			// expected
+		}
+		// the file is left as it was: just the empty root leaf
+		assertEquals(1, bf.numPages());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
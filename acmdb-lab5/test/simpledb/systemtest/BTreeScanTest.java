@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Iterator;
@@ -282,6 +283,62 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Plans "SELECT * FROM t WHERE t.field op constant" over the given table. */
+    private DbIterator planFilter(TransactionId tid, HashMap<String, TableStats> stats,
+            DbFile table, String field, Op op, int constant) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t." + field, op, Integer.toString(constant));
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /** Test that the planner answers selective key predicates with an index scan */
+    @Test public void testPlannerChoosesIndex() throws Exception {
+        final int LEAF_PAGES = 30;
+        int keyField = 0;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, keyField);
+        TupleDesc td = Utility.getTupleDesc(2, "field");
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), keyField, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1000));
+        TransactionId tid = new TransactionId();
+
+        // point query on the key: index scan, reading only a handful of pages
+        int key = r.nextInt(LEAF_PAGES*502) + 1;
+        DbIterator query = planFilter(tid, stats, table, "field0", Op.EQUALS, key);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(query).contains("index("));
+        // the plan is a Project over the access path
+        DbIterator plan = ((Operator) query).getChildren()[0];
+        assertTrue(plan instanceof BTreeScan);
+        assertEquals(Op.EQUALS, ((BTreeScan) plan).getIndexPredicate().getOp());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            assertEquals(key, ((IntField) plan.next().getField(keyField)).getValue());
+            count++;
+        }
+        plan.close();
+        assertEquals(1, count);
+        assertTrue(table.readCount <= 4);
+
+        // a range covering the whole table is cheaper as a sequential scan
+        plan = ((Operator) planFilter(tid, stats, table, "field0", Op.GREATER_THAN_OR_EQ, 0)).getChildren()[0];
+        assertTrue(plan instanceof Filter);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SeqScan);
+
+        // predicates on other fields cannot use the index
+        plan = ((Operator) planFilter(tid, stats, table, "field1", Op.EQUALS, key * 2)).getChildren()[0];
+        assertTrue(plan instanceof Filter);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SeqScan);
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
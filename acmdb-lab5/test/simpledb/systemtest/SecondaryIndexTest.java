@@ -0,0 +1,240 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> matching(
+            ArrayList<ArrayList<Integer>> tuples, int field, Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(value)))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private static SecondaryIndex createIndex(HeapFile table, int field) throws Exception {
+        File f = File.createTempFile("secondary", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        SecondaryIndex index = new SecondaryIndex(f, table, field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * Builds an index on a populated table and checks point and range lookups
+     */
+    @Test public void buildAndLookup() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples);
+        SecondaryIndex index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(42))),
+                matching(tuples, 1, Predicate.Op.EQUALS, 42));
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(10))),
+                matching(tuples, 1, Predicate.Op.LESS_THAN, 10));
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1, null),
+                tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Every batch of a lookup is returned in RecordId order, so a lookup that
+     * fits in one batch reads the heap sequentially
+     */
+    @Test public void lookupSortsByRecordId() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 20, null, tuples);
+        SecondaryIndex index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(15));
+        DbFileIterator it = index.lookup(tid, ipred);
+        it.open();
+        long prev = -1;
+        int count = 0;
+        while (it.hasNext()) {
+            RecordId rid = it.next().getRecordId();
+            long cur = (long) rid.getPageId().pageNumber() << 32 | rid.tupleno();
+            assertTrue(cur > prev);
+            prev = cur;
+            count++;
+        }
+        it.close();
+        assertEquals(matching(tuples, 0, Predicate.Op.GREATER_THAN, 15).size(), count);
+
+        // small batches return the same tuples
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, table.getId(), 0, ipred);
+        it = index.lookup(tid, ipred, 7);
+        it.open();
+        count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(matching(tuples, 0, Predicate.Op.GREATER_THAN, 15).size(), count);
+        SystemTestUtil.matchTuples(scan, matching(tuples, 0, Predicate.Op.GREATER_THAN, 15));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Insert and Delete keep the index up to date through the BufferPool
+     */
+    @Test public void insertAndDeleteMaintainIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, tuples);
+        SecondaryIndex index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // insert 100 tuples with field 1 = 1000
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> inserted = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFileUnopened(2, 100, 50, null, inserted);
+        for (ArrayList<Integer> t : inserted)
+            t.set(1, 1000);
+        for (ArrayList<Integer> t : inserted) {
+            Tuple tup = new Tuple(table.getTupleDesc());
+            tup.setField(0, new IntField(t.get(0)));
+            tup.setField(1, new IntField(t.get(1)));
+            Database.getBufferPool().insertTuple(tid, table.getId(), tup);
+        }
+        tuples.addAll(inserted);
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(1000))), inserted);
+
+        // delete every tuple with field 1 < 25
+        Delete delete = new Delete(tid, new Filter(new Predicate(1,
+                Predicate.Op.LESS_THAN, new IntField(25)), new SeqScan(tid, table.getId())));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> remaining = matching(tuples, 1,
+                Predicate.Op.GREATER_THAN_OR_EQ, 25);
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1, null),
+                remaining);
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(30))),
+                matching(remaining, 1, Predicate.Op.LESS_THAN, 30));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Entries are kept in (key, page, slot) order, so deletes on an index with
+     * few distinct keys find their entries directly
+     */
+    @Test public void lowCardinalityDeletes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 2, null, tuples);
+        SecondaryIndex index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete every other tuple of the table through the BufferPool
+        tid = new TransactionId();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            all.add(it.next());
+        it.close();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < all.size(); i++) {
+            Tuple t = all.get(i);
+            if (i % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            } else {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(((IntField) t.getField(0)).getValue());
+                row.add(((IntField) t.getField(1)).getValue());
+                remaining.add(row);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        BTreeChecker.checkRep(index.getFile(), tid, new HashMap<PageId, Page>(), false);
+        Tuple prev = null;
+        it = index.getFile().iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            if (prev != null) {
+                assertTrue(prev.getField(0).compare(Predicate.Op.LESS_THAN_OR_EQ, e.getField(0)));
+                if (prev.getField(0).equals(e.getField(0)))
+                    assertTrue(prev.getField(1).compare(Predicate.Op.LESS_THAN_OR_EQ, e.getField(1)));
+            }
+            prev = e;
+        }
+        it.close();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(1))),
+                matching(remaining, 1, Predicate.Op.EQUALS, 1));
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, table.getId(), 1, null),
+                remaining);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Fields annotated with idx in a catalog file get an index, built from the
+     * table when the index file does not exist yet
+     */
+    @Test public void loadSchemaIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 300, 30, null, tuples);
+        File dir = data.getParentFile();
+        String name = "sidx" + System.nanoTime();
+        File table = new File(dir, name + ".dat");
+        assertTrue(data.renameTo(table));
+        table.deleteOnExit();
+        File indexFile = new File(dir, name + ".b.idx");
+        indexFile.deleteOnExit();
+        File catalog = File.createTempFile("catalog", ".txt", dir);
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (a int pk, b int idx)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId(name);
+        assertEquals(1, Database.getCatalog().getIndexes(tableid).size());
+        assertTrue(indexFile.length() > 0);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, tableid, 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(7))),
+                matching(tuples, 1, Predicate.Op.EQUALS, 7));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}